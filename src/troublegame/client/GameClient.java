@@ -5,11 +5,13 @@ import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.PrintWriter;
 import java.lang.management.ManagementFactory;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
 import java.net.UnknownHostException;
+import java.util.EnumMap;
 import java.util.Timer;
 import java.util.TimerTask;
 
@@ -23,16 +25,29 @@ import troublegame.client.panels.GameRoomPanel;
 import troublegame.client.panels.InfoPanel;
 import troublegame.client.panels.LobbyPanel;
 import troublegame.client.panels.RegisterPanel;
+import troublegame.communication.BinaryCodec;
+import troublegame.communication.CommandDispatcher;
 import troublegame.communication.CommunicationHandler;
+import troublegame.communication.ProtocolReader;
 
 public class GameClient {
 	
 	public static final String GAME_MESSAGE = "GAME: ";
 	
 	/**
-	 * The buffered reader.
+	 * How long to wait for the server to answer the protocol request in milliseconds.
 	 */
-	private BufferedReader in;
+	private static final int PROTOCOL_TIMEOUT = 2000;
+	
+	/**
+	 * The protocol reader.
+	 */
+	private ProtocolReader in;
+	
+	/**
+	 * The binary codec, or null if the server only speaks the text protocol.
+	 */
+	private BinaryCodec codec;
 	
 	/**
 	 * The print writer.
@@ -49,6 +64,16 @@ public class GameClient {
 		new GameClient(info[0], Integer.parseInt(info[1]));
 	}
 	
+	/**
+	 * The user interface.
+	 */
+	private SwingUI ui;
+	
+	/**
+	 * The command dispatchers for each interface state.
+	 */
+	private EnumMap<Interface, CommandDispatcher<SwingUI>> dispatchers;
+	
 	/**
 	 * Constructs a new game client.
 	 * @param ip is the IP address.
@@ -56,259 +81,29 @@ public class GameClient {
 	 */
 	public GameClient(String ip, int port) {
 		this.socket = null;
+		this.dispatchers = new EnumMap<Interface, CommandDispatcher<SwingUI>>(Interface.class);
+		registerCommands();
 		try {
 			socket = new Socket(ip, port);
-			in = new BufferedReader(new InputStreamReader(socket.getInputStream()));
+			in = new ProtocolReader(socket.getInputStream());
 		    out = new PrintWriter(socket.getOutputStream(), true);
-			SwingUI ui = new SwingUI(this, in , out);
+		    negotiateProtocol();
+			ui = new SwingUI(this);
 			
 			ui.setVisible(true);
 		    while (true) {
 		    	
-		    	String input = in.readLine();
+		    	String input = in.read(codec);
 		    	System.out.println("Server returned:" + input);
 	    		
-		    	String[] inputSplit = input.split(" ");
 		    	if (input.equals(CommunicationHandler.LOGOUT_SUCCESS)) {
 		    		this.socket.close();
 		    		this.restart();
 		    		return;
 		    	}
-		    	switch (ui.getInterface()) {
-		    		case START:
-		    			break;
-		    		case LOGIN:
-		    			if (input.startsWith(CommunicationHandler.LOGIN_SUCCESS)) {
-		    				String username = input.substring(CommunicationHandler.LOGIN_SUCCESS.length() + 1);
-		    				ui.send(CommunicationHandler.GET_STATISTICS);
-		    				ui.setUser(new User(username));
-		    				ui.setInterface(Interface.LOBBY);							
-				    	} else if (input.startsWith(CommunicationHandler.LOGIN_ERROR)) {
-				    		String errorMsg = input.substring(14);
-				    		JOptionPane.showMessageDialog(null, errorMsg, "Please Try again", JOptionPane.PLAIN_MESSAGE);
-				    	} 
-		    			break;
-		    		case LOBBY:
-		    			String[] lobbySplit = input.split("] ");
-		    			LobbyPanel lobbyPanel = (LobbyPanel) ui.getCurrentPanel();
-		    			if (input.startsWith(CommunicationHandler.GAME_ROOM_OPEN)) {
-		    				lobbyPanel.addGameRoom(lobbySplit[1]);
-		    				lobbyPanel.addActivityFeed("[Server] A game has been created");
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_NEW)) {
-		    				ui.setInterface(Interface.PARTY);
-		    				// query for game room name
-		    				ui.send(CommunicationHandler.GAME_ROOM_INFO);
-		    				lobbyPanel.clearGameRooms();
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_JOIN)) {
-		    				ui.setInterface(Interface.PARTY);
-		    				// query for game room name
-		    				ui.send(CommunicationHandler.GAME_ROOM_INFO);
-		    				lobbyPanel.clearGameRooms();
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_CLOSE)) {
-		    				lobbyPanel.removeGameRoom(lobbySplit[1]);
-		    			} else if (input.startsWith(CommunicationHandler.GET_STATISTICS)) {
-				    		User me = ui.getUser();
-				    		me.setGamesPlayed(Integer.parseInt(inputSplit[1]));
-				    		me.setGamesWon(Integer.parseInt(inputSplit[2]));
-				    		ui.send((CommunicationHandler.LOBBY_ONLINE_LIST));
-				    	} else if (input.startsWith(CommunicationHandler.LOBBY_CHAT)) {
-		    				String chatMessage = input.substring(CommunicationHandler.LOBBY_CHAT.length() + 1);
-		    				ui.pushChat(chatMessage, SwingUI.LOBBY);
-		    			} else if (input.startsWith(CommunicationHandler.LOBBY_ONLINE_LIST)) {
-				    		ui.updateOnlineList(input.substring(CommunicationHandler.LOBBY_ONLINE_LIST.length() + 1));
-				    	} else if (input.startsWith(CommunicationHandler.GAME_ROOM_QUERY)) {
-				    		input = input.substring(CommunicationHandler.GAME_ROOM_QUERY.length());
-				    		
-				    		if(input != null && !input.isEmpty()) {
-					    		String[] rooms = input.split("@");
-					    		for (String room: rooms) {
-					    			lobbyPanel.addGameRoom(room);
-					    		}
-				    		}
-				    	} else if (input.startsWith(CommunicationHandler.LOBBY_ACTIVITY_FEED)) {
-				    		ui.addActivityFeed(input.substring(CommunicationHandler.LOBBY_ACTIVITY_FEED.length() + 1));
-				    	} else if (input.startsWith(CommunicationHandler.FRIEND_ADD_FAIL)) {
-				    		JOptionPane.showMessageDialog(null, "Unable to add friend, please try again later.");
-				    	} else if (input.startsWith(CommunicationHandler.FRIEND_ADD_SUCCESS)) {
-				    		String username = input.substring(CommunicationHandler.FRIEND_ADD_SUCCESS.length());
-				    		JOptionPane.showMessageDialog(null, "You are now friends with "+username);
-				    	} else if (input.startsWith(CommunicationHandler.FRIENDS_ALREADY)) {
-				    		String username = input.substring(CommunicationHandler.FRIENDS_ALREADY.length());
-				    		JOptionPane.showMessageDialog(null, "You are already friends with "+username);
-				    	} else if (input.startsWith(CommunicationHandler.FRIEND_INVITE)) {
-				    		input = input.substring(CommunicationHandler.FRIEND_INVITE.length());
-				    		String[] split = input.split("%");
-				    		JOptionPane.showMessageDialog(null, split[0]+" invites you for a game! Join "+split[1]+" to play!");
-				    	}
-		    			break;
-		    		case IN_GAME:
-		    			GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
-		    			GameChatPanel chatPanel = gamePanel.getChatPanel();
-		    			BoardPanel boardPanel = gamePanel.getBoardPanel();
-		    			InfoPanel infoPanel = gamePanel.getInfoPanel();
-		    			if (input.startsWith(CommunicationHandler.GAME_START)) {
-		    				String startTime = input.substring(CommunicationHandler.GAME_START.length() + 1);
-		    				chatPanel.sendMessageToChatBox(startTime);
-		    				boardPanel.setupPanel();
-				    	} else if (input.startsWith(CommunicationHandler.GAME_COLORS)) {
-				    		boardPanel.setupPlayer(inputSplit[1], inputSplit[2]);
-				    		infoPanel.setupPlayer(inputSplit[1], inputSplit[2]);
-				    	} else if (input.startsWith(CommunicationHandler.GAME_ROLL)) {
-				    		int rolled = Integer.valueOf(inputSplit[1]);
-				    		boardPanel.rollAndShow(rolled);
-				    		new Timer().schedule(new TimerTask() {
-								@Override
-								public void run() {
-									if (ui.getUser().getUsername().equals(inputSplit[3])) {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled);
-									} else {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled);
-									}
-						    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
-								}
-							}, 1500);
-				    		
-				    	} else if (input.startsWith(CommunicationHandler.GAME_ROLL_AGAIN)) {
-				    		int rolled = Integer.valueOf(inputSplit[1]);
-				    		boardPanel.rollAndShow(rolled);
-				    		new Timer().schedule(new TimerTask() {
-								@Override
-								public void run() {
-						    		boardPanel.updateTurn(inputSplit[3]);
-									if (ui.getUser().getUsername().equals(inputSplit[3])) {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + ". Roll again to move.");
-									} else {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled + ". They can roll again.");
-									}
-						    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
-								}
-							}, 1500);
-				    		
-				    	} else if (input.startsWith(CommunicationHandler.GAME_ROLL_SUCCESS)) {
-				    		int rolled = Integer.valueOf(inputSplit[1]);
-				    		boardPanel.rollAndShow(rolled);
-				    		new Timer().schedule(new TimerTask() {
-								@Override
-								public void run() {
-									if (ui.getUser().getUsername().equals(inputSplit[4])) {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + "! Moving token into end zone!");
-									} else {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled + "! Moving token into end zone!");
-									}
-						    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
-								}
-							}, 1500);
-				    	} else if (input.startsWith(CommunicationHandler.GAME_ROLL_FAIL)) {
-				    		int rolled = Integer.valueOf(inputSplit[1]);
-				    		boardPanel.rollAndShow(rolled);
-				    		new Timer().schedule(new TimerTask() {
-								@Override
-								public void run() {
-									if (ui.getUser().getUsername().equals(inputSplit[2])) {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + ". Unable to move!");
-									} else {
-										chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[2] + " rolled a " + rolled + ". Unable to move!");
-									}
-								}
-							}, 1500);
-				    	} else if (input.startsWith(CommunicationHandler.GAME_EAT_TOKEN)) {
-				    		boardPanel.updateToken(inputSplit[2], Integer.parseInt(inputSplit[1]), Integer.parseInt(inputSplit[3]), Integer.parseInt(inputSplit[1]));
-				    		if (inputSplit[2].equals(ui.getUser().getUsername())) {
-				    			chatPanel.sendMessageToChatBox(GAME_MESSAGE + "Oh no! Your token has been eaten and sent back to home.");
-				    		}
-				    	} else if (input.startsWith(CommunicationHandler.GAME_TURN)) {
-				    		new Timer().schedule(new TimerTask() {
-								@Override
-								public void run() {
-									boardPanel.updateTurn(inputSplit[1]);
-									infoPanel.updateTurn(inputSplit[1]);
-						    		if (ui.getUser().getUsername().equals(inputSplit[1])) {
-						    			chatPanel.sendMessageToChatBox(GAME_MESSAGE + "It's your turn! Click the dice to roll");
-						    		} else {
-						    			String currPlayer = inputSplit[1];
-						    			int lastCharIndex = currPlayer.length() - 1;
-						    			char lastLetInPlayerName = Character.toLowerCase(currPlayer.charAt(lastCharIndex));
-						    			currPlayer += (lastLetInPlayerName == 's') ? "'" : "'s";
-						    			chatPanel.sendMessageToChatBox(GAME_MESSAGE + "It's " + currPlayer + " turn");
-						    		}
-								}
-							}, 1750);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_CHAT)) {
-		    				String message = input.substring(CommunicationHandler.GAME_CHAT.length() + 1);
-		    				chatPanel.sendMessageToChatBox(message);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_OVER)) {
-		    				ui.setInterface(Interface.LOBBY);
-		    				String message = input.substring(CommunicationHandler.GAME_OVER.length() + 1);
-		    				ui.addActivityFeed(message);
-		    			}
-		    			break;
-		    		case PARTY:
-		    			GameRoomPanel gameRoomPanel = (GameRoomPanel) ui.getCurrentPanel();
-		    			if (input.startsWith(CommunicationHandler.GAME_ROOM_MEMBER)) {
-		    				gameRoomPanel.addUser(inputSplit[1]);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_JOIN)) {
-		    				gameRoomPanel.addUser(inputSplit[1]);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_SETUP)) {
-		    				ui.setInterface(Interface.IN_GAME);
-		    				BoardPanel board = ((GamePanel) ui.getCurrentPanel()).getBoardPanel();
-		    				String[] setupArgs = input.split(" ");
-		    				board.setDie(Integer.valueOf(setupArgs[1]));
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_INFO)) {
-		    				String name = input.substring(16);
-		    				name = name.trim();
-		    				ui.setGameRoomName(name);
-		    				// query for friend list
-		    				ui.send(CommunicationHandler.FRIENDS_GET_LIST);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_CHAT)) {
-		    				String chatMessage = input.substring(CommunicationHandler.GAME_ROOM_CHAT.length());
-		    				ui.pushChat(chatMessage, SwingUI.GAME_ROOM);
-		    			} else if (input.equals(CommunicationHandler.GAME_ROOM_LEAVE)) {
-		    				ui.setInterface(Interface.LOBBY);
-		    				gameRoomPanel.clearUsers();
-		    			} else if (input.startsWith(CommunicationHandler.GAME_ROOM_LEAVE)) {
-		    				gameRoomPanel.removeUser(inputSplit[1]);
-		    			} else if (input.startsWith(CommunicationHandler.GAME_START_FAIL)) {
-		    				JOptionPane.showMessageDialog(null, "Only the owner can start the game!");
-		    			} else if (input.startsWith(CommunicationHandler.FRIENDS_GET_LIST)) {
-		    				input = input.substring(CommunicationHandler.FRIENDS_GET_LIST.length());
-		    				String[] friends = input.split("%");
-		    				ui.displayFriends(friends, SwingUI.GAME_ROOM);
-		    			}
-		    			break;
-		    		case USER_PROFILE:
-		    			if (input.startsWith(CommunicationHandler.UPDATE_SUCCESS)) {
-		    				String username = input.substring(CommunicationHandler.UPDATE_SUCCESS.length() + 1);
-		    				ui.setUser(new User(username));
-		    				JOptionPane.showMessageDialog(null, "Your display name has been changed");
-		    			} else if (input.startsWith(CommunicationHandler.UPDATE_FAIL)) {
-		    				JOptionPane.showMessageDialog(null, "Incorrect password.");
-		    			} else if (input.startsWith(CommunicationHandler.CHANGE_SUCCESS)) {
-		    				JOptionPane.showMessageDialog(null, "Your password has been changed");
-		    			} else if (input.startsWith(CommunicationHandler.FRIENDS_GET_LIST)) {
-		    				input = input.substring(CommunicationHandler.FRIENDS_GET_LIST.length());
-		    				String[] friends = input.split("%");
-		    				ui.displayFriends(friends, SwingUI.USER_PROFILE);
-		    			} else if (input.startsWith(CommunicationHandler.UNFRIEND_SUCCESS)) {
-		    				String username = input.substring(CommunicationHandler.UNFRIEND_SUCCESS.length());
-		    				JOptionPane.showMessageDialog(null, "You have successfully removed "+ username +" from your friend list");
-		    				ui.removeFriend(username, SwingUI.USER_PROFILE);
-		    			} else if (input.startsWith(CommunicationHandler.UNFRIEND_FAIL)) {
-		    				JOptionPane.showMessageDialog(null, "An error occured while trying to remove this user.");
-		    			}
-		    			break;
-		    		case SIGN_UP:
-		    			RegisterPanel registerPanel = (RegisterPanel) ui.getCurrentPanel();
-		    			if (input.equals(CommunicationHandler.REGISTER_SUCCESS)) {
-		    				ui.setInterface(Interface.LOGIN);
-		    				JOptionPane.showMessageDialog(null, "Account has been successfully created.");
-		    			} else if (input.equals(CommunicationHandler.REGISTER_ERROR)) {
-		    				JOptionPane.showMessageDialog(null, "The email you have entered already exists!", "Please Try again", JOptionPane.ERROR_MESSAGE);
-		    				registerPanel.getEmailField().setBackground(Color.RED);
-		    			}
-		    			break;
-		    		default:
-		    			break;
-		    	}
+		    	CommandDispatcher<SwingUI> dispatcher = dispatchers.get(ui.getInterface());
+		    	if (dispatcher != null)
+		    		dispatcher.dispatch(ui, input);
 		    }
 		} catch (UnknownHostException e) {
 			e.printStackTrace();
@@ -323,6 +118,422 @@ public class GameClient {
 		}
 	}
 	
+	/**
+	 * Asks the server for the binary protocol. Servers that do not answer in
+	 * time, or answer with anything else, are spoken to in the text protocol.
+	 * @throws IOException if the socket failed.
+	 */
+	private void negotiateProtocol() throws IOException {
+		out.println(CommunicationHandler.PROTOCOL + " " + CommunicationHandler.PROTOCOL_BINARY);
+		socket.setSoTimeout(PROTOCOL_TIMEOUT);
+		try {
+			String reply = in.readLine();
+			if ((CommunicationHandler.PROTOCOL + " " + CommunicationHandler.PROTOCOL_BINARY).equals(reply))
+				codec = new BinaryCodec();
+		} catch (SocketTimeoutException e) {
+			System.out.println("Server did not answer the protocol request, using the text protocol");
+		} finally {
+			socket.setSoTimeout(0);
+		}
+	}
+	
+	/**
+	 * Sends a message to the server in the negotiated protocol.
+	 * @param message is the protocol line.
+	 */
+	public synchronized void send(String message) {
+		if (codec == null) {
+			out.println(message);
+			return;
+		}
+		try {
+			OutputStream output = socket.getOutputStream();
+			output.write(codec.encode(message));
+			output.flush();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+	}
+	
+	/**
+	 * Registers the handler for every server command in each interface state.
+	 */
+	private void registerCommands() {
+		CommandDispatcher<SwingUI> login = dispatcher(Interface.LOGIN);
+		login.register(CommunicationHandler.LOGIN_SUCCESS, this::handleLoginSuccess);
+		login.register(CommunicationHandler.LOGIN_ERROR, this::handleLoginError);
+		
+		CommandDispatcher<SwingUI> lobby = dispatcher(Interface.LOBBY);
+		lobby.register(CommunicationHandler.GAME_ROOM_OPEN, this::handleGameRoomOpen);
+		lobby.register(CommunicationHandler.GAME_ROOM_NEW, this::handleGameRoomEntered);
+		lobby.register(CommunicationHandler.GAME_ROOM_JOIN, this::handleGameRoomEntered);
+		lobby.register(CommunicationHandler.GAME_ROOM_CLOSE, this::handleGameRoomClose);
+		lobby.register(CommunicationHandler.GET_STATISTICS, this::handleStatistics);
+		lobby.register(CommunicationHandler.LOBBY_CHAT, this::handleLobbyChat);
+		lobby.register(CommunicationHandler.LOBBY_ONLINE_LIST, this::handleOnlineList);
+		lobby.register(CommunicationHandler.GAME_ROOM_QUERY, this::handleGameRoomQuery);
+		lobby.register(CommunicationHandler.LOBBY_ACTIVITY_FEED, this::handleActivityFeed);
+		lobby.register(CommunicationHandler.FRIEND_ADD_FAIL, this::handleFriendAddFail);
+		lobby.register(CommunicationHandler.FRIEND_ADD_SUCCESS, this::handleFriendAddSuccess);
+		lobby.register(CommunicationHandler.FRIENDS_ALREADY, this::handleFriendsAlready);
+		lobby.register(CommunicationHandler.FRIEND_INVITE, this::handleFriendInvite);
+		
+		CommandDispatcher<SwingUI> inGame = dispatcher(Interface.IN_GAME);
+		inGame.register(CommunicationHandler.GAME_START, this::handleGameStart);
+		inGame.register(CommunicationHandler.GAME_COLORS, this::handleGameColors);
+		inGame.register(CommunicationHandler.GAME_ROLL, this::handleGameRoll);
+		inGame.register(CommunicationHandler.GAME_ROLL_AGAIN, this::handleGameRollAgain);
+		inGame.register(CommunicationHandler.GAME_ROLL_SUCCESS, this::handleGameRollSuccess);
+		inGame.register(CommunicationHandler.GAME_ROLL_FAIL, this::handleGameRollFail);
+		inGame.register(CommunicationHandler.GAME_EAT_TOKEN, this::handleGameEatToken);
+		inGame.register(CommunicationHandler.GAME_TURN, this::handleGameTurn);
+		inGame.register(CommunicationHandler.GAME_CHAT, this::handleGameChat);
+		inGame.register(CommunicationHandler.GAME_OVER, this::handleGameOver);
+		
+		CommandDispatcher<SwingUI> party = dispatcher(Interface.PARTY);
+		party.register(CommunicationHandler.GAME_ROOM_MEMBER, this::handleGameRoomMember);
+		party.register(CommunicationHandler.GAME_ROOM_JOIN, this::handleGameRoomMember);
+		party.register(CommunicationHandler.GAME_SETUP, this::handleGameSetup);
+		party.register(CommunicationHandler.GAME_ROOM_INFO, this::handleGameRoomInfo);
+		party.register(CommunicationHandler.GAME_ROOM_CHAT, this::handleGameRoomChat);
+		party.register(CommunicationHandler.GAME_ROOM_LEAVE, this::handleGameRoomLeave);
+		party.register(CommunicationHandler.GAME_START_FAIL, this::handleGameStartFail);
+		party.register(CommunicationHandler.GAME_ROOM_AI_LEVEL, this::handleGameRoomAiLevel);
+		party.register(CommunicationHandler.FRIENDS_GET_LIST, (ui, input) -> handleFriendList(ui, input, SwingUI.GAME_ROOM));
+		
+		CommandDispatcher<SwingUI> profile = dispatcher(Interface.USER_PROFILE);
+		profile.register(CommunicationHandler.UPDATE_SUCCESS, this::handleUpdateSuccess);
+		profile.register(CommunicationHandler.UPDATE_FAIL, this::handleUpdateFail);
+		profile.register(CommunicationHandler.CHANGE_SUCCESS, this::handleChangeSuccess);
+		profile.register(CommunicationHandler.FRIENDS_GET_LIST, (ui, input) -> handleFriendList(ui, input, SwingUI.USER_PROFILE));
+		profile.register(CommunicationHandler.UNFRIEND_SUCCESS, this::handleUnfriendSuccess);
+		profile.register(CommunicationHandler.UNFRIEND_FAIL, this::handleUnfriendFail);
+		
+		CommandDispatcher<SwingUI> signUp = dispatcher(Interface.SIGN_UP);
+		signUp.register(CommunicationHandler.REGISTER_SUCCESS, this::handleRegisterSuccess);
+		signUp.register(CommunicationHandler.REGISTER_ERROR, this::handleRegisterError);
+	}
+	
+	/**
+	 * @param state is an interface state.
+	 * @return a new dispatcher used while the interface is in the given state.
+	 */
+	private CommandDispatcher<SwingUI> dispatcher(Interface state) {
+		CommandDispatcher<SwingUI> dispatcher = new CommandDispatcher<SwingUI>();
+		dispatchers.put(state, dispatcher);
+		return dispatcher;
+	}
+	
+	private void handleLoginSuccess(SwingUI ui, String input) {
+		String username = input.substring(CommunicationHandler.LOGIN_SUCCESS.length() + 1);
+		ui.send(CommunicationHandler.GET_STATISTICS);
+		ui.setUser(new User(username));
+		ui.setInterface(Interface.LOBBY);
+	}
+	
+	private void handleLoginError(SwingUI ui, String input) {
+		String errorMsg = input.substring(14);
+		JOptionPane.showMessageDialog(null, errorMsg, "Please Try again", JOptionPane.PLAIN_MESSAGE);
+	}
+	
+	private void handleGameRoomOpen(SwingUI ui, String input) {
+		LobbyPanel lobbyPanel = (LobbyPanel) ui.getCurrentPanel();
+		lobbyPanel.addGameRoom(input.split("] ")[1]);
+		lobbyPanel.addActivityFeed("[Server] A game has been created");
+	}
+	
+	private void handleGameRoomEntered(SwingUI ui, String input) {
+		LobbyPanel lobbyPanel = (LobbyPanel) ui.getCurrentPanel();
+		ui.setInterface(Interface.PARTY);
+		// query for game room name
+		ui.send(CommunicationHandler.GAME_ROOM_INFO);
+		lobbyPanel.clearGameRooms();
+	}
+	
+	private void handleGameRoomClose(SwingUI ui, String input) {
+		LobbyPanel lobbyPanel = (LobbyPanel) ui.getCurrentPanel();
+		lobbyPanel.removeGameRoom(input.split("] ")[1]);
+	}
+	
+	private void handleStatistics(SwingUI ui, String input) {
+		String[] inputSplit = input.split(" ");
+		User me = ui.getUser();
+		me.setGamesPlayed(Integer.parseInt(inputSplit[1]));
+		me.setGamesWon(Integer.parseInt(inputSplit[2]));
+		ui.send((CommunicationHandler.LOBBY_ONLINE_LIST));
+	}
+	
+	private void handleLobbyChat(SwingUI ui, String input) {
+		String chatMessage = input.substring(CommunicationHandler.LOBBY_CHAT.length() + 1);
+		ui.pushChat(chatMessage, SwingUI.LOBBY);
+	}
+	
+	private void handleOnlineList(SwingUI ui, String input) {
+		ui.updateOnlineList(input.substring(CommunicationHandler.LOBBY_ONLINE_LIST.length() + 1));
+	}
+	
+	private void handleGameRoomQuery(SwingUI ui, String input) {
+		LobbyPanel lobbyPanel = (LobbyPanel) ui.getCurrentPanel();
+		input = input.substring(CommunicationHandler.GAME_ROOM_QUERY.length());
+		
+		if(input != null && !input.isEmpty()) {
+			String[] rooms = input.split("@");
+			for (String room: rooms) {
+				lobbyPanel.addGameRoom(room);
+			}
+		}
+	}
+	
+	private void handleActivityFeed(SwingUI ui, String input) {
+		ui.addActivityFeed(input.substring(CommunicationHandler.LOBBY_ACTIVITY_FEED.length() + 1));
+	}
+	
+	private void handleFriendAddFail(SwingUI ui, String input) {
+		JOptionPane.showMessageDialog(null, "Unable to add friend, please try again later.");
+	}
+	
+	private void handleFriendAddSuccess(SwingUI ui, String input) {
+		String username = input.substring(CommunicationHandler.FRIEND_ADD_SUCCESS.length());
+		JOptionPane.showMessageDialog(null, "You are now friends with "+username);
+	}
+	
+	private void handleFriendsAlready(SwingUI ui, String input) {
+		String username = input.substring(CommunicationHandler.FRIENDS_ALREADY.length());
+		JOptionPane.showMessageDialog(null, "You are already friends with "+username);
+	}
+	
+	private void handleFriendInvite(SwingUI ui, String input) {
+		input = input.substring(CommunicationHandler.FRIEND_INVITE.length());
+		String[] split = input.split("%");
+		JOptionPane.showMessageDialog(null, split[0]+" invites you for a game! Join "+split[1]+" to play!");
+	}
+	
+	private void handleGameStart(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		String startTime = input.substring(CommunicationHandler.GAME_START.length() + 1);
+		gamePanel.getChatPanel().sendMessageToChatBox(startTime);
+		gamePanel.getBoardPanel().setupPanel();
+	}
+	
+	private void handleGameColors(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		String[] inputSplit = input.split(" ");
+		gamePanel.getBoardPanel().setupPlayer(inputSplit[1], inputSplit[2]);
+		gamePanel.getInfoPanel().setupPlayer(inputSplit[1], inputSplit[2]);
+	}
+	
+	private void handleGameRoll(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		GameChatPanel chatPanel = gamePanel.getChatPanel();
+		BoardPanel boardPanel = gamePanel.getBoardPanel();
+		String[] inputSplit = input.split(" ");
+		int rolled = Integer.valueOf(inputSplit[1]);
+		boardPanel.rollAndShow(rolled);
+		new Timer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+				if (ui.getUser().getUsername().equals(inputSplit[3])) {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled);
+				} else {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled);
+				}
+	    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
+			}
+		}, 1500);
+	}
+	
+	private void handleGameRollAgain(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		GameChatPanel chatPanel = gamePanel.getChatPanel();
+		BoardPanel boardPanel = gamePanel.getBoardPanel();
+		String[] inputSplit = input.split(" ");
+		int rolled = Integer.valueOf(inputSplit[1]);
+		boardPanel.rollAndShow(rolled);
+		new Timer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+	    		boardPanel.updateTurn(inputSplit[3]);
+				if (ui.getUser().getUsername().equals(inputSplit[3])) {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + ". Roll again to move.");
+				} else {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled + ". They can roll again.");
+				}
+	    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
+			}
+		}, 1500);
+	}
+	
+	private void handleGameRollSuccess(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		GameChatPanel chatPanel = gamePanel.getChatPanel();
+		BoardPanel boardPanel = gamePanel.getBoardPanel();
+		String[] inputSplit = input.split(" ");
+		int rolled = Integer.valueOf(inputSplit[1]);
+		boardPanel.rollAndShow(rolled);
+		new Timer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+				if (ui.getUser().getUsername().equals(inputSplit[4])) {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + "! Moving token into end zone!");
+				} else {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[3] + " rolled a " + rolled + "! Moving token into end zone!");
+				}
+	    		boardPanel.updateToken(inputSplit[3], Integer.parseInt(inputSplit[2]), Integer.parseInt(inputSplit[4]), Integer.parseInt(inputSplit[5]));
+			}
+		}, 1500);
+	}
+	
+	private void handleGameRollFail(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		GameChatPanel chatPanel = gamePanel.getChatPanel();
+		BoardPanel boardPanel = gamePanel.getBoardPanel();
+		String[] inputSplit = input.split(" ");
+		int rolled = Integer.valueOf(inputSplit[1]);
+		boardPanel.rollAndShow(rolled);
+		new Timer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+				if (ui.getUser().getUsername().equals(inputSplit[2])) {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + "You rolled a " + rolled + ". Unable to move!");
+				} else {
+					chatPanel.sendMessageToChatBox(GAME_MESSAGE + inputSplit[2] + " rolled a " + rolled + ". Unable to move!");
+				}
+			}
+		}, 1500);
+	}
+	
+	private void handleGameEatToken(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		String[] inputSplit = input.split(" ");
+		gamePanel.getBoardPanel().updateToken(inputSplit[2], Integer.parseInt(inputSplit[1]), Integer.parseInt(inputSplit[3]), Integer.parseInt(inputSplit[1]));
+		if (inputSplit[2].equals(ui.getUser().getUsername())) {
+			gamePanel.getChatPanel().sendMessageToChatBox(GAME_MESSAGE + "Oh no! Your token has been eaten and sent back to home.");
+		}
+	}
+	
+	private void handleGameTurn(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		GameChatPanel chatPanel = gamePanel.getChatPanel();
+		BoardPanel boardPanel = gamePanel.getBoardPanel();
+		InfoPanel infoPanel = gamePanel.getInfoPanel();
+		String[] inputSplit = input.split(" ");
+		new Timer().schedule(new TimerTask() {
+			@Override
+			public void run() {
+				boardPanel.updateTurn(inputSplit[1]);
+				infoPanel.updateTurn(inputSplit[1]);
+	    		if (ui.getUser().getUsername().equals(inputSplit[1])) {
+	    			chatPanel.sendMessageToChatBox(GAME_MESSAGE + "It's your turn! Click the dice to roll");
+	    		} else {
+	    			String currPlayer = inputSplit[1];
+	    			int lastCharIndex = currPlayer.length() - 1;
+	    			char lastLetInPlayerName = Character.toLowerCase(currPlayer.charAt(lastCharIndex));
+	    			currPlayer += (lastLetInPlayerName == 's') ? "'" : "'s";
+	    			chatPanel.sendMessageToChatBox(GAME_MESSAGE + "It's " + currPlayer + " turn");
+	    		}
+			}
+		}, 1750);
+	}
+	
+	private void handleGameChat(SwingUI ui, String input) {
+		GamePanel gamePanel = (GamePanel) ui.getCurrentPanel();
+		String message = input.substring(CommunicationHandler.GAME_CHAT.length() + 1);
+		gamePanel.getChatPanel().sendMessageToChatBox(message);
+	}
+	
+	private void handleGameOver(SwingUI ui, String input) {
+		ui.setInterface(Interface.LOBBY);
+		String message = input.substring(CommunicationHandler.GAME_OVER.length() + 1);
+		ui.addActivityFeed(message);
+	}
+	
+	private void handleGameRoomMember(SwingUI ui, String input) {
+		GameRoomPanel gameRoomPanel = (GameRoomPanel) ui.getCurrentPanel();
+		gameRoomPanel.addUser(input.split(" ")[1]);
+	}
+	
+	private void handleGameSetup(SwingUI ui, String input) {
+		ui.setInterface(Interface.IN_GAME);
+		BoardPanel board = ((GamePanel) ui.getCurrentPanel()).getBoardPanel();
+		String[] setupArgs = input.split(" ");
+		board.setDie(Integer.valueOf(setupArgs[1]));
+	}
+	
+	private void handleGameRoomInfo(SwingUI ui, String input) {
+		String name = input.substring(16);
+		name = name.trim();
+		ui.setGameRoomName(name);
+		// query for friend list
+		ui.send(CommunicationHandler.FRIENDS_GET_LIST);
+		// query for the AI level
+		ui.send(CommunicationHandler.GAME_ROOM_AI_LEVEL);
+	}
+	
+	private void handleGameRoomChat(SwingUI ui, String input) {
+		String chatMessage = input.substring(CommunicationHandler.GAME_ROOM_CHAT.length());
+		ui.pushChat(chatMessage, SwingUI.GAME_ROOM);
+	}
+	
+	private void handleGameRoomLeave(SwingUI ui, String input) {
+		GameRoomPanel gameRoomPanel = (GameRoomPanel) ui.getCurrentPanel();
+		if (input.equals(CommunicationHandler.GAME_ROOM_LEAVE)) {
+			ui.setInterface(Interface.LOBBY);
+			gameRoomPanel.clearUsers();
+		} else {
+			gameRoomPanel.removeUser(input.split(" ")[1]);
+		}
+	}
+	
+	private void handleGameRoomAiLevel(SwingUI ui, String input) {
+		GameRoomPanel gameRoomPanel = (GameRoomPanel) ui.getCurrentPanel();
+		gameRoomPanel.setAiLevel(input.substring(CommunicationHandler.GAME_ROOM_AI_LEVEL.length()).trim());
+	}
+	
+	private void handleGameStartFail(SwingUI ui, String input) {
+		JOptionPane.showMessageDialog(null, "Only the owner can start the game!");
+	}
+	
+	private void handleFriendList(SwingUI ui, String input, int type) {
+		input = input.substring(CommunicationHandler.FRIENDS_GET_LIST.length());
+		String[] friends = input.split("%");
+		ui.displayFriends(friends, type);
+	}
+	
+	private void handleUpdateSuccess(SwingUI ui, String input) {
+		String username = input.substring(CommunicationHandler.UPDATE_SUCCESS.length() + 1);
+		ui.setUser(new User(username));
+		JOptionPane.showMessageDialog(null, "Your display name has been changed");
+	}
+	
+	private void handleUpdateFail(SwingUI ui, String input) {
+		JOptionPane.showMessageDialog(null, "Incorrect password.");
+	}
+	
+	private void handleChangeSuccess(SwingUI ui, String input) {
+		JOptionPane.showMessageDialog(null, "Your password has been changed");
+	}
+	
+	private void handleUnfriendSuccess(SwingUI ui, String input) {
+		String username = input.substring(CommunicationHandler.UNFRIEND_SUCCESS.length());
+		JOptionPane.showMessageDialog(null, "You have successfully removed "+ username +" from your friend list");
+		ui.removeFriend(username, SwingUI.USER_PROFILE);
+	}
+	
+	private void handleUnfriendFail(SwingUI ui, String input) {
+		JOptionPane.showMessageDialog(null, "An error occured while trying to remove this user.");
+	}
+	
+	private void handleRegisterSuccess(SwingUI ui, String input) {
+		ui.setInterface(Interface.LOGIN);
+		JOptionPane.showMessageDialog(null, "Account has been successfully created.");
+	}
+	
+	private void handleRegisterError(SwingUI ui, String input) {
+		RegisterPanel registerPanel = (RegisterPanel) ui.getCurrentPanel();
+		JOptionPane.showMessageDialog(null, "The email you have entered already exists!", "Please Try again", JOptionPane.ERROR_MESSAGE);
+		registerPanel.getEmailField().setBackground(Color.RED);
+	}
+	
 	/**
 	 * @return the server's ip and port in the format <ip:port>
 	 */
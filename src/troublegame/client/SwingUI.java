@@ -4,10 +4,8 @@ import java.awt.Color;
 import java.awt.Dimension;
 import java.awt.event.WindowAdapter;
 import java.awt.event.WindowEvent;
-import java.io.BufferedReader;
 import java.io.File;
 import java.io.IOException;
-import java.io.PrintWriter;
 import java.util.Arrays;
 import java.util.List;
 
@@ -133,14 +131,9 @@ public class SwingUI extends JFrame {
 	private Interface state;
 	
 	/**
-	 * The buffered reader.
+	 * The game client connected to the server.
 	 */
-	private BufferedReader in;
-	
-	/**
-	 * The print writer.
-	 */
-	private PrintWriter out;
+	private GameClient client;
 	
 	/**
 	 * The user of the client.
@@ -155,10 +148,9 @@ public class SwingUI extends JFrame {
 	/**
 	 * The constructor for the swing user interface.
 	 */
-	public SwingUI(GameClient client, BufferedReader in, PrintWriter out) {
+	public SwingUI(GameClient client) {
 		
-		this.in = in;
-		this.out = out;
+		this.client = client;
 		this.startPanel = new StartPanel(this);
 		this.currentPanel = startPanel;
 		this.resizeFrame();
@@ -320,19 +312,11 @@ public class SwingUI extends JFrame {
 	}
 	
 	/**
-	 * Sends a message using the print writer.
+	 * Sends a message to the server through the game client.
 	 * @param message is the information that is being sent.
 	 */
 	public void send(String message) {
-		out.println(message);
-	}
-	
-	/**
-	 * @return the information sent from the server.
-	 * @throws IOException is the exception.
-	 */
-	public String read() throws IOException {
-		return in.readLine();
+		client.send(message);
 	}
 	
 	/**
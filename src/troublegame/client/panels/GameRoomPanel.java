@@ -22,6 +22,7 @@ import javax.imageio.ImageIO;
 import javax.swing.DefaultListModel;
 import javax.swing.ImageIcon;
 import javax.swing.JButton;
+import javax.swing.JComboBox;
 import javax.swing.JTextField;
 import javax.swing.SwingConstants;
 import javax.swing.event.ListSelectionEvent;
@@ -30,6 +31,7 @@ import javax.swing.text.DefaultCaret;
 
 import troublegame.client.SwingUI;
 import troublegame.communication.CommunicationHandler;
+import troublegame.server.AILevel;
 import troublegame.server.Die;
 
 public class GameRoomPanel extends JPanel {
@@ -54,6 +56,12 @@ public class GameRoomPanel extends JPanel {
 	
 	private JTextArea chatMessages;
 	private JTextField newMessage;
+	private JComboBox<AILevel> aiLevelBox;
+	
+	/**
+	 * Set while the AI level is shown as the server sent it, so that it is not sent back
+	 */
+	private boolean showingAiLevel;
 	private Image backgroundImage;
 	
 	/**
@@ -184,6 +192,25 @@ public class GameRoomPanel extends JPanel {
 		leaveButton.setHorizontalTextPosition(SwingConstants.CENTER);
 		leaveButton.setBorderPainted(false);
 		
+		aiLevelBox = new JComboBox<AILevel>(AILevel.values());
+		aiLevelBox.setBounds(490, 140, 90, 25);
+		aiLevelBox.setToolTipText("How well the computer players play, only the owner can change it");
+		add(aiLevelBox);
+		
+		JLabel lblAiLevel = new JLabel("AI Level");
+		lblAiLevel.setLabelFor(aiLevelBox);
+		lblAiLevel.setFont(new Font("Tahoma", Font.PLAIN, 15));
+		lblAiLevel.setBounds(490, 118, 90, 16);
+		add(lblAiLevel);
+		
+		aiLevelBox.addActionListener(new ActionListener() {
+			@Override
+			public void actionPerformed(ActionEvent e) {
+				if (showingAiLevel) return;
+				swingUI.send(CommunicationHandler.GAME_ROOM_AI_LEVEL + " " + aiLevelBox.getSelectedItem());
+			}
+		});
+		
 		friendsModel = new DefaultListModel<String>();
 		JList<String> friendList = new JList<String>(friendsModel);
 		friendList.setBounds(592, 118, 270, 111);
@@ -342,6 +369,18 @@ public class GameRoomPanel extends JPanel {
 		return this.name;
 	}
 	
+	/**
+	 * Shows the room's AI level as sent by the server.
+	 * @param level is the name of the level, ignored if unknown.
+	 */
+	public void setAiLevel(String level) {
+		AILevel aiLevel = AILevel.parse(level);
+		if (aiLevel == null) return;
+		showingAiLevel = true;
+		aiLevelBox.setSelectedItem(aiLevel);
+		showingAiLevel = false;
+	}
+	
 	public void updateChat(String message) {
 		chatMessages.append(message+"\n");
 	}
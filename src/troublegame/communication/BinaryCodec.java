@@ -0,0 +1,428 @@
+package troublegame.communication;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Compact binary form of the text protocol. Every frame is a two byte length
+ * followed by a one byte opcode and the payload. Each constant in
+ * {@link CommunicationHandler} has a fixed opcode. Game events (rolls, moves,
+ * eaten tokens and turns) are sent as fixed-size records that refer to
+ * players by seat, and everything else carries the rest of the line as UTF-8.
+ * A line too long for one frame is split: all but its last piece are sent
+ * as PARTIAL frames and the frame with the line's own opcode ends it.
+ *
+ * A codec is stateful: it learns the seat of each player from the
+ * [GAME_COLORS] lines of a game, so every connection needs its own codec.
+ * Both ends see the same [GAME_COLORS] lines in the same order, which keeps
+ * their seat tables identical.
+ */
+public class BinaryCodec {
+
+	/**
+	 * The size of the length prefix in bytes.
+	 */
+	public static final int HEADER_LENGTH = 2;
+
+	/**
+	 * The largest frame body that fits in the length prefix.
+	 */
+	public static final int MAX_BODY_LENGTH = 0xFFFF;
+
+	/**
+	 * The longest line a peer may send in pieces.
+	 */
+	public static final int MAX_LINE_LENGTH = 16 * 1024 * 1024;
+
+	/**
+	 * Opcode of a line that does not start with a known command.
+	 */
+	public static final int RAW = 0;
+
+	/**
+	 * Set on the opcode when the payload is a fixed-size record.
+	 */
+	private static final int RECORD = 0x80;
+
+	/**
+	 * Opcode of a piece of a line too long for one frame. Command opcodes must stay below it.
+	 */
+	private static final int PARTIAL = 0x7F;
+
+	/**
+	 * The number of seats in a game.
+	 */
+	private static final int SEATS = 4;
+
+	/**
+	 * Commands in opcode order, opcode n is COMMANDS[n - 1]. New commands must
+	 * only ever be appended so opcodes stay stable between versions.
+	 */
+	private static final String[] COMMANDS = {
+		CommunicationHandler.SOCKET_LISTENER_INFO,
+		CommunicationHandler.GAME_ENGINE_INFO,
+		CommunicationHandler.GAME_SERVER_INFO,
+		CommunicationHandler.LOBBY_CHAT,
+		CommunicationHandler.LOBBY_ONLINE_LIST,
+		CommunicationHandler.LOBBY_ACTIVITY_FEED,
+		CommunicationHandler.FRIEND_ADD_ATTEMPT,
+		CommunicationHandler.FRIEND_ADD_FAIL,
+		CommunicationHandler.FRIEND_ADD_SUCCESS,
+		CommunicationHandler.FRIENDS_ALREADY,
+		CommunicationHandler.FRIEND_INVITE,
+		CommunicationHandler.UNFRIEND,
+		CommunicationHandler.UNFRIEND_SUCCESS,
+		CommunicationHandler.UNFRIEND_FAIL,
+		CommunicationHandler.FRIENDS_GET_LIST,
+		CommunicationHandler.LOGIN_REQUEST,
+		CommunicationHandler.LOGIN_SUCCESS,
+		CommunicationHandler.LOGIN_ERROR,
+		CommunicationHandler.LOGIN_GUEST,
+		CommunicationHandler.LOGOUT_REQUEST,
+		CommunicationHandler.LOGOUT_SUCCESS,
+		CommunicationHandler.LOGOUT_ERROR,
+		CommunicationHandler.GAME_ROOM_OPEN,
+		CommunicationHandler.GAME_ROOM_QUERY,
+		CommunicationHandler.GAME_ROOM_NEW,
+		CommunicationHandler.GAME_ROOM_CHAT,
+		CommunicationHandler.GAME_ROOM_INFO,
+		CommunicationHandler.GAME_ROOM_JOIN,
+		CommunicationHandler.GAME_ROOM_LEAVE,
+		CommunicationHandler.GAME_ROOM_CLOSE,
+		CommunicationHandler.GAME_ROOM_MEMBER,
+		CommunicationHandler.GAME_INFO,
+		CommunicationHandler.GAME_ROLL,
+		CommunicationHandler.GAME_START,
+		CommunicationHandler.GAME_START_FAIL,
+		CommunicationHandler.GAME_TURN,
+		CommunicationHandler.GAME_COLORS,
+		CommunicationHandler.GAME_SETUP,
+		CommunicationHandler.GAME_ROLL_SUCCESS,
+		CommunicationHandler.GAME_ROLL_AGAIN,
+		CommunicationHandler.GAME_ROLL_FAIL,
+		CommunicationHandler.GAME_EAT_TOKEN,
+		CommunicationHandler.GAME_CHAT,
+		CommunicationHandler.GAME_OVER,
+		CommunicationHandler.UPDATE_DISPLAYNAME,
+		CommunicationHandler.UPDATE_FAIL,
+		CommunicationHandler.UPDATE_SUCCESS,
+		CommunicationHandler.GET_STATISTICS,
+		CommunicationHandler.CHANGE_PASSWORD,
+		CommunicationHandler.CHANGE_SUCCESS,
+		CommunicationHandler.REGISTER_REQUEST,
+		CommunicationHandler.REGISTER_ERROR,
+		CommunicationHandler.REGISTER_SUCCESS,
+		CommunicationHandler.PROTOCOL,
+		CommunicationHandler.GAME_ROOM_AI_LEVEL,
+	};
+
+	/**
+	 * Opcodes keyed by command.
+	 */
+	private static final Map<String, Integer> OPCODES = new HashMap<String, Integer>();
+
+	static {
+		if (COMMANDS.length >= PARTIAL)
+			throw new IllegalStateException("Command opcodes have reached PARTIAL");
+		for (int i = 0; i < COMMANDS.length; i++)
+			OPCODES.put(COMMANDS[i], i + 1);
+	}
+
+	/**
+	 * The player in each seat of the current game.
+	 */
+	private String[] seats;
+
+	/**
+	 * The number of seats learnt so far.
+	 */
+	private int seatCount;
+
+	/**
+	 * The pieces of a long line received so far.
+	 */
+	private ByteArrayOutputStream partial;
+
+	/**
+	 * Constructs a codec with an empty seat table.
+	 */
+	public BinaryCodec() {
+		this.seats = new String[SEATS];
+		this.partial = new ByteArrayOutputStream();
+	}
+
+	/**
+	 * @param command is a command tag.
+	 * @return the opcode of the command, or RAW if it has none.
+	 */
+	public static int opcode(String command) {
+		Integer opcode = command == null ? null : OPCODES.get(command);
+		return opcode == null ? RAW : opcode;
+	}
+
+	/**
+	 * @param opcode is an opcode.
+	 * @return the command tag of the opcode, or null for RAW.
+	 */
+	public static String command(int opcode) {
+		if (opcode == RAW)
+			return null;
+		if (opcode < 1 || opcode > COMMANDS.length)
+			throw new IllegalArgumentException("Unknown opcode " + opcode);
+		return COMMANDS[opcode - 1];
+	}
+
+	/**
+	 * Encodes a protocol line into a complete frame, length prefix included.
+	 * A line too long for one frame comes back as several frames.
+	 * @param line is the line to encode.
+	 * @return the frame.
+	 */
+	public byte[] encode(String line) {
+		String command = CommandDispatcher.parseCommand(line);
+		learnSeats(command, line);
+		return encodeFrame(command, line);
+	}
+
+	/**
+	 * Encodes a line without updating the seat table.
+	 * @param command is the command tag of the line, or null if it has none.
+	 * @param line is the line to encode.
+	 * @return the frame.
+	 */
+	byte[] encodeFrame(String command, String line) {
+		int opcode = opcode(command);
+		byte[] record = opcode == RAW ? null : encodeRecord(command, line);
+		if (record != null)
+			return frame(opcode | RECORD, record);
+		String text = opcode == RAW ? line : line.substring(command.length());
+		return frame(opcode, text.getBytes(StandardCharsets.UTF_8));
+	}
+
+	/**
+	 * Decodes the body of a frame, i.e. everything after the length prefix.
+	 * @param body holds the frame body.
+	 * @param offset is the position of the opcode in body.
+	 * @param length is the length of the frame body.
+	 * @return the protocol line the frame stands for, or null if the frame is a piece of a longer line.
+	 */
+	public String decode(byte[] body, int offset, int length) {
+		if (length < 1)
+			throw new IllegalArgumentException("Empty frame");
+		int opcode = body[offset] & 0xFF;
+		byte[] payload = body;
+		int start = offset + 1;
+		int payloadLength = length - 1;
+		if (opcode == PARTIAL || partial.size() > 0) {
+			if (partial.size() + payloadLength > MAX_LINE_LENGTH)
+				throw new IllegalArgumentException("Line longer than " + MAX_LINE_LENGTH + " bytes");
+			partial.write(body, start, payloadLength);
+			if (opcode == PARTIAL)
+				return null;
+			payload = partial.toByteArray();
+			start = 0;
+			payloadLength = payload.length;
+			partial.reset();
+		}
+		String command = command(opcode & ~RECORD);
+		String line;
+		if ((opcode & RECORD) != 0)
+			line = decodeRecord(command, payload, start, payloadLength);
+		else if (command == null)
+			line = new String(payload, start, payloadLength, StandardCharsets.UTF_8);
+		else
+			line = command + new String(payload, start, payloadLength, StandardCharsets.UTF_8);
+		learnSeats(command, line);
+		return line;
+	}
+
+	/**
+	 * @param command is a command tag.
+	 * @return true if lines of the command may be encoded differently depending on the seat table.
+	 */
+	static boolean usesSeats(String command) {
+		if (command == null)
+			return false;
+		switch (command) {
+			case CommunicationHandler.GAME_ROLL:
+			case CommunicationHandler.GAME_ROLL_AGAIN:
+			case CommunicationHandler.GAME_ROLL_SUCCESS:
+			case CommunicationHandler.GAME_ROLL_FAIL:
+			case CommunicationHandler.GAME_EAT_TOKEN:
+			case CommunicationHandler.GAME_TURN:
+				return true;
+			default:
+				return false;
+		}
+	}
+
+	/**
+	 * @return a copy of the seats learnt so far.
+	 */
+	String[] getSeats() {
+		String[] copy = new String[seatCount];
+		System.arraycopy(seats, 0, copy, 0, seatCount);
+		return copy;
+	}
+
+	/**
+	 * @param other is a seat table returned by getSeats.
+	 * @return true if this codec has exactly the given seats.
+	 */
+	boolean hasSeats(String[] other) {
+		if (other.length != seatCount)
+			return false;
+		for (int i = 0; i < seatCount; i++) {
+			if (!seats[i].equals(other[i]))
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Keeps the seat table in step with the game setup lines.
+	 */
+	void learnSeats(String command, String line) {
+		if (CommunicationHandler.GAME_SETUP.equals(command)) {
+			seatCount = 0;
+		} else if (CommunicationHandler.GAME_COLORS.equals(command)) {
+			String[] args = line.split(" ");
+			if (args.length > 1 && seatCount < SEATS)
+				seats[seatCount++] = args[1];
+		}
+	}
+
+	/**
+	 * Game events as fixed-size records:
+	 * roll, roll again and roll success: die, token, seat, zone, index;
+	 * a client's roll request: token;
+	 * roll fail: die, seat;
+	 * eat token: token, seat, zone;
+	 * turn: seat.
+	 * @return the record, or null if the line has to be sent as text.
+	 */
+	private byte[] encodeRecord(String command, String line) {
+		String[] args = line.split(" ");
+		switch (command) {
+			case CommunicationHandler.GAME_ROLL:
+				if (args.length == 2)
+					return record(args, "n");
+				return args.length == 6 ? record(args, "nnsnn") : null;
+			case CommunicationHandler.GAME_ROLL_AGAIN:
+			case CommunicationHandler.GAME_ROLL_SUCCESS:
+				return args.length == 6 ? record(args, "nnsnn") : null;
+			case CommunicationHandler.GAME_ROLL_FAIL:
+				return args.length == 3 ? record(args, "ns") : null;
+			case CommunicationHandler.GAME_EAT_TOKEN:
+				return args.length == 4 ? record(args, "nsn") : null;
+			case CommunicationHandler.GAME_TURN:
+				return args.length == 2 ? record(args, "s") : null;
+			default:
+				return null;
+		}
+	}
+
+	/**
+	 * Packs the arguments of a line into one byte each.
+	 * @param args are the split line, args[0] being the command.
+	 * @param layout has one character per argument, n for a number and s for a seated player.
+	 * @return the record, or null if an argument does not fit.
+	 */
+	private byte[] record(String[] args, String layout) {
+		byte[] record = new byte[layout.length()];
+		for (int i = 0; i < record.length; i++) {
+			int value = layout.charAt(i) == 's' ? seatOf(args[i + 1]) : parseByte(args[i + 1]);
+			if (value < 0)
+				return null;
+			record[i] = (byte) value;
+		}
+		return record;
+	}
+
+	private String decodeRecord(String command, byte[] body, int offset, int length) {
+		StringBuilder line = new StringBuilder(command);
+		String layout;
+		switch (command) {
+			case CommunicationHandler.GAME_ROLL:
+				layout = length == 1 ? "n" : "nnsnn";
+				break;
+			case CommunicationHandler.GAME_ROLL_AGAIN:
+			case CommunicationHandler.GAME_ROLL_SUCCESS:
+				layout = "nnsnn";
+				break;
+			case CommunicationHandler.GAME_ROLL_FAIL:
+				layout = "ns";
+				break;
+			case CommunicationHandler.GAME_EAT_TOKEN:
+				layout = "nsn";
+				break;
+			case CommunicationHandler.GAME_TURN:
+				layout = "s";
+				break;
+			default:
+				throw new IllegalArgumentException("No record layout for " + command);
+		}
+		if (length != layout.length())
+			throw new IllegalArgumentException("Bad record length for " + command);
+		for (int i = 0; i < length; i++) {
+			int value = body[offset + i] & 0xFF;
+			line.append(' ');
+			if (layout.charAt(i) == 's') {
+				if (value >= seatCount)
+					throw new IllegalArgumentException("Unknown seat " + value);
+				line.append(seats[value]);
+			} else {
+				line.append(value);
+			}
+		}
+		return line.toString();
+	}
+
+	private int seatOf(String username) {
+		for (int i = 0; i < seatCount; i++) {
+			if (seats[i].equals(username))
+				return i;
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the value if the string is a number from 0 to 255, otherwise -1.
+	 */
+	private static int parseByte(String s) {
+		if (s.isEmpty() || s.length() > 3)
+			return -1;
+		int value = 0;
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (c < '0' || c > '9')
+				return -1;
+			value = value * 10 + (c - '0');
+		}
+		return value <= 0xFF ? value : -1;
+	}
+
+	/**
+	 * Frames a payload, splitting it into PARTIAL frames ended by one with the opcode if it is too long for one.
+	 */
+	private static byte[] frame(int opcode, byte[] payload) {
+		int maxPiece = MAX_BODY_LENGTH - 1;
+		int pieces = Math.max(1, (payload.length + maxPiece - 1) / maxPiece);
+		byte[] frames = new byte[pieces * (HEADER_LENGTH + 1) + payload.length];
+		int position = 0;
+		for (int i = 0; i < pieces; i++) {
+			int start = i * maxPiece;
+			int length = Math.min(maxPiece, payload.length - start);
+			int bodyLength = length + 1;
+			frames[position++] = (byte) (bodyLength >>> 8);
+			frames[position++] = (byte) bodyLength;
+			frames[position++] = (byte) (i == pieces - 1 ? opcode : PARTIAL);
+			System.arraycopy(payload, start, frames, position, length);
+			position += length;
+		}
+		return frames;
+	}
+
+}
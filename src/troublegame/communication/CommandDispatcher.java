@@ -0,0 +1,188 @@
+package troublegame.communication;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Routes protocol lines to the handler registered for their command. The
+ * bracketed tag at the start of a line (e.g. [GAME_ROLL]) is parsed once and
+ * looked up in a hash table, and every handler keeps its own invocation and
+ * latency counters.
+ *
+ * @param <C> is the context passed to the handlers, e.g. the client connection.
+ */
+public class CommandDispatcher<C> {
+
+	/**
+	 * Handles one command.
+	 */
+	public interface Handler<C> {
+
+		/**
+		 * @param context is the context the line was received in.
+		 * @param input is the full line, including the command tag.
+		 * @throws IOException if handling the command failed on the connection.
+		 */
+		void handle(C context, String input) throws IOException;
+
+	}
+
+	/**
+	 * Counters kept for each registered command.
+	 */
+	public static class Stats {
+
+		private LongAdder invocations = new LongAdder();
+		private LongAdder totalNanos = new LongAdder();
+		private LongAccumulator maxNanos = new LongAccumulator(Math::max, 0);
+
+		/**
+		 * Adds one measurement.
+		 * @param nanos is the time taken in nanoseconds.
+		 */
+		public void record(long nanos) {
+			invocations.increment();
+			totalNanos.add(nanos);
+			maxNanos.accumulate(nanos);
+		}
+
+		/**
+		 * @return the number of times the handler ran.
+		 */
+		public long getInvocations() {
+			return invocations.sum();
+		}
+
+		/**
+		 * @return the total time spent in the handler in nanoseconds.
+		 */
+		public long getTotalNanos() {
+			return totalNanos.sum();
+		}
+
+		/**
+		 * @return the longest single run of the handler in nanoseconds.
+		 */
+		public long getMaxNanos() {
+			return maxNanos.get();
+		}
+
+		@Override
+		public String toString() {
+			long count = getInvocations();
+			long average = count == 0 ? 0 : getTotalNanos() / count;
+			return count + " calls, avg " + (average / 1000) + "us, max " + (getMaxNanos() / 1000) + "us";
+		}
+
+	}
+
+	/**
+	 * A handler together with its counters.
+	 */
+	private static class Registration<C> {
+
+		private Handler<C> handler;
+		private Stats stats;
+
+		private Registration(Handler<C> handler) {
+			this.handler = handler;
+			this.stats = new Stats();
+		}
+
+	}
+
+	/**
+	 * Handlers keyed by command tag.
+	 */
+	private Map<String, Registration<C>> handlers;
+
+	/**
+	 * Handler for lines with no registered command, may be null.
+	 */
+	private Handler<C> fallback;
+
+	/**
+	 * Constructs an empty dispatcher.
+	 */
+	public CommandDispatcher() {
+		this.handlers = new HashMap<String, Registration<C>>();
+	}
+
+	/**
+	 * Registers the handler for a command, replacing any previous handler.
+	 * @param command is the command tag, one of the CommunicationHandler constants.
+	 * @param handler is the handler to run.
+	 */
+	public void register(String command, Handler<C> handler) {
+		handlers.put(command, new Registration<C>(handler));
+	}
+
+	/**
+	 * Sets the handler for lines whose command is not registered.
+	 * @param fallback is the handler to run.
+	 */
+	public void setFallback(Handler<C> fallback) {
+		this.fallback = fallback;
+	}
+
+	/**
+	 * Runs the handler registered for the line's command.
+	 * @param context is passed to the handler.
+	 * @param input is the received line.
+	 * @return true if a registered handler ran.
+	 * @throws IOException if the handler failed on the connection.
+	 */
+	public boolean dispatch(C context, String input) throws IOException {
+		String command = parseCommand(input);
+		Registration<C> registration = command == null ? null : handlers.get(command);
+		if (registration == null) {
+			if (fallback != null)
+				fallback.handle(context, input);
+			return false;
+		}
+		long start = System.nanoTime();
+		try {
+			registration.handler.handle(context, input);
+		} finally {
+			registration.stats.record(System.nanoTime() - start);
+		}
+		return true;
+	}
+
+	/**
+	 * @param input is a protocol line.
+	 * @return the bracketed command tag the line starts with, or null if there is none.
+	 */
+	public static String parseCommand(String input) {
+		if (input == null || input.isEmpty() || input.charAt(0) != '[')
+			return null;
+		int end = input.indexOf(']');
+		if (end == -1)
+			return null;
+		return end == input.length() - 1 ? input : input.substring(0, end + 1);
+	}
+
+	/**
+	 * @param command is a command tag.
+	 * @return the counters for the command, or null if it is not registered.
+	 */
+	public Stats getStats(String command) {
+		Registration<C> registration = handlers.get(command);
+		return registration == null ? null : registration.stats;
+	}
+
+	/**
+	 * @return the counters of every registered command, sorted by command.
+	 */
+	public Map<String, Stats> getStats() {
+		Map<String, Stats> stats = new TreeMap<String, Stats>();
+		for (Map.Entry<String, Registration<C>> entry : handlers.entrySet())
+			stats.put(entry.getKey(), entry.getValue().stats);
+		return stats;
+	}
+
+}
@@ -52,6 +52,7 @@ public final class CommunicationHandler {
 	public static final String GAME_ROOM_LEAVE = "[GAME_ROOM_LEAVE]";
 	public static final String GAME_ROOM_CLOSE = "[GAME_ROOM_CLOSE]";
 	public static final String GAME_ROOM_MEMBER = "[GAME_ROOM_MEMBER]";
+	public static final String GAME_ROOM_AI_LEVEL = "[GAME_ROOM_AI_LEVEL]";
 	
 	// Game constants
 	public static final String GAME_INFO = "[GAME_INFO]";
@@ -80,4 +81,8 @@ public final class CommunicationHandler {
 	public static final String REGISTER_REQUEST = "[REGISTER_REQUEST]";
 	public static final String REGISTER_ERROR = "[REGISTER_ERROR]";
 	public static final String REGISTER_SUCCESS = "[REGISTER_SUCCESS]";
+	
+	// Protocol negotiation
+	public static final String PROTOCOL = "[PROTOCOL]";
+	public static final String PROTOCOL_BINARY = "BINARY";
 }
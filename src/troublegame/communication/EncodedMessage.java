@@ -0,0 +1,91 @@
+package troublegame.communication;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+
+/**
+ * A protocol line together with its encoded bytes. The text form is encoded
+ * once and the same read-only buffer is handed to every recipient. Binary
+ * frames are shared the same way between recipients whose codecs would encode
+ * the line identically, which for game events means the same seat table.
+ */
+public class EncodedMessage {
+
+	private String line;
+	private String command;
+	private ByteBuffer text;
+	private ByteBuffer frame;
+	private String[] frameSeats;
+	private int deliveries;
+	private int encodings;
+	private long bytesSaved;
+
+	/**
+	 * Constructs a message, nothing is encoded until the first recipient asks for it.
+	 * @param line is the protocol line.
+	 */
+	public EncodedMessage(String line) {
+		this.line = line;
+		this.command = CommandDispatcher.parseCommand(line);
+	}
+
+	/**
+	 * @return the protocol line.
+	 */
+	public String getLine() {
+		return line;
+	}
+
+	/**
+	 * @return the line in the text protocol, terminated by a line separator.
+	 */
+	public synchronized ByteBuffer text() {
+		deliveries++;
+		if (text == null) {
+			text = ByteBuffer.wrap((line + System.lineSeparator()).getBytes(Charset.defaultCharset())).asReadOnlyBuffer();
+			encodings++;
+		} else {
+			bytesSaved += text.remaining();
+		}
+		return text;
+	}
+
+	/**
+	 * @param codec is the recipient's codec, its seat table is updated as if it had encoded the line itself.
+	 * @return the line as a binary frame for the codec.
+	 */
+	public synchronized ByteBuffer frame(BinaryCodec codec) {
+		deliveries++;
+		codec.learnSeats(command, line);
+		if (frame != null && (frameSeats == null || codec.hasSeats(frameSeats))) {
+			bytesSaved += frame.remaining();
+			return frame;
+		}
+		frame = ByteBuffer.wrap(codec.encodeFrame(command, line)).asReadOnlyBuffer();
+		frameSeats = BinaryCodec.usesSeats(command) ? codec.getSeats() : null;
+		encodings++;
+		return frame;
+	}
+
+	/**
+	 * @return the number of recipients the message was handed to.
+	 */
+	public synchronized int getDeliveries() {
+		return deliveries;
+	}
+
+	/**
+	 * @return the number of times the message actually had to be encoded.
+	 */
+	public synchronized int getEncodings() {
+		return encodings;
+	}
+
+	/**
+	 * @return the bytes that did not have to be encoded again thanks to sharing.
+	 */
+	public synchronized long getBytesSaved() {
+		return bytesSaved;
+	}
+
+}
@@ -0,0 +1,109 @@
+package troublegame.communication;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+
+/**
+ * Reads protocol lines from a stream that starts out in the text protocol and
+ * may switch to binary frames once {@link BinaryCodec} has been negotiated.
+ * Both forms are read from the same buffer so nothing is lost on the switch.
+ */
+public class ProtocolReader {
+
+	/**
+	 * The buffered stream being read.
+	 */
+	private InputStream in;
+
+	/**
+	 * Holds the current text line.
+	 */
+	private ByteArrayOutputStream line;
+
+	/**
+	 * Holds the current frame body.
+	 */
+	private byte[] frame;
+
+	/**
+	 * Constructs a new protocol reader.
+	 * @param in is the stream to read from.
+	 */
+	public ProtocolReader(InputStream in) {
+		this.in = new BufferedInputStream(in);
+		this.line = new ByteArrayOutputStream();
+		this.frame = new byte[256];
+	}
+
+	/**
+	 * Reads the next line, as a frame when a codec is given and as text otherwise.
+	 * @param codec is the negotiated codec, or null for the text protocol.
+	 * @return the line, or null at the end of the stream.
+	 * @throws IOException if the stream could not be read.
+	 */
+	public String read(BinaryCodec codec) throws IOException {
+		return codec == null ? readLine() : readFrame(codec);
+	}
+
+	/**
+	 * @return the next text line without its line terminator, or null at the end of the stream.
+	 * @throws IOException if the stream could not be read.
+	 */
+	public String readLine() throws IOException {
+		line.reset();
+		int b;
+		while ((b = in.read()) != '\n') {
+			if (b == -1) {
+				if (line.size() == 0)
+					return null;
+				break;
+			}
+			line.write(b);
+		}
+		byte[] bytes = line.toByteArray();
+		int length = bytes.length;
+		if (length > 0 && bytes[length - 1] == '\r')
+			length--;
+		return new String(bytes, 0, length, Charset.defaultCharset());
+	}
+
+	/**
+	 * @param codec decodes the frame.
+	 * @return the line the next frame stands for, or null at the end of the stream. A line sent
+	 *         in pieces is read whole.
+	 * @throws IOException if the stream could not be read or ended inside a frame or line.
+	 */
+	public String readFrame(BinaryCodec codec) throws IOException {
+		String decoded = null;
+		boolean started = false;
+		while (decoded == null) {
+			int high = in.read();
+			if (high == -1) {
+				if (started)
+					throw new EOFException("Stream ended inside a line sent in pieces");
+				return null;
+			}
+			started = true;
+			int low = in.read();
+			if (low == -1)
+				throw new EOFException("Stream ended inside a frame header");
+			int length = (high << 8) | low;
+			if (length > frame.length)
+				frame = new byte[length];
+			int read = 0;
+			while (read < length) {
+				int n = in.read(frame, read, length - read);
+				if (n == -1)
+					throw new EOFException("Stream ended inside a frame");
+				read += n;
+			}
+			decoded = codec.decode(frame, 0, length);
+		}
+		return decoded;
+	}
+
+}
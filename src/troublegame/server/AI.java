@@ -1,24 +1,51 @@
 package troublegame.server;
 
-import troublegame.communication.CommunicationHandler;
+import java.util.SplittableRandom;
 
 public class AI extends Player {
 
+	/**
+	 * The most time an AI spends searching for a move, in milliseconds. It
+	 * never searches for longer than the game's AI delay.
+	 */
+	public static final int THINK_TIME = 250;
+
+	private AILevel level;
+
 	public AI(int pid, String username, Color color) {
+		this(pid, username, color, AILevel.DEFAULT);
+	}
+
+	public AI(int pid, String username, Color color, AILevel level) {
 		super(pid, username, color, Player.BOT);
+		this.level = level;
+	}
+
+	public AILevel getLevel() {
+		return level;
 	}
-	
-	public String getMove(Board board) {
-		String move = null;
-		
-		for (Token token : this.getPlayerTokens()) {
-			if (board.getTokenLoc(token).getSlotZone() != Board.SLOT_END) {
-				move = CommunicationHandler.GAME_ROLL + " " + token.getTokenID();
-				break;
-			}
-		}
-		
-		return move;
+
+	/**
+	 * Searches for the token to move.
+	 * @param search is the search to use, it must not be in use by another thread.
+	 * @param board is the board.
+	 * @param deadline is the System.nanoTime() by which to stop deepening.
+	 * @param depthLimit is the deepest to search, in turns.
+	 * @return the id of the token to move.
+	 */
+	public int chooseToken(Expectimax search, BoardState board, long deadline, int depthLimit) {
+		return search.chooseToken(board, BoardState.colourIndex(getColour()), deadline, depthLimit);
 	}
-	
+
+	/**
+	 * Plays on at random to choose the token to move, as many games as the AI's level plays.
+	 * @param monteCarlo plays the games.
+	 * @param board is the board.
+	 * @param random supplies the dice.
+	 * @return the id of the token to move.
+	 */
+	public int chooseToken(MonteCarlo monteCarlo, BoardState board, SplittableRandom random) {
+		return monteCarlo.chooseToken(board, BoardState.colourIndex(getColour()), level.getPlayouts(), random);
+	}
+
 }
@@ -0,0 +1,163 @@
+package troublegame.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import troublegame.communication.CommunicationHandler;
+
+/**
+ * Runs the AI searches on threads of their own, so that a search never holds
+ * up the game shards. Each thread keeps one Expectimax, and with it a
+ * transposition table, for every search it runs. AIs that play on at random
+ * instead hand their games to a ForkJoinPool shared by every thread, drawing
+ * their dice from a generator split off the game's.
+ */
+public class AIExecutor {
+
+	/**
+	 * The number of searches run at once unless set otherwise, half the cores.
+	 */
+	public static final int DEFAULT_THREADS = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+
+	/**
+	 * Told the move found for an AI.
+	 */
+	public interface Callback {
+
+		/**
+		 * @param tokenID is the id of the token chosen.
+		 * @param depth is the depth the search finished, 0 if it had one choice or did not search.
+		 */
+		void done(int tokenID, int depth);
+
+	}
+
+	private final ThreadPoolExecutor pool;
+	private final ThreadLocal<Expectimax> searches;
+	private final ForkJoinPool playoutPool;
+	private final MonteCarlo monteCarlo;
+	private final LongAdder moves;
+	private final LongAdder nodes;
+	private final LongAdder depths;
+	private final LongAdder nanos;
+
+	/**
+	 * Constructs an executor and starts its threads.
+	 * @param threads is the number of searches run at once.
+	 * @param playoutThreads is the number of threads playing the random games.
+	 */
+	public AIExecutor(int threads, int playoutThreads) {
+		AtomicInteger count = new AtomicInteger();
+		pool = new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(), r -> {
+			Thread t = new Thread(r, "ai-" + count.getAndIncrement());
+			t.setDaemon(true);
+			return t;
+		});
+		searches = ThreadLocal.withInitial(Expectimax::new);
+		playoutPool = new ForkJoinPool(playoutThreads);
+		monteCarlo = new MonteCarlo(playoutPool);
+		moves = new LongAdder();
+		nodes = new LongAdder();
+		depths = new LongAdder();
+		nanos = new LongAdder();
+	}
+
+	/**
+	 * Searches for an AI's move. The board is copied before this returns, so
+	 * the caller may go on changing it.
+	 * @param ai is the AI whose turn it is.
+	 * @param board is the board.
+	 * @param deadline is the System.nanoTime() by which the search stops deepening, it
+	 * always looks at least one turn ahead even if the deadline has passed when it starts.
+	 * AIs that play on at random play all their games whatever the deadline.
+	 * @param depthLimit is the deepest the search goes, in turns.
+	 * @param random supplies the dice of AIs that play on at random, it is used by this search alone.
+	 * @param done is given the move found, on the AI thread.
+	 */
+	public void submit(AI ai, BoardState board, long deadline, int depthLimit, SplittableRandom random, Callback done) {
+		BoardState position = new BoardState(board);
+		pool.execute(() -> {
+			long start = System.nanoTime();
+			int tokenID;
+			int depth = 0;
+			try {
+				if (ai.getLevel().isSearch()) {
+					Expectimax search = searches.get();
+					tokenID = ai.chooseToken(search, position, deadline, depthLimit);
+					depth = search.getDepthReached();
+					nodes.add(search.getNodes());
+					depths.add(depth);
+				} else {
+					tokenID = ai.chooseToken(monteCarlo, position, random);
+				}
+			} catch (RuntimeException e) {
+				System.out.println(CommunicationHandler.GAME_ENGINE_INFO + " AI search failed: " + e);
+				e.printStackTrace();
+				tokenID = 0;
+			}
+			moves.increment();
+			nanos.add(System.nanoTime() - start);
+			done.done(tokenID, depth);
+		});
+	}
+
+	/**
+	 * @return the number of moves searched.
+	 */
+	public long getMoves() {
+		return moves.sum();
+	}
+
+	/**
+	 * @return the mean number of positions visited per move.
+	 */
+	public double getMeanNodes() {
+		long n = moves.sum();
+		return n == 0 ? 0 : (double) nodes.sum() / n;
+	}
+
+	/**
+	 * @return the mean depth finished per move.
+	 */
+	public double getMeanDepth() {
+		long n = moves.sum();
+		return n == 0 ? 0 : (double) depths.sum() / n;
+	}
+
+	/**
+	 * @return the mean time spent searching per move, in milliseconds.
+	 */
+	public double getMeanMillis() {
+		long n = moves.sum();
+		return n == 0 ? 0 : nanos.sum() / 1e6 / n;
+	}
+
+	/**
+	 * @return the number of searches waiting for a thread.
+	 */
+	public int getQueued() {
+		return pool.getQueue().size();
+	}
+
+	/**
+	 * @return a one line summary of the searches.
+	 */
+	public String getStats() {
+		return String.format("AI moves %d, mean %.1f ms, depth %.1f, %.0f nodes, %d queued", getMoves(), getMeanMillis(),
+				getMeanDepth(), getMeanNodes(), getQueued());
+	}
+
+	/**
+	 * Stops the threads once the searches already submitted have run.
+	 */
+	public void shutdown() {
+		pool.shutdown();
+		playoutPool.shutdown();
+	}
+
+}
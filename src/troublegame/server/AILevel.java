@@ -0,0 +1,49 @@
+package troublegame.server;
+
+/**
+ * How an AI chooses its moves. The default is the expectimax search; the
+ * other levels play each choice on at random with MonteCarlo, more games
+ * making a stronger player.
+ */
+public enum AILevel {
+
+	SEARCH(0),
+	EASY(32),
+	MEDIUM(128),
+	HARD(512),
+	EXPERT(2048);
+
+	public static final AILevel DEFAULT = SEARCH;
+
+	private final int playouts;
+
+	private AILevel(int playouts) {
+		this.playouts = playouts;
+	}
+
+	/**
+	 * @return the number of games played on for each token, 0 for the search.
+	 */
+	public int getPlayouts() {
+		return playouts;
+	}
+
+	/**
+	 * @return true if the level uses the expectimax search.
+	 */
+	public boolean isSearch() {
+		return playouts == 0;
+	}
+
+	/**
+	 * @return the level with the name, ignoring case, or null if there is none.
+	 */
+	public static AILevel parse(String name) {
+		for (AILevel level : values()) {
+			if (level.name().equalsIgnoreCase(name.trim()))
+				return level;
+		}
+		return null;
+	}
+
+}
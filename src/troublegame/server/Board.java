@@ -1,7 +1,12 @@
 package troublegame.server;
 
 import java.util.ArrayList;
+import java.util.SplittableRandom;
 
+/**
+ * The board of a game. Where the tokens are is kept in a BoardState; the
+ * slots handed out are fixed views of it, made once when the board is made.
+ */
 public class Board {
 	
 	// Number of slot constants
@@ -43,8 +48,29 @@ public class Board {
 	// The die
 	private Die die;
 	
+	// Where every token is
+	private BoardState state;
+	
+	// The tokens of the players by their number in the state
+	private Token[] tokens;
+	
 	public Board(Player[] players) {
-		die = new Die();
+		this(players, new SplittableRandom());
+	}
+	
+	/**
+	 * Creates a board whose die rolls from the given generator.
+	 */
+	public Board(Player[] players, SplittableRandom random) {
+		die = new Die(random);
+		state = new BoardState();
+		tokens = new Token[BoardState.NUM_TOKENS];
+		for (Player p : players) {
+			for (Token t : p.getPlayerTokens()) {
+				tokens[BoardState.token(t)] = t;
+				t.setLocation(SLOT_HOME, t.getTokenID());
+			}
+		}
 		generateMainZone();
 		generateHomeZones(players);
 		generateEndZones(players);
@@ -57,51 +83,59 @@ public class Board {
 	 */
 	public Slot getTokenLoc(Token token) {
 		
-		Player owner = token.getOwner();
-		ArrayList<Slot> homeZone = getPlayerHomeZone(owner.getColour());
-		ArrayList<Slot> endZone = getPlayerEndZone(owner.getColour());
-		ArrayList<Slot> combinedSlots = new ArrayList<Slot>();
-		
-		combinedSlots.addAll(homeZone);
-		combinedSlots.addAll(mainSlots);
-		combinedSlots.addAll(endZone);
-		
-		// look through and find the slot containing the token
-		for (Slot s: combinedSlots) {
-			if (s.getOccupyingToken() == token) {
-				return s;
-			}
+		if (tokens[BoardState.token(token)] != token) {
+			return null;
 		}
-		
-		return null;
+		return getSlot(token.getCurrPos(), token.getCurrZone(), token.getColour());
 	}
 	
+	/**
+	 * Moves a token to the slot at the given index of the given zone. The slot must be free,
+	 * a token already in it is to be sent home first.
+	 */
 	public void setTokenLoc(Token token, int zone, int index) {
-		Player owner = token.getOwner();
-		Slot currentSlot = getTokenLoc(token);
-		if (currentSlot != null) currentSlot.removeOccupyingToken();
-		if (zone == SLOT_HOME) {
-			for (Slot s : getPlayerHomeZone(owner.getColour())) {
-				if (index == s.getSlotIndex()) {
-					s.setOccupyingToken(token);
-					break;
-				}
-			}
-		} else if (zone == SLOT_MAIN) {
-			for (Slot s : mainSlots) {
-				if (index == s.getSlotIndex()) {
-					s.setOccupyingToken(token);
-					break;
-				}
-			}
-		} else if (zone == SLOT_END) {
-			for (Slot s : getPlayerEndZone(owner.getColour())) {
-				if (index == s.getSlotIndex()) {
-					s.setOccupyingToken(token);
-					break;
-				}
+		state.move(BoardState.token(token), zone, index);
+		token.setLocation(zone, index);
+	}
+	
+	/**
+	 * @param col The colour owning the slot, ignored for the main zone
+	 * @return the token in the slot, or null if the slot is free
+	 */
+	public Token getOccupyingToken(int zone, Color col, int index) {
+		int t = zone == SLOT_MAIN ? state.getMainOccupant(index) : state.getOccupant(zone, BoardState.colourIndex(col), index);
+		return t == BoardState.NONE ? null : tokens[t];
+	}
+	
+	/**
+	 * Carries out a move worked out by Rules on this board's state
+	 * @return the move
+	 */
+	public int applyMove(int move) {
+		Rules.apply(state, move);
+		if (Rules.kind(move) != Rules.FAIL) {
+			int eaten = Rules.eaten(move);
+			if (eaten != BoardState.NONE) {
+				tokens[eaten].setLocation(SLOT_HOME, BoardState.idOfToken(eaten));
 			}
+			tokens[Rules.token(move)].setLocation(Rules.zone(move), Rules.index(move));
 		}
+		return move;
+	}
+	
+	/**
+	 * @param token The number of the token in the state
+	 * @return the token
+	 */
+	public Token getToken(int token) {
+		return tokens[token];
+	}
+	
+	/**
+	 * @return where every token is
+	 */
+	public BoardState getState() {
+		return state;
 	}
 	
 	public void generateMainZone() {
@@ -120,13 +154,13 @@ public class Board {
 	public void generateSlots(ArrayList<Slot> zone, int zoneType, int numSlots) {
 		
 		for(int i = 0; i < numSlots; i++) {
-			zone.add(new Slot(zoneType, i));
+			zone.add(new Slot(this, null, zoneType, i));
 		}
 		
 	}
 	
 	/**
-	 * Generate new slots to fill the zone arraylist with. Slots will be occupied by tokens belonging to the 
+	 * Generate new slots to fill the zone arraylist with. Slots will belong to the 
 	 * owner player and will have the type zoneType.
 	 * @param zone Collection of slots from a specific area of the board
 	 * @param owner The owner of the given zone
@@ -136,8 +170,7 @@ public class Board {
 	public void generateSlots(ArrayList<Slot> zone, Player owner, int zoneType, int numSlots) {
 		
 		for(int i = 0; i < numSlots; i++) {
-			Token curr = owner.getToken(i);
-			zone.add(new Slot(curr, zoneType, i));
+			zone.add(new Slot(this, owner.getColour(), zoneType, i));
 		}
 		
 	}
@@ -184,7 +217,7 @@ public class Board {
 				default: 
 					blueEndZone = new ArrayList<Slot>(NUM_END_SLOTS);
 			}
-			generateSlots(getPlayerEndZone(p.getColour()), SLOT_END, NUM_END_SLOTS);
+			generateSlots(getPlayerEndZone(p.getColour()), p, SLOT_END, NUM_END_SLOTS);
 		}
 	}
 	
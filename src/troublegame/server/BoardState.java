@@ -0,0 +1,222 @@
+package troublegame.server;
+
+import java.util.Arrays;
+
+/**
+ * The positions of every token on the board, kept in primitives. Each colour
+ * has a 28-bit mask of the main slots its tokens occupy and 4-bit masks of
+ * its home and end zones, and each token's zone and slot are packed into one
+ * byte. Tokens are numbered colour * 4 + token id, colours in board order
+ * red, green, yellow, blue.
+ *
+ * The main track and end zones also keep which token is in each slot, so
+ * finding the token in a slot is a single array read. Every query and move
+ * is a few bit operations and never allocates.
+ */
+public class BoardState {
+
+	public static final int NUM_COLOURS = 4;
+	public static final int NUM_TOKENS = NUM_COLOURS * Player.NUM_TOKENS;
+
+	/**
+	 * Returned by the occupant queries for a free slot.
+	 */
+	public static final int NONE = -1;
+
+	private static final int ZONE_SHIFT = 5;
+	private static final int INDEX_MASK = (1 << ZONE_SHIFT) - 1;
+	private static final Color[] COLOURS = { Color.RED, Color.GREEN, Color.YELLOW, Color.BLUE };
+
+	private final int[] main;
+	private final int[] home;
+	private final int[] end;
+	private final byte[] positions;
+	private final byte[] mainOccupants;
+	private final byte[] endOccupants;
+
+	/**
+	 * Constructs a board with every token in its home slot.
+	 */
+	public BoardState() {
+		main = new int[NUM_COLOURS];
+		home = new int[NUM_COLOURS];
+		end = new int[NUM_COLOURS];
+		positions = new byte[NUM_TOKENS];
+		mainOccupants = new byte[Board.NUM_MAIN_SLOTS];
+		endOccupants = new byte[NUM_COLOURS * Board.NUM_END_SLOTS];
+		reset();
+	}
+
+	/**
+	 * Constructs a copy of a board.
+	 */
+	public BoardState(BoardState other) {
+		this();
+		copyFrom(other);
+	}
+
+	/**
+	 * Makes this board the same as another.
+	 */
+	public void copyFrom(BoardState other) {
+		System.arraycopy(other.main, 0, main, 0, NUM_COLOURS);
+		System.arraycopy(other.home, 0, home, 0, NUM_COLOURS);
+		System.arraycopy(other.end, 0, end, 0, NUM_COLOURS);
+		System.arraycopy(other.positions, 0, positions, 0, NUM_TOKENS);
+		System.arraycopy(other.mainOccupants, 0, mainOccupants, 0, mainOccupants.length);
+		System.arraycopy(other.endOccupants, 0, endOccupants, 0, endOccupants.length);
+	}
+
+	/**
+	 * Puts every token back in its home slot.
+	 */
+	public void reset() {
+		Arrays.fill(main, 0);
+		Arrays.fill(end, 0);
+		Arrays.fill(mainOccupants, (byte) NONE);
+		Arrays.fill(endOccupants, (byte) NONE);
+		for (int c = 0; c < NUM_COLOURS; c++) {
+			home[c] = (1 << Player.NUM_TOKENS) - 1;
+			for (int id = 0; id < Player.NUM_TOKENS; id++)
+				positions[token(c, id)] = pack(Board.SLOT_HOME, id);
+		}
+	}
+
+	/**
+	 * @return the colour's number in board order, any colour other than red, green or yellow counting as blue.
+	 */
+	public static int colourIndex(Color colour) {
+		switch (colour) {
+			case RED: return 0;
+			case GREEN: return 1;
+			case YELLOW: return 2;
+			default: return 3;
+		}
+	}
+
+	public static Color colourOf(int colour) {
+		return COLOURS[colour];
+	}
+
+	/**
+	 * @return the number of a token.
+	 */
+	public static int token(int colour, int tokenId) {
+		return colour * Player.NUM_TOKENS + tokenId;
+	}
+
+	public static int token(Token token) {
+		return token(colourIndex(token.getColour()), token.getTokenID());
+	}
+
+	public static int colourOfToken(int token) {
+		return token / Player.NUM_TOKENS;
+	}
+
+	public static int idOfToken(int token) {
+		return token % Player.NUM_TOKENS;
+	}
+
+	private static byte pack(int zone, int index) {
+		return (byte) (zone << ZONE_SHIFT | index);
+	}
+
+	/**
+	 * @return Board.SLOT_HOME, SLOT_MAIN or SLOT_END.
+	 */
+	public int getZone(int token) {
+		return positions[token] >>> ZONE_SHIFT;
+	}
+
+	/**
+	 * @return the index of the token's slot within its zone.
+	 */
+	public int getIndex(int token) {
+		return positions[token] & INDEX_MASK;
+	}
+
+	/**
+	 * @return the token in the main slot, or NONE.
+	 */
+	public int getMainOccupant(int index) {
+		return mainOccupants[index];
+	}
+
+	/**
+	 * @return the token in the slot of the zone, or NONE. Home and end slots belong to the colour,
+	 * which is ignored for the main zone. A token is only ever sent to the home slot matching its id.
+	 */
+	public int getOccupant(int zone, int colour, int index) {
+		switch (zone) {
+			case Board.SLOT_HOME:
+				return (home[colour] & 1 << index) == 0 ? NONE : token(colour, index);
+			case Board.SLOT_END:
+				return endOccupants[colour * Board.NUM_END_SLOTS + index];
+			default:
+				return mainOccupants[index];
+		}
+	}
+
+	/**
+	 * Moves a token to a slot. The slot must be free, a token already in it is
+	 * to be sent home first.
+	 * @param token is the number of the token.
+	 * @param zone is Board.SLOT_HOME, SLOT_MAIN or SLOT_END.
+	 * @param index is the index of the slot within the zone.
+	 */
+	public void move(int token, int zone, int index) {
+		int colour = colourOfToken(token);
+		int fromZone = getZone(token);
+		int fromIndex = getIndex(token);
+		masks(fromZone)[colour] &= ~(1 << fromIndex);
+		setOccupant(fromZone, colour, fromIndex, NONE);
+		masks(zone)[colour] |= 1 << index;
+		setOccupant(zone, colour, index, token);
+		positions[token] = pack(zone, index);
+	}
+
+	private void setOccupant(int zone, int colour, int index, int token) {
+		if (zone == Board.SLOT_MAIN)
+			mainOccupants[index] = (byte) token;
+		else if (zone == Board.SLOT_END)
+			endOccupants[colour * Board.NUM_END_SLOTS + index] = (byte) token;
+	}
+
+	private int[] masks(int zone) {
+		switch (zone) {
+			case Board.SLOT_HOME: return home;
+			case Board.SLOT_END: return end;
+			default: return main;
+		}
+	}
+
+	/**
+	 * @return the main slots occupied by the colour's tokens, bit i standing for slot i.
+	 */
+	public int getMainMask(int colour) {
+		return main[colour];
+	}
+
+	/**
+	 * @return the main slots occupied by any token.
+	 */
+	public int getMainMask() {
+		return main[0] | main[1] | main[2] | main[3];
+	}
+
+	public int getHomeMask(int colour) {
+		return home[colour];
+	}
+
+	public int getEndMask(int colour) {
+		return end[colour];
+	}
+
+	/**
+	 * @return true if all of the colour's tokens have reached its end zone.
+	 */
+	public boolean isEndZoneFull(int colour) {
+		return end[colour] == (1 << Player.NUM_TOKENS) - 1;
+	}
+
+}
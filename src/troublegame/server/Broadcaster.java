@@ -0,0 +1,103 @@
+package troublegame.server;
+
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+
+import troublegame.communication.EncodedMessage;
+
+/**
+ * Sends one message to many connections. The message is formatted and
+ * encoded once and the resulting bytes are shared by every recipient's
+ * outbound queue, instead of being encoded again for each recipient.
+ */
+public final class Broadcaster {
+
+	private static final LongAdder broadcasts = new LongAdder();
+	private static final LongAdder recipients = new LongAdder();
+	private static final LongAdder encodings = new LongAdder();
+	private static final LongAdder bytesSaved = new LongAdder();
+	private static final LongAccumulator maxFanOut = new LongAccumulator(Math::max, 0);
+
+	private Broadcaster() {
+	}
+
+	/**
+	 * Sends a line to every connection.
+	 * @param connections are the recipients.
+	 * @param line is the protocol line.
+	 * @return the number of recipients.
+	 */
+	public static int broadcast(Iterable<Connection> connections, String line) {
+		return broadcast(connections, null, line);
+	}
+
+	/**
+	 * Sends a line to every connection but one.
+	 * @param connections are the recipients.
+	 * @param except is left out, may be null.
+	 * @param line is the protocol line.
+	 * @return the number of recipients.
+	 */
+	public static int broadcast(Iterable<Connection> connections, Connection except, String line) {
+		EncodedMessage message = new EncodedMessage(line);
+		int fanOut = 0;
+		for (Connection conn : connections) {
+			if (conn == except)
+				continue;
+			conn.send(message);
+			fanOut++;
+		}
+		broadcasts.increment();
+		recipients.add(fanOut);
+		encodings.add(message.getEncodings());
+		bytesSaved.add(message.getBytesSaved());
+		maxFanOut.accumulate(fanOut);
+		return fanOut;
+	}
+
+	/**
+	 * @return the number of broadcasts sent.
+	 */
+	public static long getBroadcasts() {
+		return broadcasts.sum();
+	}
+
+	/**
+	 * @return the total number of recipients over all broadcasts.
+	 */
+	public static long getRecipients() {
+		return recipients.sum();
+	}
+
+	/**
+	 * @return the number of times a broadcast message actually had to be encoded.
+	 */
+	public static long getEncodings() {
+		return encodings.sum();
+	}
+
+	/**
+	 * @return the bytes that did not have to be encoded thanks to sharing.
+	 */
+	public static long getBytesSaved() {
+		return bytesSaved.sum();
+	}
+
+	/**
+	 * @return the largest number of recipients of a single broadcast.
+	 */
+	public static long getMaxFanOut() {
+		return maxFanOut.get();
+	}
+
+	/**
+	 * @return a one line summary of the counters.
+	 */
+	public static String getStats() {
+		long count = getBroadcasts();
+		long average = count == 0 ? 0 : getRecipients() / count;
+		return count + " broadcasts to " + getRecipients() + " recipients (avg fan-out " + average + ", max " + getMaxFanOut()
+				+ "), " + getEncodings() + " encodings, " + getBytesSaved() + " bytes saved";
+	}
+
+}
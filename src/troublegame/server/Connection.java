@@ -1,15 +1,22 @@
 package troublegame.server;
 
 import java.io.BufferedReader;
+import java.io.IOException;
 import java.io.PrintWriter;
 import java.net.Socket;
 
+import troublegame.communication.BinaryCodec;
+import troublegame.communication.EncodedMessage;
+
 public class Connection {
 	private Socket socket;
 	private PrintWriter output;
+	private OutboundQueue outbound;
 	private BufferedReader input;
+	private BinaryCodec codec;
 	private User user;
 	private boolean guest;
+	private volatile boolean closed;
 	
 	// creates a connection mapping, as well as keeps the input and output stream wrapper
 	public Connection(Socket socket, BufferedReader i, PrintWriter o) {
@@ -19,6 +26,16 @@ public class Connection {
 		user = null;
 	}
 	
+	/**
+	 * Creates a connection whose output is queued and written by the transport.
+	 * @param socket is the client socket.
+	 * @param outbound is the queue drained by the transport.
+	 */
+	public Connection(Socket socket, OutboundQueue outbound) {
+		this(socket, null, null);
+		this.outbound = outbound;
+	}
+	
 	public Socket getSocket() {
 		return socket;
 	}
@@ -31,6 +48,74 @@ public class Connection {
 		return output;
 	}
 	
+	/**
+	 * @return the queue of output waiting to be written, or null if output is written directly.
+	 */
+	public OutboundQueue getOutbound() {
+		return outbound;
+	}
+	
+	/**
+	 * Queues a line for the client, as a binary frame once the binary protocol
+	 * has been negotiated. Never blocks on the client; a client that falls too
+	 * far behind is dropped by the transport instead.
+	 * @param line is the protocol line.
+	 */
+	public void send(String line) {
+		send(new EncodedMessage(line));
+	}
+	
+	/**
+	 * Queues a message that may be shared with other recipients, reusing its
+	 * encoded bytes where possible.
+	 * @param message is the message.
+	 */
+	public synchronized void send(EncodedMessage message) {
+		if (outbound == null) {
+			output.println(message.getLine());
+			return;
+		}
+		outbound.offer(codec == null ? message.text() : message.frame(codec));
+	}
+	
+	/**
+	 * @return the negotiated binary codec, or null if the client uses the text protocol.
+	 */
+	public BinaryCodec getCodec() {
+		return codec;
+	}
+	
+	/**
+	 * Switches the connection to the binary protocol.
+	 * @param codec is the codec to encode and decode with.
+	 */
+	public synchronized void setCodec(BinaryCodec codec) {
+		if (outbound == null)
+			throw new IllegalStateException("Connection has no outbound queue");
+		this.codec = codec;
+	}
+	
+	/**
+	 * Closes the connection once any output still queued for the client has been written.
+	 * @throws IOException if the socket could not be closed.
+	 */
+	public void close() throws IOException {
+		closed = true;
+		if (outbound != null)
+			outbound.close();
+		else if (output != null)
+			output.close();
+		else if (socket != null)
+			socket.close();
+	}
+	
+	/**
+	 * @return true once the connection has been closed.
+	 */
+	public boolean isClosed() {
+		return closed;
+	}
+	
 	public User getUser() {
 		return this.user;
 	}
@@ -45,11 +130,11 @@ public class Connection {
 	public String getUsername() {
 		return getUser().getUsername();
 	}
-
+	
 	public boolean isGuest() {
 		return guest;
 	}
-
+	
 	public void setGuest(boolean guest) {
 		this.guest = guest;
 	}
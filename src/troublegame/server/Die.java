@@ -1,5 +1,5 @@
 package troublegame.server;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 /**
  * A Die (Dice) object. Can be rolled to generate numbers for classical board games
@@ -10,10 +10,22 @@ public class Die {
 	// The last rolled value
 	private int value;
 	
+	// Where the rolls come from
+	private SplittableRandom random;
+	
 	/**
 	 * Creates a default die which is rolled upon creation to generate an initial value
 	 */
 	public Die() {
+		this(new SplittableRandom());
+	}
+	
+	/**
+	 * Creates a die drawing its rolls from the given generator, which is rolled upon creation
+	 * @param random The generator, used by this die alone or on the same thread
+	 */
+	public Die(SplittableRandom random) {
+		this.random = random;
 		value = rollDie();
 	}
 	
@@ -22,7 +34,7 @@ public class Die {
 	 * @return The value that was rolled
 	 */
 	public int rollDie() {
-		value = new Random().nextInt(6) + 1;
+		value = random.nextInt(6) + 1;
 		return value;
 	}
 	
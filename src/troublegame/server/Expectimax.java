@@ -0,0 +1,366 @@
+package troublegame.server;
+
+import java.util.SplittableRandom;
+
+/**
+ * Chooses a token for a player by searching the moves ahead. A player picks a
+ * token before rolling, so each turn is a choice of token followed by a
+ * chance node over the six die values. Positions are valued for every colour
+ * at once, and each player, the searching one and the others alike, is taken
+ * to pick the token with the best expected value for itself.
+ *
+ * The search deepens one turn at a time until its deadline passes, keeping
+ * the choice of the last depth it finished; the first depth is always
+ * finished. The choice depends only on the position and the depth finished,
+ * so searching a position again to the same depth makes the same choice. Positions are hashed with Zobrist keys, updated as moves are
+ * made and undone, and their values kept in a transposition table. Nothing
+ * is allocated once the search is constructed.
+ *
+ * A search works on its own copy of the board and is used by one thread at a time.
+ */
+public class Expectimax {
+
+	/**
+	 * The deepest search by default, in turns.
+	 */
+	public static final int DEFAULT_MAX_DEPTH = 12;
+
+	/**
+	 * The value of a win, plus the turns left to search when it happens.
+	 */
+	public static final double WIN = 1000000;
+
+	/**
+	 * The log2 of the number of transposition table entries.
+	 */
+	public static final int DEFAULT_TABLE_BITS = 18;
+
+	// Evaluation weights, in main slots travelled. A token on the track counts
+	// for less than one at home until it is well on its way: tokens out are
+	// exposed to being sent home and get in each other's way, and one at home
+	// can still enter, with its extra roll, whenever it is wanted. Played
+	// against the old first-token AI in the simulator, searches valuing
+	// entering any higher spread their tokens out and lose more games.
+	private static final double ENTERED = -10;
+	private static final double FINISHED = ENTERED + Board.NUM_MAIN_SLOTS + 2;
+	private static final double RISK = 0.5;
+
+	/**
+	 * The deadline is checked every this many nodes plus one.
+	 */
+	private static final int CHECK_MASK = 0x3FF;
+
+	private static final int NUM_COLOURS = BoardState.NUM_COLOURS;
+	private static final int ZONE_SHIFT = 5;
+	private static final long[][] KEYS = new long[BoardState.NUM_TOKENS][3 << ZONE_SHIFT];
+	private static final long[] TURN = new long[NUM_COLOURS];
+
+	static {
+		SplittableRandom random = new SplittableRandom(0x7B0B1E5L);
+		for (long[] keys : KEYS) {
+			for (int i = 0; i < keys.length; i++)
+				keys[i] = random.nextLong();
+		}
+		for (int c = 0; c < NUM_COLOURS; c++)
+			TURN[c] = random.nextLong();
+	}
+
+	private final BoardState state;
+	private final TranspositionTable table;
+	private final int maxDepth;
+
+	/**
+	 * The values of each colour, one row per level of the search: a decision
+	 * at level l fills row l, each of its tokens' chance nodes row l + 1 and
+	 * the positions after the die row l + 2.
+	 */
+	private final double[][] values;
+	private final double[] scores;
+	private long deadline;
+	private boolean checkDeadline;
+	private boolean aborted;
+	private long nodes;
+	private int depthReached;
+
+	public Expectimax() {
+		this(DEFAULT_TABLE_BITS, DEFAULT_MAX_DEPTH);
+	}
+
+	/**
+	 * @param tableBits is the log2 of the number of transposition table entries.
+	 * @param maxDepth is the deepest the search goes, in turns, however much time is left.
+	 */
+	public Expectimax(int tableBits, int maxDepth) {
+		this.state = new BoardState();
+		this.table = new TranspositionTable(tableBits, NUM_COLOURS);
+		this.maxDepth = maxDepth;
+		this.values = new double[2 * maxDepth + 3][NUM_COLOURS];
+		this.scores = new double[NUM_COLOURS];
+	}
+
+	/**
+	 * Searches for the token a colour should move.
+	 * @param position is the board, which is copied and not changed.
+	 * @param colour is the colour to move, as numbered by BoardState.
+	 * @param deadline is the System.nanoTime() by which to stop deepening, Long.MAX_VALUE
+	 * to go to the maximum depth.
+	 * @return the id of the token to move.
+	 */
+	public int chooseToken(BoardState position, int colour, long deadline) {
+		return chooseToken(position, colour, deadline, maxDepth);
+	}
+
+	/**
+	 * Searches for the token a colour should move, going no deeper than a depth.
+	 * @param position is the board, which is copied and not changed.
+	 * @param colour is the colour to move, as numbered by BoardState.
+	 * @param deadline is the System.nanoTime() by which to stop deepening, Long.MAX_VALUE
+	 * to go to the depth.
+	 * @param depthLimit is the deepest to search, in turns, at most the search's maximum depth.
+	 * @return the id of the token to move.
+	 */
+	public int chooseToken(BoardState position, int colour, long deadline, int depthLimit) {
+		state.copyFrom(position);
+		this.deadline = deadline;
+		aborted = false;
+		nodes = 0;
+		depthReached = 0;
+
+		int best = BoardState.NONE;
+		int choices = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			if (!Rules.isChoice(state, BoardState.token(colour, id)))
+				continue;
+			if (best == BoardState.NONE)
+				best = id;
+			choices++;
+		}
+		if (best == BoardState.NONE)
+			return 0;
+		if (choices == 1)
+			return best;
+
+		long hash = hash(state);
+		double[] value = values[1];
+		for (int depth = 1; depth <= Math.min(depthLimit, maxDepth); depth++) {
+			checkDeadline = depth > 1;
+			int choice = BoardState.NONE;
+			double bestValue = Double.NEGATIVE_INFINITY;
+			for (int id = 0; id < Player.NUM_TOKENS && !aborted; id++) {
+				int token = BoardState.token(colour, id);
+				if (!Rules.isChoice(state, token))
+					continue;
+				chance(hash, colour, token, depth, 1);
+				if (value[colour] > bestValue) {
+					bestValue = value[colour];
+					choice = id;
+				}
+			}
+			if (aborted)
+				break;
+			best = choice;
+			depthReached = depth;
+			if (Math.abs(bestValue) >= WIN || System.nanoTime() > deadline)
+				break;
+		}
+		return best;
+	}
+
+	/**
+	 * Fills row level with the values of the position when the colour is to choose a token.
+	 */
+	private void decide(long hash, int colour, int depth, int level) {
+		double[] out = values[level];
+		if ((++nodes & CHECK_MASK) == 0 && checkDeadline && System.nanoTime() > deadline)
+			aborted = true;
+		if (aborted)
+			return;
+		if (depth == 0) {
+			evaluate(out);
+			return;
+		}
+
+		long key = hash ^ TURN[colour];
+		if (table.probe(key, depth, out))
+			return;
+
+		double[] value = values[level + 1];
+		double best = Double.NEGATIVE_INFINITY;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int token = BoardState.token(colour, id);
+			if (!Rules.isChoice(state, token))
+				continue;
+			chance(hash, colour, token, depth, level + 1);
+			if (aborted)
+				return;
+			if (value[colour] > best) {
+				best = value[colour];
+				System.arraycopy(value, 0, out, 0, NUM_COLOURS);
+			}
+		}
+		table.store(key, depth, out);
+	}
+
+	/**
+	 * Fills row level with the values of the colour moving the token, averaged over the die.
+	 */
+	private void chance(long hash, int colour, int token, int depth, int level) {
+		// leaving home is the same move whatever the die shows
+		if (state.getZone(token) == Board.SLOT_HOME) {
+			play(hash, colour, Rules.evaluate(state, token, 1), depth, level);
+			return;
+		}
+		double[] out = values[level];
+		double[] value = values[level + 1];
+		for (int c = 0; c < NUM_COLOURS; c++)
+			out[c] = 0;
+		for (int die = 1; die <= 6; die++) {
+			play(hash, colour, Rules.evaluate(state, token, die), depth, level + 1);
+			if (aborted)
+				return;
+			for (int c = 0; c < NUM_COLOURS; c++)
+				out[c] += value[c] / 6;
+		}
+	}
+
+	/**
+	 * Makes a move, fills row level with the values of the position it leads to and undoes it.
+	 */
+	private void play(long hash, int colour, int move, int depth, int level) {
+		if (Rules.kind(move) == Rules.FAIL) {
+			decide(hash, next(colour), depth - 1, level);
+			return;
+		}
+
+		int token = Rules.token(move);
+		int fromZone = state.getZone(token);
+		int fromIndex = state.getIndex(token);
+		int eaten = Rules.eaten(move);
+		long next = hash ^ KEYS[token][pack(fromZone, fromIndex)] ^ KEYS[token][pack(Rules.zone(move), Rules.index(move))];
+		if (eaten != BoardState.NONE)
+			next ^= KEYS[eaten][pack(Board.SLOT_MAIN, Rules.index(move))]
+					^ KEYS[eaten][pack(Board.SLOT_HOME, BoardState.idOfToken(eaten))];
+
+		Rules.apply(state, move);
+		if (state.isEndZoneFull(colour)) {
+			double[] out = values[level];
+			for (int c = 0; c < NUM_COLOURS; c++)
+				out[c] = c == colour ? WIN + depth : -WIN - depth;
+		} else {
+			decide(next, Rules.rollsAgain(move) ? colour : next(colour), depth - 1, level);
+		}
+
+		state.move(token, fromZone, fromIndex);
+		if (eaten != BoardState.NONE)
+			state.move(eaten, Board.SLOT_MAIN, Rules.index(move));
+	}
+
+	/**
+	 * Fills in, for each colour, how much better it stands than the best placed of the others.
+	 */
+	private void evaluate(double[] out) {
+		for (int c = 0; c < NUM_COLOURS; c++)
+			scores[c] = score(c);
+		for (int c = 0; c < NUM_COLOURS; c++) {
+			double others = Double.NEGATIVE_INFINITY;
+			for (int o = 0; o < NUM_COLOURS; o++) {
+				if (o != c)
+					others = Math.max(others, scores[o]);
+			}
+			out[c] = scores[c] - others;
+		}
+	}
+
+	/**
+	 * Scores a colour's position: how far its tokens have come, less what its
+	 * tokens on the main track stand to lose to the others' next roll.
+	 */
+	private double score(int colour) {
+		double score = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int token = BoardState.token(colour, id);
+			switch (state.getZone(token)) {
+				case Board.SLOT_MAIN: {
+					int index = state.getIndex(token);
+					double progress = ENTERED + distance(colour, index);
+					score += progress - RISK * progress * threat(colour, index) / 6;
+					break;
+				}
+				case Board.SLOT_END:
+					score += FINISHED + state.getIndex(token);
+					break;
+				default:
+					break;
+			}
+		}
+		return score;
+	}
+
+	/**
+	 * @return the number of die values with which another colour could land on the main slot.
+	 */
+	private int threat(int colour, int index) {
+		int dice = 0;
+		for (int c = 0; c < NUM_COLOURS; c++) {
+			if (c == colour)
+				continue;
+			// a token at home enters on any die value
+			if (Rules.getStart(c) == index && state.getHomeMask(c) != 0)
+				return 6;
+			int mask = state.getMainMask(c);
+			while (mask != 0) {
+				int from = Integer.numberOfTrailingZeros(mask);
+				mask &= mask - 1;
+				int gap = Math.floorMod(index - from, Board.NUM_MAIN_SLOTS);
+				// a token about to pass its end goes into its end zone instead
+				if (gap >= 1 && gap <= 6 && distance(c, from) + gap < Board.NUM_MAIN_SLOTS)
+					dice |= 1 << gap - 1;
+			}
+		}
+		return Integer.bitCount(dice);
+	}
+
+	/**
+	 * @return how many main slots a colour's token has travelled from its start.
+	 */
+	private static int distance(int colour, int index) {
+		return Math.floorMod(index - Rules.getStart(colour), Board.NUM_MAIN_SLOTS);
+	}
+
+	private static int next(int colour) {
+		return (colour + 1) % NUM_COLOURS;
+	}
+
+	private static int pack(int zone, int index) {
+		return zone << ZONE_SHIFT | index;
+	}
+
+	/**
+	 * @return the Zobrist hash of the token positions.
+	 */
+	public static long hash(BoardState state) {
+		long hash = 0;
+		for (int token = 0; token < BoardState.NUM_TOKENS; token++)
+			hash ^= KEYS[token][pack(state.getZone(token), state.getIndex(token))];
+		return hash;
+	}
+
+	/**
+	 * @return the number of positions visited by the last search.
+	 */
+	public long getNodes() {
+		return nodes;
+	}
+
+	/**
+	 * @return the depth the last search finished, 0 if there was only one choice.
+	 */
+	public int getDepthReached() {
+		return depthReached;
+	}
+
+	public TranspositionTable getTable() {
+		return table;
+	}
+
+}
@@ -7,7 +7,7 @@ import java.util.Calendar;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.Map;
-import java.util.Random;
+import java.util.SplittableRandom;
 
 import troublegame.communication.CommunicationHandler;
 
@@ -15,6 +15,11 @@ public class Game {
 	
 	public static final int MAX_PLAYERS = 4;
 	
+	/**
+	 * How long an AI waits before playing its turn unless set otherwise, in milliseconds.
+	 */
+	public static final int DEFAULT_AI_DELAY = 2000;
+	
 	private GameEngine engine;
 	private Board board;
 	private Player[] players;
@@ -24,11 +29,32 @@ public class Game {
 	private boolean started;
 	private Map<Color, String> humans;
 	private Map<Color, String> computers;
-	private int tick;
+	private int aiDelay;
+	private AILevel aiLevel;
 	private ArrayList<String> aiNames;
+	private long seed;
+	private SplittableRandom random;
+	private int[] aiDepths;
+	private int aiMoves;
+	private int[] replayDepths;
 	
+	/**
+	 * Creates a game drawing its random numbers from the next seed of the engine.
+	 */
 	public Game(GameEngine engine) {
-		this.tick = 0;
+		this(engine, engine.getGameRandom().nextSeed());
+	}
+	
+	/**
+	 * Creates a game drawing its colours, AI names and dice from the seed. Given the same
+	 * seed, players and moves, a game plays out the same.
+	 */
+	public Game(GameEngine engine, long seed) {
+		this.seed = seed;
+		this.random = GameRandom.forSeed(seed);
+		this.aiDepths = new int[64];
+		this.aiDelay = DEFAULT_AI_DELAY;
+		this.aiLevel = AILevel.DEFAULT;
 		this.engine = engine;
 		setAvailableColours();
 		genAiNames();
@@ -66,7 +92,7 @@ public class Game {
 		for (int j = 0; j < players.length; j++)
 			players[j].setPID(j);
 		
-		board = new Board(players);
+		board = new Board(players, random);
 		this.started = true;
 		
 		for (Player p : players) {
@@ -124,7 +150,7 @@ public class Game {
 	 * @return The newly created AI
 	 */
 	public AI createAIPlayer(int id, Color c, String username) {
-		AI tmp = new AI(id, username, c);
+		AI tmp = new AI(id, username, c, aiLevel);
 		return tmp;
 	}
 	
@@ -147,7 +173,7 @@ public class Game {
 	public Color assignPlayerColour(Color color) {
 		
 		if(color == Color.RANDOM || availableColours.contains(color) == false) {
-			int rand = new Random().nextInt(availableColours.size());
+			int rand = random.nextInt(availableColours.size());
 			color = availableColours.get(rand);
 		}
 		
@@ -156,167 +182,44 @@ public class Game {
 	}
 	
 	/**
-	 * Applies a roll to a player's token given the playerID, tokenID and the roll value
+	 * Applies a roll to a player's token given the playerID, tokenID and the roll value.
+	 * A token sent home is broadcast straight away
 	 * @param playerID
 	 * @param tokenID
+	 * @return the command telling the players what happened, ROLL_FAIL if the token cannot move, or null if
+	 * there is no such token
 	 */
 	public String movePlayerToken(int playerID, int tokenID) {
-		String command = null;
 		Player p = players[playerID];
 		Token token = p.getToken(tokenID);
-		Slot currentSlot = board.getTokenLoc(token);
-		Color col = token.getColour();
-		int currPos = -1;
-		int target = -1;
-		int startIndex = -1;
+		if (token == null) return null;
 		int diceValue = board.getDie().getLastRolledValue();
-		// first we check if token is already in play
-		switch (currentSlot.getSlotZone()) {
-			case Board.SLOT_HOME:
-				// sorry can't move
-				// Was 6, changed to -1 to allow all rolls
-				if (diceValue == -1) {
-					command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-				} else {
-					startIndex = board.getStartIndex(col);
-					if (board.getSlot(startIndex).isOccupied()) {
-						Token tokenToEat = board.getSlot(startIndex).getOccupyingToken();
-						Player owner = tokenToEat.getOwner();
-						board.setTokenLoc(tokenToEat, Board.SLOT_HOME, tokenToEat.getTokenID());
-						engine.broadcast(this, CommunicationHandler.GAME_EAT_TOKEN + " " + tokenToEat.getTokenID() + " " + owner.getUsername() + " " + Board.SLOT_HOME);
-					}
-
-					command = CommunicationHandler.GAME_ROLL_AGAIN + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_MAIN + " " + startIndex;
-					board.setTokenLoc(token, Board.SLOT_MAIN, startIndex);
-				}
-				break;
-			case Board.SLOT_MAIN:
-				startIndex = board.getStartIndex(col);
-				int endIndex = board.getEndIndex(col);
-				//int currZone = Board.SLOT_MAIN;
-				currPos = currentSlot.getSlotIndex();
-
-
-				int endZoneMin = endIndex + 1;
-				int endZoneMax = endZoneMin + 3;
-				int endPos = currPos + diceValue;
-
-				// If within movable slots on board
-				if (endPos <= endZoneMax) {
-
-					// If dice roll would land inside end zone
-					if (currPos <= endIndex && endPos >= endZoneMin && endPos <= endZoneMax) {
-						int slotIndex = (endPos % endIndex) - 1;
-
-						// If that slot is unoccupied
-						if (board.getSlot(slotIndex, Board.SLOT_END, col).getOccupyingToken() == null) {
-							command = CommunicationHandler.GAME_ROLL_SUCCESS + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_END + " " + slotIndex;
-							board.setTokenLoc(token, Board.SLOT_END, slotIndex);
-						} else {
-							command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-						}
-						// Move as normal - must be on the Main board still
-					} else {
-						target = endPos;
-
-						// Wrap around the indices if you pass red section
-						if (target > (Board.NUM_MAIN_SLOTS - 1)) target = target % Board.NUM_MAIN_SLOTS;
-
-						// Eat token if you land on it
-						if (board.getSlot(target).isOccupied()) {
-							Token tokenToEat = board.getSlot(target).getOccupyingToken();
-							Player owner = tokenToEat.getOwner();
-							board.setTokenLoc(tokenToEat, Board.SLOT_HOME, tokenToEat.getTokenID());
-							engine.broadcast(this, CommunicationHandler.GAME_EAT_TOKEN + " " + tokenToEat.getTokenID() + " " + owner.getUsername() + " " + Board.SLOT_HOME);
-						}
-					}
-				// Might be just after the home zone - move normally
-				} else if (currPos > endIndex) {
-					target = endPos;
-
-					// Wrap around the indices if you pass red section
-					if (target > (Board.NUM_MAIN_SLOTS - 1)) target = target % Board.NUM_MAIN_SLOTS;
-
-					// Eat token if you land on it
-					if (board.getSlot(target).isOccupied()) {
-						Token tokenToEat = board.getSlot(target).getOccupyingToken();
-						Player owner = tokenToEat.getOwner();
-						board.setTokenLoc(tokenToEat, Board.SLOT_HOME, tokenToEat.getTokenID());
-						engine.broadcast(this, CommunicationHandler.GAME_EAT_TOKEN + " " + tokenToEat.getTokenID() + " " + owner.getUsername() + " " + Board.SLOT_HOME);
-					}
-				// Rolled too high for end zone
-				} else {
-					command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-				}
-
-				/*
-				//TODO: Remove this once rework complete
-				if (currPos == endIndex) { // move into endzone
-					switch (diceValue) {
-						case 1: 
-							if (board.getSlot(diceValue - 1, Board.SLOT_END, col).getOccupyingToken() == null) {
-								command = CommunicationHandler.GAME_ROLL_SUCCESS + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_END + " " + 0;
-								board.setTokenLoc(token, Board.SLOT_END, 0);
-							} else {
-								command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-							}
-							break;
-						case 2:
-							if (board.getSlot(diceValue - 1, Board.SLOT_END, col).getOccupyingToken() == null) {
-								command = CommunicationHandler.GAME_ROLL_SUCCESS + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_END + " " + 1;
-								board.setTokenLoc(token, Board.SLOT_END, 1);
-							} else {
-								command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-							}
-							break;
-						case 3:
-							if (board.getSlot(diceValue - 1, Board.SLOT_END, col).getOccupyingToken() == null) {
-								command = CommunicationHandler.GAME_ROLL_SUCCESS + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_END + " " + 2;
-								board.setTokenLoc(token, Board.SLOT_END, 2);
-							} else {
-								command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-							}
-							break;
-						case 4:
-							if (board.getSlot(diceValue - 1, Board.SLOT_END, col).getOccupyingToken() == null) {
-								command = CommunicationHandler.GAME_ROLL_SUCCESS + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_END + " " + 3;
-								board.setTokenLoc(token, Board.SLOT_END, 3);
-							} else {
-								command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-							}
-							break;
-						default:
-							command = CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
-					}
-				} else { // keep moving along mainzone
-					target = currPos + diceValue;
-					if (startIndex < endIndex) { // ONLY TRUE FOR RED
-						if (target > endIndex) target = endIndex;
-					} else { // EVERY OTHER COLOUR
-						if (target > (Board.NUM_MAIN_SLOTS - 1)) target = target % Board.NUM_MAIN_SLOTS;
-						if (currPos < endIndex) {
-							if (target > endIndex) target = endIndex;
-						}
-					}
-					if (board.getSlot(target).isOccupied()) {
-						Token tokenToEat = board.getSlot(target).getOccupyingToken();
-						Player owner = tokenToEat.getOwner();
-						board.setTokenLoc(tokenToEat, Board.SLOT_HOME, tokenToEat.getTokenID());
-						engine.broadcast(this, CommunicationHandler.GAME_EAT_TOKEN + " " + tokenToEat.getTokenID() + " " + owner.getUsername() + " " + Board.SLOT_HOME);
-					}
-				}
-
-				*/
-				break;
-		}
+		int move = board.applyMove(Rules.evaluate(board.getState(), BoardState.token(token), diceValue));
 		
-		// actually do the move
-		if (target != -1) {
-			command = CommunicationHandler.GAME_ROLL + " " + diceValue + " " + tokenID + " " + p.getUsername() + " " + Board.SLOT_MAIN + " " + target;
-			board.setTokenLoc(token, Board.SLOT_MAIN, target);
+		int eaten = Rules.eaten(move);
+		if (eaten != BoardState.NONE) {
+			Token tokenToEat = board.getToken(eaten);
+			engine.broadcast(this, CommunicationHandler.GAME_EAT_TOKEN + " " + tokenToEat.getTokenID() + " " + tokenToEat.getOwner().getUsername() + " " + Board.SLOT_HOME);
+		}
+		return formatMove(move, p);
+	}
+	
+	/**
+	 * @return the protocol command describing a move made by the player
+	 */
+	public static String formatMove(int move, Player p) {
+		int diceValue = Rules.die(move);
+		String moved = " " + diceValue + " " + BoardState.idOfToken(Rules.token(move)) + " " + p.getUsername() + " " + Rules.zone(move) + " " + Rules.index(move);
+		switch (Rules.kind(move)) {
+			case Rules.ENTER:
+				return CommunicationHandler.GAME_ROLL_AGAIN + moved;
+			case Rules.FINISH:
+				return CommunicationHandler.GAME_ROLL_SUCCESS + moved;
+			case Rules.MOVE:
+				return CommunicationHandler.GAME_ROLL + moved;
+			default:
+				return CommunicationHandler.GAME_ROLL_FAIL + " " + diceValue + " " + p.getUsername();
 		}
-		
-		return command;
 	}
 	
 	// uses turn number to determine who's turn it is, then returns the player object
@@ -331,12 +234,7 @@ public class Game {
 		if (!started)
 			return false;
 		for (Player p: players) {
-			ArrayList<Slot> homeslot = board.getPlayerEndZone(p.getColour());
-			int filledSlots = 0;
-			for (Slot s: homeslot) {
-				if (s.isOccupied()) filledSlots++;
-			}
-			if (filledSlots == Player.NUM_TOKENS) return true;
+			if (board.getState().isEndZoneFull(BoardState.colourIndex(p.getColour()))) return true;
 		}
 		return false;
 	}
@@ -347,12 +245,7 @@ public class Game {
 	 */
 	public Player getWinner() {
 		for (Player p: players) {
-			ArrayList<Slot> homeslot = board.getPlayerEndZone(p.getColour());
-			int filledSlots = 0;
-			for (Slot s: homeslot) {
-				if (s.isOccupied()) filledSlots++;
-			}
-			if (filledSlots == Player.NUM_TOKENS) return p;
+			if (board.getState().isEndZoneFull(BoardState.colourIndex(p.getColour()))) return p;
 		}
 		return null;
 	}
@@ -377,6 +270,20 @@ public class Game {
 		
 	}
 	
+	/**
+	 * @param colour is the colour of a player in the started game.
+	 * @return the player with the colour, or null if there is none.
+	 */
+	public Player getPlayer(Color colour) {
+		if (players == null)
+			return null;
+		for (Player p : players) {
+			if (p.getColour() == colour)
+				return p;
+		}
+		return null;
+	}
+	
 	// returns an arraylist containing all human players
 	public ArrayList<Player> getHumanPlayers() {
 		ArrayList<Player> human = new ArrayList<Player>();
@@ -413,7 +320,7 @@ public class Game {
 	 */
 	public String getRandomAiName() {
 		
-		int index = new Random().nextInt(aiNames.size() - 1);
+		int index = random.nextInt(aiNames.size() - 1);
 		if (index < 0) index = 0;
 		String aiName = aiNames.get(index);
 		aiNames.remove(index);
@@ -455,12 +362,88 @@ public class Game {
 		turnNum++;
 	}
 
-	public int getTick() {
-		return tick;
+	/**
+	 * @return how long an AI waits before playing its turn in milliseconds.
+	 */
+	public int getAiDelay() {
+		return aiDelay;
 	}
 
-	public void setTick(int tick) {
-		this.tick = tick;
+	public void setAiDelay(int aiDelay) {
+		this.aiDelay = aiDelay;
+	}
+	
+	public AILevel getAiLevel() {
+		return aiLevel;
+	}
+	
+	/**
+	 * @return the seed the game's random numbers are drawn from.
+	 */
+	public long getSeed() {
+		return seed;
+	}
+	
+	/**
+	 * Records an AI move played and the depth its search finished.
+	 */
+	public void recordAiMove(int depth) {
+		if (aiMoves == aiDepths.length)
+			aiDepths = Arrays.copyOf(aiDepths, aiMoves * 2);
+		aiDepths[aiMoves++] = depth;
+	}
+	
+	/**
+	 * @return the depth the search of each AI move finished, in the order played. With the
+	 * seed this plays the game again, see setReplayDepths.
+	 */
+	public int[] getAiDepths() {
+		return Arrays.copyOf(aiDepths, aiMoves);
+	}
+	
+	/**
+	 * @return the depths of getAiDepths separated by spaces.
+	 */
+	public String getAiDepthLog() {
+		StringBuilder log = new StringBuilder();
+		for (int i = 0; i < aiMoves; i++) {
+			if (i > 0) log.append(' ');
+			log.append(aiDepths[i]);
+		}
+		return log.toString();
+	}
+	
+	/**
+	 * Makes the AIs search each move to the depth recorded when the game was first
+	 * played, whatever time they have, instead of as deep as their time allows.
+	 * @param depths are the depths recorded, in the order played.
+	 */
+	public void setReplayDepths(int[] depths) {
+		this.replayDepths = depths;
+	}
+	
+	/**
+	 * @return the depth to search the next AI move to when replaying, or -1 if the
+	 * game is not being replayed or has gone past the moves recorded.
+	 */
+	public int getReplayDepth() {
+		if (replayDepths == null || aiMoves >= replayDepths.length)
+			return -1;
+		return replayDepths[aiMoves];
+	}
+	
+	/**
+	 * @return the game's generator, to be used on the game's shard only.
+	 */
+	public SplittableRandom getRandom() {
+		return random;
+	}
+	
+	/**
+	 * Sets the level of the AI players, must be called before the game starts.
+	 */
+	public void setAiLevel(AILevel aiLevel) {
+		this.aiLevel = aiLevel;
 	}
 	
 }
\ No newline at end of file
@@ -1,93 +1,214 @@
 package troublegame.server;
 
-import java.io.PrintWriter;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.LinkedList;
-import java.util.Map.Entry;
-import java.util.Queue;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
 
+import troublegame.communication.CommandDispatcher;
 import troublegame.communication.CommunicationHandler;
 
 // gameengine will call methods from board to manipulate game.
+// Games are partitioned over shards, each owned by a single thread. Everything
+// that touches a game runs on its shard: a human's roll as soon as it arrives,
+// AI turns after the game's AI delay, chat and disconnects. Socket threads only
+// look up which shard to post to. AI moves are searched for on the AI executor
+// while the AI delay runs and handed back to the shard to be played.
 public class GameEngine {
 	
-	private ArrayList<Game> games;
-	private HashMap<Game, ArrayList<Connection>> gameConns;
-	private HashMap<Game, Queue<String>> inputQueues;
-	private boolean allPlayersConnected;
+	/**
+	 * Where a connection plays: its game and, once the game has started, its player.
+	 */
+	private static class Seat {
+		
+		private final Game game;
+		private final Color colour;
+		
+		/**
+		 * Set and read on the game's shard only.
+		 */
+		private Player player;
+		
+		private Seat(Game game, Color colour) {
+			this.game = game;
+			this.colour = colour;
+		}
+		
+	}
+	
+	private List<Game> games;
+	private Map<Game, List<Connection>> gameConns;
+	private Map<Connection, Seat> seats;
+	private Map<Game, GameShard> owners;
+	private GameShard[] shards;
+	private AIExecutor aiExecutor;
+	private GameRandom gameRandom;
+	private AtomicInteger nextShard;
+	private int aiDelay;
+	private CommandDispatcher.Stats rollLatency;
+	private LongAdder gamesFinished;
 	
 	public GameEngine() {
+		this(Runtime.getRuntime().availableProcessors());
+	}
+	
+	/**
+	 * Constructs a game engine whose games are seeded from a base seed of its own.
+	 * @param shardCount is the number of threads games are spread over.
+	 */
+	public GameEngine(int shardCount) {
+		this(shardCount, new GameRandom());
+	}
+	
+	/**
+	 * Constructs a game engine with the default number of AI threads.
+	 * @param shardCount is the number of threads games are spread over.
+	 * @param gameRandom hands out the seeds of the games.
+	 */
+	public GameEngine(int shardCount, GameRandom gameRandom) {
+		this(shardCount, AIExecutor.DEFAULT_THREADS, gameRandom);
+	}
+	
+	/**
+	 * Constructs a game engine.
+	 * @param shardCount is the number of threads games are spread over.
+	 * @param aiThreads is the number of AI searches run at once, whatever the number of shards.
+	 * @param gameRandom hands out the seeds of the games.
+	 */
+	public GameEngine(int shardCount, int aiThreads, GameRandom gameRandom) {
 		
-		System.out.println(CommunicationHandler.GAME_ENGINE_INFO + " Initializing game engine...");
-		games = new ArrayList<Game>();
-		gameConns = new HashMap<Game, ArrayList<Connection>>();
-		inputQueues = new HashMap<Game, Queue<String>>();
-		allPlayersConnected = false;
+		System.out.println(CommunicationHandler.GAME_ENGINE_INFO + " Initializing game engine with " + shardCount + " shards and "
+				+ aiThreads + " AI threads...");
+		games = new CopyOnWriteArrayList<Game>();
+		gameConns = new ConcurrentHashMap<Game, List<Connection>>();
+		seats = new ConcurrentHashMap<Connection, Seat>();
+		owners = new ConcurrentHashMap<Game, GameShard>();
+		shards = new GameShard[Math.max(1, shardCount)];
+		for (int i = 0; i < shards.length; i++)
+			shards[i] = new GameShard(i);
+		nextShard = new AtomicInteger();
+		this.gameRandom = gameRandom;
+		aiExecutor = new AIExecutor(Math.max(1, aiThreads), Runtime.getRuntime().availableProcessors());
+		aiDelay = Game.DEFAULT_AI_DELAY;
+		rollLatency = new CommandDispatcher.Stats();
+		gamesFinished = new LongAdder();
 	}
 	
 	public void removeConnection(Connection conn) {
-		Iterator<Entry<Game, ArrayList<Connection>>> it = gameConns.entrySet().iterator();
-	    while (it.hasNext()) {
-	    	Entry<Game, ArrayList<Connection>> entry = it.next();
-	    	Game g = entry.getKey();
-	    	ArrayList<Connection> conns = entry.getValue();
-	    	conns.remove(conn);
-	        if (conns.size() == 0) {
-				gameConns.remove(g);
-				inputQueues.remove(g);
-				g.destruct();
-			}
-	    }
-	    /*
-		for (Entry<Game, ArrayList<Connection>> c : gameConns.entrySet()) {
-			Game g = c.getKey();
-			ArrayList<Connection> conns = c.getValue();
+		Seat seat = seats.remove(conn);
+		if (seat == null)
+			return;
+		Game g = seat.game;
+		post(g, () -> {
+			List<Connection> conns = gameConns.get(g);
+			if (conns == null)
+				return;
 			conns.remove(conn);
 			if (conns.size() == 0) {
-				gameConns.remove(g);
-				inputQueues.remove(g);
+				removeGame(g);
 				g.destruct();
 			}
-		}
-		*/
+		});
 	}
 	
+	/**
+	 * Creates a game for the players with AIs of the default level.
+	 * @param players are the connections of the human players.
+	 * @param startingNum is the number shown on the die at the start.
+	 */
 	public void createGame(ArrayList<Connection> players, int startingNum) {
-		Game g = new Game(this);
-		gameConns.put(g, players);
-		inputQueues.put(g, new LinkedList<String>());
-		
-		ArrayList<Connection> sortedPlayerColors = sortByColorPref(players);
-		
-		for(Connection c : sortedPlayerColors) {
+		createGame(players, startingNum, AILevel.DEFAULT);
+	}
+	
+	/**
+	 * Creates a game for the players and hands it to the next shard, which
+	 * sets it up and starts it.
+	 * @param players are the connections of the human players.
+	 * @param startingNum is the number shown on the die at the start.
+	 * @param aiLevel is the level of the AIs filling the empty seats.
+	 */
+	public void createGame(ArrayList<Connection> players, int startingNum, AILevel aiLevel) {
+		createGame(players, startingNum, aiLevel, gameRandom.nextSeed());
+	}
+	
+	/**
+	 * Creates a game drawing its random numbers from a seed, as createGame does with the
+	 * next seed. Playing the same players and moves with a game's seed plays it again.
+	 * @param players are the connections of the human players.
+	 * @param startingNum is the number shown on the die at the start.
+	 * @param aiLevel is the level of the AIs filling the empty seats.
+	 * @param seed is the seed of the game.
+	 */
+	public void createGame(ArrayList<Connection> players, int startingNum, AILevel aiLevel, long seed) {
+		createGame(players, startingNum, aiLevel, seed, null);
+	}
+	
+	/**
+	 * Plays a game again from its seed and the depths its AI searches finished, as
+	 * logged when it ended. The AIs search each move to the depth recorded rather than
+	 * as deep as their time allows, so given the same human moves the game plays out the same.
+	 * @param players are the connections of the human players.
+	 * @param startingNum is the number shown on the die at the start.
+	 * @param aiLevel is the level of the AIs filling the empty seats.
+	 * @param seed is the seed of the game.
+	 * @param aiDepths are the depths recorded, or null to search as deep as time allows.
+	 */
+	public void createGame(ArrayList<Connection> players, int startingNum, AILevel aiLevel, long seed, int[] aiDepths) {
+		ArrayList<Connection> members = new ArrayList<Connection>(players);
+		GameShard shard = shards[Math.floorMod(nextShard.getAndIncrement(), shards.length)];
+		shard.execute(() -> {
+			Game g = new Game(this, seed);
+			g.setAiDelay(aiDelay);
+			g.setAiLevel(aiLevel);
+			g.setReplayDepths(aiDepths);
 			
-			User curr = c.getUser();
-			Color prefColor = curr.getFavouriteColor();
-			g.join(curr.getUsername(), g.assignPlayerColour(prefColor), false);
+			ArrayList<Connection> sortedPlayerColors = sortByColorPref(members);
+			gameConns.put(g, new CopyOnWriteArrayList<Connection>(sortedPlayerColors));
+			owners.put(g, shard);
+			shard.addGame();
 			
-		}
-		
-		for(int i = 0; i < (4 - players.size()); i++) {
-			g.join(g.getRandomAiName(), g.assignPlayerColour(Color.RANDOM), true);
-		}
-		
-		games.add(g);
-		startGame(g, startingNum);
+			for(Connection c : sortedPlayerColors) {
+				
+				User curr = c.getUser();
+				Color prefColor = curr.getFavouriteColor();
+				Color colour = g.assignPlayerColour(prefColor);
+				g.join(curr.getUsername(), colour, false);
+				seats.put(c, new Seat(g, colour));
+				
+			}
+			
+			for(int i = 0; i < (4 - members.size()); i++) {
+				g.join(g.getRandomAiName(), g.assignPlayerColour(Color.RANDOM), true);
+			}
+			
+			games.add(g);
+			startGame(g, startingNum);
+		});
 	}
 	
+	/**
+	 * Starts a game, must be called on the game's shard.
+	 */
 	public void startGame(Game g, int startingNum) {
 		
-		for (Connection c : gameConns.get(g))
-			c.getOutputStream().println(CommunicationHandler.GAME_SETUP + " " + startingNum);
+		Broadcaster.broadcast(gameConns.get(g), CommunicationHandler.GAME_SETUP + " " + startingNum);
 		g.start();
+		for (Connection c : gameConns.get(g)) {
+			Seat seat = getSeat(c, g);
+			if (seat != null)
+				seat.player = g.getPlayer(seat.colour);
+		}
 		g.showPlayers();
-		for (Connection c : gameConns.get(g))
-			c.getOutputStream().println(CommunicationHandler.GAME_START + " "+ g.getStartTimeMessage());
+		System.out.println(CommunicationHandler.GAME_INFO + " Seed: " + g.getSeed());
+		Broadcaster.broadcast(gameConns.get(g), CommunicationHandler.GAME_START + " "+ g.getStartTimeMessage());
 		updateTurns(g);
+		scheduleTurn(g);
 	}
 	
 	/**
@@ -123,173 +244,247 @@ public class GameEngine {
 
 	
 	public void handleChat(Connection user, String message) {
-		for (Game g : games) {
-			for (Player player : g.getHumanPlayers()) {
-				if (player.getUsername().equals(user.getUsername())) {
-					for (Connection member: gameConns.get(g)) {
-						PrintWriter outputStream = member.getOutputStream();
-						String s = String.format(CommunicationHandler.GAME_CHAT + " %s: %s", user.getUsername(), message);
-						outputStream.println(s);
-					}
-				}
-			}
-		}
-
+		Seat seat = seats.get(user);
+		if (seat == null)
+			return;
+		Game g = seat.game;
+		String s = String.format(CommunicationHandler.GAME_CHAT + " %s: %s", user.getUsername(), message);
+		post(g, () -> Broadcaster.broadcast(gameConns.get(g), s));
 	}
 	
-	// process runs the game
-	public void process() {
-		for (Game g : games) {
-			// not processing game if not all players connected or game has not started
-			if (!g.isStarted())
-				continue;
-			if (!allPlayersConnected) {
-				checkPlayerConnections(g);	
-				continue;
-			}
-			if (!g.isOver()) {
-				Player curr = g.getWhoseTurn();
-				if (!(curr instanceof AI)) {
-					int playerID = curr.getID();
-
-					// process his moves 
-					while (!inputQueues.get(g).isEmpty()) {
-						String in = inputQueues.get(g).poll();
-						
-						// die rolls
-						if (in.startsWith(CommunicationHandler.GAME_ROLL)) {
-							String[] input = in.split(" ");
-							int tokenID = Integer.parseInt(input[1]);
-							System.out.println(CommunicationHandler.GAME_INFO + " Rolling Token ID: " + tokenID);
-							g.rollDie();
-							g.setTick(2);
-							
-							String command = g.movePlayerToken(playerID, tokenID);
-							broadcast(g, command);
-							if (!command.startsWith(CommunicationHandler.GAME_ROLL_AGAIN)) {
-								g.incrementTurn();
-								updateTurns(g);
-							}
-						}
-					}
-				} else {
-					if (g.getTick() == 0) {
-						AI ai = (AI) curr;
-						String move = ai.getMove(g.getBoard());
-						System.out.println("AI's MOVE: " + move);
-						
-						g.setTick(2);
-						if (move.startsWith(CommunicationHandler.GAME_ROLL)) {
-							String input[] = move.split(" ");
-							int tokenID = Integer.parseInt(input[1]);
-							g.rollDie();
-							String command = g.movePlayerToken(ai.getID(), tokenID);
-							broadcast(g, command);
-							if (!command.startsWith(CommunicationHandler.GAME_ROLL_AGAIN)) {
-								g.incrementTurn();
-								updateTurns(g);
-							}
-						}
-					} else
-						g.setTick(g.getTick() - 1);
-				}
-			} else {
-				
-				// if game is over
-				Player winner = g.getWinner();
-				
-				// grab the connections and message them
-				ArrayList<Connection> gameConnections = getConnections(g);
-				
-				for (Connection c: gameConnections) {
-					PrintWriter clientOutput = c.getOutputStream();
-					if (c.getUsername().equals(winner.getUsername())) {
-						clientOutput.println(CommunicationHandler.GAME_OVER + " Congratulations, you have won!");
-					} else {
-						clientOutput.println(CommunicationHandler.GAME_OVER + " " +  winner.getUsername() + " has won the game!");
-					}
-				}
-				
-				// update user statistics
-				for (Player p: g.getHumanPlayers()) {
-					User u = getUser(g, p.getUsername());
-					if (p.equals(winner)) {
-						u.finishedGame(true);
-					} else {
-						u.finishedGame(false);
-					}
-				}		
-			}
+	/**
+	 * Plays the roll of the human whose turn it is, as soon as it arrives.
+	 */
+	private void playHumanRoll(Seat seat, String in, long received) {
+		Game g = seat.game;
+		if (!isRunning(g) || seat.player != g.getWhoseTurn())
+			return;
+		String[] input = in.split(" ");
+		int tokenID = Integer.parseInt(input[1]);
+		System.out.println(CommunicationHandler.GAME_INFO + " Rolling Token ID: " + tokenID);
+		g.rollDie();
+		
+		String command = g.movePlayerToken(g.getWhoseTurn().getID(), tokenID);
+		if (command == null)
+			return;
+		broadcast(g, command);
+		rollLatency.record(System.nanoTime() - received);
+		if (!command.startsWith(CommunicationHandler.GAME_ROLL_AGAIN)) {
+			g.incrementTurn();
+			updateTurns(g);
 		}
+		scheduleTurn(g);
 	}
 	
-	public ArrayList<Connection> getConnections(Game g) {
-		return gameConns.get(g);
+	/**
+	 * Starts the search for the move of the AI whose turn it is. The search
+	 * gets at most the AI's think time and never more than the game's AI
+	 * delay, and the move is played once the delay has passed.
+	 * Must be called on the game's shard.
+	 */
+	private void startAiTurn(Game g) {
+		AI ai = (AI) g.getWhoseTurn();
+		long start = System.nanoTime();
+		long delay = g.getAiDelay();
+		long deadline = start + TimeUnit.MILLISECONDS.toNanos(Math.min(AI.THINK_TIME, delay));
+		int depthLimit = Expectimax.DEFAULT_MAX_DEPTH;
+		int replayDepth = g.getReplayDepth();
+		if (replayDepth >= 0) {
+			// search to the depth reached when the game was first played, however long it takes
+			deadline = Long.MAX_VALUE;
+			depthLimit = replayDepth;
+		}
+		aiExecutor.submit(ai, g.getBoard().getState(), deadline, depthLimit, g.getRandom().split(), (tokenID, depth) -> {
+			long wait = delay - TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+			GameShard shard = owners.get(g);
+			if (shard != null)
+				shard.schedule(() -> playAiTurn(g, ai, tokenID, depth), Math.max(0, wait));
+		});
 	}
 	
-	public void broadcast(Game g, String move) {
-		for (Connection clientConn : gameConns.get(g))
-			clientConn.getOutputStream().println(move);
+	/**
+	 * Plays the move found for an AI, if it is still its turn.
+	 */
+	private void playAiTurn(Game g, AI ai, int tokenID, int depth) {
+		if (!isRunning(g) || g.getWhoseTurn() != ai)
+			return;
+		g.recordAiMove(depth);
+		System.out.println("AI's MOVE: " + CommunicationHandler.GAME_ROLL + " " + tokenID);
+		g.rollDie();
+		String command = g.movePlayerToken(ai.getID(), tokenID);
+		broadcast(g, command);
+		if (!command.startsWith(CommunicationHandler.GAME_ROLL_AGAIN)) {
+			g.incrementTurn();
+			updateTurns(g);
+		}
+		scheduleTurn(g);
 	}
 	
 	/**
-	 * Sends a message to all client on whose move.
+	 * Decides what happens next after a move: the game ends, an AI move is
+	 * scheduled, or nothing happens until the human whose turn it is rolls.
+	 * Must be called on the game's shard.
 	 */
-	public void updateTurns(Game g) {
-		for (Connection clientConn : gameConns.get(g))
-			clientConn.getOutputStream().println(CommunicationHandler.GAME_TURN + " " + g.getWhoseTurn().getUsername());
+	private void scheduleTurn(Game g) {
+		if (g.isOver()) {
+			finishGame(g);
+			return;
+		}
+		if (g.getWhoseTurn() instanceof AI)
+			startAiTurn(g);
 	}
 	
 	/**
-	 * Filter the input and add it to the queue so process will handle it later.
-	 * @param c
-	 * @param input
+	 * Tells every player who won, updates their statistics and forgets the game.
+	 * Must be called on the game's shard.
 	 */
-	public void handleInput(Connection c, String input) {
-		// find game with this connection
-		Game g = null;
-		for (Game game : inputQueues.keySet()) {
-			if (gameConns.get(game).contains(c)) {
-				g = game;
-				break;
+	private void finishGame(Game g) {
+		
+		// if game is over
+		Player winner = g.getWinner();
+		
+		// grab the connections and message them, and update user statistics
+		List<Connection> gameConnections = getConnections(g);
+		
+		for (Connection c: gameConnections) {
+			Seat seat = getSeat(c, g);
+			boolean won = seat != null && seat.player == winner;
+			if (won) {
+				c.send(CommunicationHandler.GAME_OVER + " Congratulations, you have won!");
+			} else {
+				c.send(CommunicationHandler.GAME_OVER + " " +  winner.getUsername() + " has won the game!");
 			}
-		}
-		if (g != null) {
-			Player curr = g.getWhoseTurn();
-			
-			if (c.getUsername().equals(curr.getUsername())) {
-				inputQueues.get(g).add(input);
+			if (seat != null) {
+				c.getUser().finishedGame(won);
 			}
 		}
+		
+		// with the seed, enough to play the game again
+		System.out.println(CommunicationHandler.GAME_INFO + " Game over, seed " + g.getSeed() + ", AI depths: " + g.getAiDepthLog());
+		removeGame(g);
+		gamesFinished.increment();
 	}
 	
 	/**
-	 * Gets the user from the connection associated with the username 
-	 * @param username
-	 * @return Connection or null if no such connection
+	 * Forgets a game, must be called on the game's shard.
 	 */
-	private User getUser(Game g, String username) {
-		for (Connection c: gameConns.get(g)) {
-			if (c.getUsername().equals(username)) return c.getUser();
+	private void removeGame(Game g) {
+		games.remove(g);
+		List<Connection> conns = gameConns.remove(g);
+		if (conns != null) {
+			for (Connection c : conns) {
+				Seat seat = seats.get(c);
+				if (seat != null && seat.game == g)
+					seats.remove(c, seat);
+			}
 		}
-		return null;
+		GameShard shard = owners.remove(g);
+		if (shard != null)
+			shard.removeGame();
 	}
 	
-	// checks all if all human players have a connection, if it does, sets this.allPlayersConnected to true
-	private void checkPlayerConnections(Game g) {
-		ArrayList<Player> humanPlayers = g.getHumanPlayers();
-		for (Player p: humanPlayers) {
-			if (!hasConnection(g, p.getUsername())) return;
-		}
-		allPlayersConnected = true;
+	/**
+	 * Runs a task on the shard owning the game.
+	 */
+	private void post(Game g, Runnable task) {
+		GameShard shard = owners.get(g);
+		if (shard != null)
+			shard.execute(task);
+	}
+	
+	/**
+	 * @return the connection's seat in the game, or null if it does not play in it.
+	 */
+	private Seat getSeat(Connection c, Game g) {
+		Seat seat = seats.get(c);
+		return seat != null && seat.game == g ? seat : null;
+	}
+	
+	/**
+	 * @return true if the game has started and has not been destroyed or finished.
+	 */
+	private boolean isRunning(Game g) {
+		return g.isStarted() && gameConns.containsKey(g);
+	}
+	
+	/**
+	 * @return the time from a human's roll arriving to its result being broadcast.
+	 */
+	public CommandDispatcher.Stats getRollLatency() {
+		return rollLatency;
+	}
+	
+	/**
+	 * Sets the AI delay of games created from now on.
+	 * @param aiDelay is the delay in milliseconds.
+	 */
+	public void setAiDelay(int aiDelay) {
+		this.aiDelay = aiDelay;
+	}
+	
+	/**
+	 * @return the number of games that have been played to the end.
+	 */
+	public long getGamesFinished() {
+		return gamesFinished.sum();
+	}
+	
+	/**
+	 * @return the number of games currently running.
+	 */
+	public int getGameCount() {
+		return games.size();
+	}
+	
+	public GameShard[] getShards() {
+		return shards;
+	}
+	
+	public AIExecutor getAiExecutor() {
+		return aiExecutor;
+	}
+	
+	public GameRandom getGameRandom() {
+		return gameRandom;
+	}
+	
+	/**
+	 * Stops every shard once the work already posted has run.
+	 */
+	public void shutdown() {
+		aiExecutor.shutdown();
+		for (GameShard shard : shards)
+			shard.shutdown();
 	}
 	
-	// given a username, checks if connection object has been established.
-	private boolean hasConnection(Game g, String username) {
-		for (Connection c: gameConns.get(g)) {
-			if (c.getUsername().equals(username)) return true;
+	public List<Connection> getConnections(Game g) {
+		return gameConns.get(g);
+	}
+	
+	public void broadcast(Game g, String move) {
+		Broadcaster.broadcast(gameConns.get(g), move);
+	}
+	
+	/**
+	 * Sends a message to all client on whose move.
+	 */
+	public void updateTurns(Game g) {
+		Broadcaster.broadcast(gameConns.get(g), CommunicationHandler.GAME_TURN + " " + g.getWhoseTurn().getUsername());
+	}
+	
+	/**
+	 * Hands a roll to the shard of the connection's game, to be played
+	 * straight away if it is the connection's turn.
+	 * @param c
+	 * @param input
+	 */
+	public void handleInput(Connection c, String input) {
+		// find game with this connection
+		Seat seat = seats.get(c);
+		if (seat != null && input.startsWith(CommunicationHandler.GAME_ROLL)) {
+			long received = System.nanoTime();
+			post(seat.game, () -> playHumanRoll(seat, input, received));
 		}
-		return false;
 	}
 	
 }
\ No newline at end of file
@@ -0,0 +1,74 @@
+package troublegame.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands out the seeds games draw their random numbers from. Each game gets
+ * a SplittableRandom of its own, seeded from the server's base seed and the
+ * game's number, and draws its colours, AI names and dice from it on its
+ * shard alone. The only shared state is the count of games handed out.
+ *
+ * Recreating a game's generator from its seed and playing the same moves
+ * plays the game again exactly.
+ */
+public class GameRandom {
+
+	private static final long GOLDEN_GAMMA = 0x9E3779B97F4A7C15L;
+
+	private final long baseSeed;
+	private final AtomicLong games;
+
+	/**
+	 * Constructs a service with a base seed of its own.
+	 */
+	public GameRandom() {
+		this(new SplittableRandom().nextLong());
+	}
+
+	/**
+	 * @param baseSeed decides the seed of every game, the same base seed handing out the same seeds.
+	 */
+	public GameRandom(long baseSeed) {
+		this.baseSeed = baseSeed;
+		this.games = new AtomicLong();
+	}
+
+	/**
+	 * @return the seed of the next game.
+	 */
+	public long nextSeed() {
+		return seedOf(baseSeed, games.getAndIncrement());
+	}
+
+	public long getBaseSeed() {
+		return baseSeed;
+	}
+
+	/**
+	 * @return the number of seeds handed out.
+	 */
+	public long getGames() {
+		return games.get();
+	}
+
+	/**
+	 * @return the generator of the game with the seed.
+	 */
+	public static SplittableRandom forSeed(long seed) {
+		return new SplittableRandom(seed);
+	}
+
+	/**
+	 * Works out the seed of game number game of a base seed. The number is
+	 * scrambled so that neighbouring games get unrelated generators rather
+	 * than shifted copies of one sequence.
+	 */
+	public static long seedOf(long baseSeed, long game) {
+		long z = baseSeed + game * GOLDEN_GAMMA;
+		z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+		z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+		return z ^ (z >>> 31);
+	}
+
+}
@@ -1,6 +1,5 @@
 package troublegame.server;
 
-import java.io.PrintWriter;
 import java.util.ArrayList;
 
 import troublegame.communication.CommunicationHandler;
@@ -16,6 +15,7 @@ public class GameRoom {
 	private ArrayList<Connection> members;
 	private String name;
 	private Connection owner;
+	private AILevel aiLevel;
 	
 	/**
 	 * Create a new room with the creating Connection as the owner, the only member the creating member and the default name
@@ -24,6 +24,7 @@ public class GameRoom {
 	 */
 	public GameRoom(Connection owner) {
 		members = new ArrayList<>();
+		aiLevel = AILevel.DEFAULT;
 		setOwner(owner);
 		setDefaultName();
 	}
@@ -52,10 +53,9 @@ public class GameRoom {
 	public void addConnection(Connection u) {
 		if(isRoomFull() || members.contains(u)) return;
 		members.add(u);
+		Broadcaster.broadcast(members, CommunicationHandler.GAME_ROOM_JOIN + " " + u.getUsername());
 		for (Connection member : members)
-			member.getOutputStream().println(CommunicationHandler.GAME_ROOM_JOIN + " " + u.getUsername());
-		for (Connection member : members)
-			if (!member.getUser().getUsername().equals(u.getUser().getUsername())) u.getOutputStream().println(CommunicationHandler.GAME_ROOM_MEMBER + " " + member.getUsername());
+			if (!member.getUser().getUsername().equals(u.getUser().getUsername())) u.send(CommunicationHandler.GAME_ROOM_MEMBER + " " + member.getUsername());
 	}
 	
 	/**
@@ -150,11 +150,23 @@ public class GameRoom {
 	 * 
 	 */
 	public void doChat(Connection sender, String message) {
-		for (Connection member: members) {
-			PrintWriter outputStream = member.getOutputStream();
-			String s = String.format(CommunicationHandler.GAME_ROOM_CHAT + "%s: %s", sender.getUsername(), message);
-			outputStream.println(s);
-		}
+		String s = String.format(CommunicationHandler.GAME_ROOM_CHAT + "%s: %s", sender.getUsername(), message);
+		Broadcaster.broadcast(members, s);
+	}
+	
+	/**
+	 * @return The level of the AI players filling the empty seats of the game
+	 */
+	public AILevel getAiLevel() {
+		return aiLevel;
+	}
+	
+	/**
+	 * Sets the level of the AI players filling the empty seats of the game
+	 * @param aiLevel The level
+	 */
+	public void setAiLevel(AILevel aiLevel) {
+		this.aiLevel = aiLevel;
 	}
 	
 	/**
@@ -8,6 +8,7 @@ import java.util.Timer;
 import java.util.TimerTask;
 
 import troublegame.communication.CommunicationHandler;
+import troublegame.server.io.UserManager;
 
 /**
  * 
@@ -16,7 +17,15 @@ import troublegame.communication.CommunicationHandler;
  */
 public class GameServer {
 	
-	private static final int TIME_PERIOD = 1000;
+	/**
+	 * How often the broadcast, roll latency, login and user store counters are logged in milliseconds.
+	 */
+	private static final int STATS_PERIOD = 60 * 1000;
+	
+	/**
+	 * The number of selector threads used by the nio transport unless configured.
+	 */
+	private static final int DEFAULT_IO_THREADS = Math.min(4, Runtime.getRuntime().availableProcessors());
 	
 	/**
 	 * The main function.
@@ -59,15 +68,29 @@ public class GameServer {
 		/**
 		 * Initializes the game engine.
 		 */
-		this.gameEngine = new GameEngine();
+		int shards = Integer.parseInt(getServerOption("game_shards", String.valueOf(Runtime.getRuntime().availableProcessors())));
+		String seed = getServerOption("random_seed", null);
+		GameRandom gameRandom = seed == null ? new GameRandom() : new GameRandom(Long.parseLong(seed));
+		System.out.println(CommunicationHandler.GAME_SERVER_INFO + " Game seeds drawn from base seed " + gameRandom.getBaseSeed());
+		int aiThreads = Integer.parseInt(getServerOption("ai_threads", String.valueOf(AIExecutor.DEFAULT_THREADS)));
+		this.gameEngine = new GameEngine(shards, aiThreads, gameRandom);
 		
 		this.lobby = new Lobby(this);
 		
+		/**
+		 * Opens the user store and builds the friend graph so the first login does not have to.
+		 */
+		System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + UserManager.getStore().getStats());
+		System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + UserManager.getFriendGraph().getStats());
+		
 		/**
 		 * Initializes the socket listener and login handler.
 		 */
-		this.socketListener = new SocketListener(getServerInfo().split(":"));
-		this.loginHandler = new LoginHandler(this);
+		String transport = getServerOption("transport", SocketListener.TRANSPORT_THREAD);
+		int ioThreads = Integer.parseInt(getServerOption("io_threads", String.valueOf(DEFAULT_IO_THREADS)));
+		this.socketListener = new SocketListener(getServerInfo().split(":"), transport, ioThreads);
+		int loginThreads = Integer.parseInt(getServerOption("login_threads", String.valueOf(LoginHandler.DEFAULT_WORKERS)));
+		this.loginHandler = new LoginHandler(this, loginThreads);
 		this.lobby = new Lobby(this);
 		this.socketListener.setLoginHandler(loginHandler);
 		this.socketListener.setLobby(lobby);
@@ -95,6 +118,30 @@ public class GameServer {
 		return line;
 	}
 	
+	/**
+	 * Looks up an optional setting in server.txt. Settings follow the server
+	 * info on their own lines in the format <key:value>.
+	 * @param key is the name of the setting.
+	 * @param defaultValue is returned if the setting is not present.
+	 * @return the configured value or the default value.
+	 */
+	private String getServerOption(String key, String defaultValue) {
+		String value = defaultValue;
+		try {
+			BufferedReader bufferedReader = new BufferedReader(new FileReader("./server.txt"));
+			String line = bufferedReader.readLine();
+			while ((line = bufferedReader.readLine()) != null) {
+				String[] option = line.trim().split(":", 2);
+				if (option.length == 2 && option[0].equals(key))
+					value = option[1].trim();
+			}
+			bufferedReader.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		return value;
+	}
+	
 	public void login(Connection user) {
 		lobby.addUser(user);
 	}
@@ -126,13 +173,25 @@ public class GameServer {
 	}
 	
 	private void startProcessing() {
-		new Timer().schedule(new TimerTask() {
+		new Timer(true).schedule(new TimerTask() {
+			
+			private long lastBroadcasts;
+			private long lastLogins;
 			
 			@Override
 			public void run() {
-				gameEngine.process();
-				loginHandler.process();
+				long logins = loginHandler.getLoginLatency().getInvocations() + loginHandler.getRejected();
+				if (Broadcaster.getBroadcasts() == lastBroadcasts && logins == lastLogins)
+					return;
+				lastBroadcasts = Broadcaster.getBroadcasts();
+				lastLogins = logins;
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + Broadcaster.getStats());
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " Roll to broadcast latency: " + gameEngine.getRollLatency());
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + gameEngine.getAiExecutor().getStats());
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + loginHandler.getStats());
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + UserManager.getCache().getStats());
+				System.out.println(CommunicationHandler.GAME_SERVER_INFO + " " + UserManager.getStore().getStats());
 			}
-		}, 0, TIME_PERIOD);
+		}, STATS_PERIOD, STATS_PERIOD);
 	}
 }
@@ -0,0 +1,109 @@
+package troublegame.server;
+
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import troublegame.communication.CommunicationHandler;
+
+/**
+ * A partition of the running games owned by a single thread. Everything that
+ * reads or changes one of the shard's games is posted to the shard's mailbox
+ * and runs on that thread, so a game and its board never need locking.
+ */
+public class GameShard {
+
+	private int id;
+	private ScheduledThreadPoolExecutor mailbox;
+	private AtomicInteger games;
+	private LongAdder events;
+
+	/**
+	 * Constructs a shard and starts its thread.
+	 * @param id is the index of the shard.
+	 */
+	public GameShard(int id) {
+		this.id = id;
+		this.mailbox = new ScheduledThreadPoolExecutor(1, r -> new Thread(r, "game-shard-" + id));
+		this.mailbox.setExecuteExistingDelayedTasksAfterShutdownPolicy(false);
+		this.games = new AtomicInteger();
+		this.events = new LongAdder();
+	}
+
+	/**
+	 * Runs a task on the shard's thread as soon as possible.
+	 * @param task is the task.
+	 */
+	public void execute(Runnable task) {
+		mailbox.execute(() -> run(task));
+	}
+
+	/**
+	 * Runs a task on the shard's thread after a delay.
+	 * @param task is the task.
+	 * @param delay is the delay in milliseconds.
+	 */
+	public void schedule(Runnable task, long delay) {
+		mailbox.schedule(() -> run(task), delay, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Runs a task, logging rather than losing anything it throws.
+	 */
+	private void run(Runnable task) {
+		events.increment();
+		try {
+			task.run();
+		} catch (RuntimeException e) {
+			System.out.println(CommunicationHandler.GAME_ENGINE_INFO + " Error on game shard " + id + ": " + e);
+			e.printStackTrace();
+		}
+	}
+
+	/**
+	 * Records that a game was given to this shard.
+	 */
+	public void addGame() {
+		games.incrementAndGet();
+	}
+
+	/**
+	 * Records that one of the shard's games has ended.
+	 */
+	public void removeGame() {
+		games.decrementAndGet();
+	}
+
+	/**
+	 * @return the number of games owned by the shard.
+	 */
+	public int getGameCount() {
+		return games.get();
+	}
+
+	/**
+	 * @return the number of tasks the shard has run.
+	 */
+	public long getEvents() {
+		return events.sum();
+	}
+
+	public int getId() {
+		return id;
+	}
+
+	/**
+	 * Stops the shard once the tasks already posted have run. Delayed tasks,
+	 * e.g. AI turns, are dropped.
+	 */
+	public void shutdown() {
+		mailbox.shutdown();
+		try {
+			mailbox.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
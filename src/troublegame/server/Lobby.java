@@ -1,23 +1,24 @@
 package troublegame.server;
 
-import java.io.PrintWriter;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import troublegame.communication.CommunicationHandler;
 
 public class Lobby {
 
-	private ArrayList<Connection> users;
+	private CopyOnWriteArrayList<Connection> users;
 	private ArrayList<GameRoom> gameRooms;
 	private GameServer gameServer;
 	
 	public Lobby(GameServer gameServer) {
 		this.gameServer = gameServer;
-		users = new ArrayList<Connection>();
+		users = new CopyOnWriteArrayList<Connection>();
 		gameRooms = new ArrayList<GameRoom>();
 	}
 	
-	public ArrayList<Connection> getUsers() {
+	public List<Connection> getUsers() {
 		return users;
 	}
 	
@@ -26,9 +27,7 @@ public class Lobby {
 	}
 	
 	public void addUser(Connection user) {
-		if (users.contains(user))
-			return;
-		users.add(user);
+		users.addIfAbsent(user);
 	}
 	
 	public void removeUser(Connection user) {
@@ -41,15 +40,11 @@ public class Lobby {
 			onlineList += " " + conn.getUsername();
 		}
 		
-		for (Connection conn: users) {
-			conn.getOutputStream().println(CommunicationHandler.LOBBY_ONLINE_LIST + onlineList);
-		}
+		Broadcaster.broadcast(users, CommunicationHandler.LOBBY_ONLINE_LIST + onlineList);
 	}
 	
 	public void broadcastActivity(String activity) {		
-		for (Connection conn: users) {
-			conn.getOutputStream().println(CommunicationHandler.LOBBY_ACTIVITY_FEED + activity);
-		}
+		Broadcaster.broadcast(users, CommunicationHandler.LOBBY_ACTIVITY_FEED + activity);
 	}
 	
 	public void showGamerooms(Connection user) {
@@ -57,19 +52,17 @@ public class Lobby {
 		for (GameRoom gameRoom : gameRooms) {
 			gamerooms += "@"+gameRoom.getName();
 		}
-		user.getOutputStream().println(CommunicationHandler.GAME_ROOM_QUERY + gamerooms);
+		user.send(CommunicationHandler.GAME_ROOM_QUERY + gamerooms);
 	}
 	
 	public void createGameRoom(Connection owner) {
 		GameRoom gameRoom = new GameRoom(owner);
 		gameRooms.add(gameRoom);
-		for (Connection user : users)
-			if (!user.equals(owner)) {
-				user.getOutputStream().println(CommunicationHandler.GAME_ROOM_OPEN + " " + gameRoom.getName());
-			} else {
-				user.getOutputStream().println(CommunicationHandler.GAME_ROOM_NEW + " " + gameRoom.getName());
-				gameRoom.addConnection(user);
-			}
+		Broadcaster.broadcast(users, owner, CommunicationHandler.GAME_ROOM_OPEN + " " + gameRoom.getName());
+		if (users.contains(owner)) {
+			owner.send(CommunicationHandler.GAME_ROOM_NEW + " " + gameRoom.getName());
+			gameRoom.addConnection(owner);
+		}
 		users.remove(owner);
 	}
 	
@@ -82,7 +75,7 @@ public class Lobby {
 			}
 		}
 		if (game != null) {
-			user.getOutputStream().println(CommunicationHandler.GAME_ROOM_JOIN + " " + gameName);
+			user.send(CommunicationHandler.GAME_ROOM_JOIN + " " + gameName);
 			game.addConnection(user);
 			users.remove(user);
 		}
@@ -98,25 +91,37 @@ public class Lobby {
 			}
 		}
 		if (game != null) {
-			user.getOutputStream().println(CommunicationHandler.GAME_ROOM_LEAVE);
-			for (Connection member : game.getMembers())
-				if (member != user)
-					member.getOutputStream().println(CommunicationHandler.GAME_ROOM_LEAVE + " " + user.getUsername());
+			user.send(CommunicationHandler.GAME_ROOM_LEAVE);
+			Broadcaster.broadcast(game.getMembers(), user, CommunicationHandler.GAME_ROOM_LEAVE + " " + user.getUsername());
 			addUser(user);
 			game.removeConnection(user);
 			if (game.getMembers().size() == 0) {
 				this.gameRooms.remove(game);
-				for (Connection u : users)
-					u.getOutputStream().println(CommunicationHandler.GAME_ROOM_CLOSE + " " + game.getName());
+				Broadcaster.broadcast(users, CommunicationHandler.GAME_ROOM_CLOSE + " " + game.getName());
 			}
 		}
 	}
 	
 	public void handleGameRoomQuery(Connection user) {
 		GameRoom gameroom = gameServer.getGameRoomName(user);
-		PrintWriter outputStream = user.getOutputStream();
 		if (gameroom != null) {
-			outputStream.println(CommunicationHandler.GAME_ROOM_INFO + " " + gameroom.getName());
+			user.send(CommunicationHandler.GAME_ROOM_INFO + " " + gameroom.getName());
+		}
+	}
+	
+	/**
+	 * Sets the AI level of the user's game room if the user owns it and the level is known,
+	 * telling every member. Otherwise, or without a level, tells the user the room's level.
+	 */
+	public void handleGameRoomAiLevel(Connection user, String level) {
+		GameRoom gameroom = gameServer.getGameRoomName(user);
+		if (gameroom == null) return;
+		AILevel aiLevel = level.isEmpty() ? null : AILevel.parse(level);
+		if (aiLevel != null && gameroom.isOwner(user)) {
+			gameroom.setAiLevel(aiLevel);
+			Broadcaster.broadcast(gameroom.getMembers(), CommunicationHandler.GAME_ROOM_AI_LEVEL + " " + aiLevel);
+		} else {
+			user.send(CommunicationHandler.GAME_ROOM_AI_LEVEL + " " + gameroom.getAiLevel());
 		}
 	}
 	
@@ -126,11 +131,8 @@ public class Lobby {
 	}
 	
 	public void handleLobbyChat(Connection conn, String message) {
-		for (Connection user: users) {
-			PrintWriter outputStream = user.getOutputStream();
-			String s = String.format(CommunicationHandler.LOBBY_CHAT + " %s: %s", conn.getUsername(), message);
-			outputStream.println(s);
-		}		
+		String s = String.format(CommunicationHandler.LOBBY_CHAT + " %s: %s", conn.getUsername(), message);
+		Broadcaster.broadcast(users, s);
 	}
 	
 	public GameRoom getGameRoomByName(String gameRoomName) {
@@ -144,4 +146,4 @@ public class Lobby {
 		return gr;
 	}
 	
-}
\ No newline at end of file
+}
\ No newline at end of file
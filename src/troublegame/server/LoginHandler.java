@@ -1,46 +1,111 @@
 package troublegame.server;
 
-import java.util.LinkedList;
-import java.util.Queue;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
 
+import troublegame.communication.CommandDispatcher;
 import troublegame.communication.CommunicationHandler;
+import troublegame.server.io.UserManager;
 
 /**
  * 
  * A connection that has been entered in the server will be handled
  * in this class.
  * 
+ * Logins are queued in a bounded queue and completed by a small pool of
+ * worker threads as soon as they arrive. Every logged in connection is kept
+ * in a session index keyed by email, so a second login with the same email
+ * is detected without looking at any other connection.
+ * 
  * @author Jeffrey Ung
  * 
  */
 public class LoginHandler {
 
 	/**
-	 * The login queue.
+	 * The default number of login workers.
+	 */
+	public static final int DEFAULT_WORKERS = Math.min(4, Runtime.getRuntime().availableProcessors());
+
+	/**
+	 * The most logins waiting for a worker before new ones are turned away.
+	 */
+	public static final int MAX_QUEUED_LOGINS = 1024;
+
+	/**
+	 * The login workers and their queue.
+	 */
+	private ThreadPoolExecutor workers;
+
+	/**
+	 * The logged in connections.
 	 */
-	private Queue<Connection> loginQueue;
-	
+	private SessionRegistry sessions;
+
+	/**
+	 * The time from a login being queued until it is answered.
+	 */
+	private CommandDispatcher.Stats loginLatency;
+
+	private LongAccumulator maxQueueDepth;
+	private LongAdder rejected;
+
 	/**
 	 * The game server.
 	 */
 	private GameServer gameServer;
-	
+
 	/**
-	 * Constructs a new login handler.
+	 * Constructs a new login handler with the default number of workers.
 	 */
 	public LoginHandler(GameServer gameServer) {
+		this(gameServer, DEFAULT_WORKERS);
+	}
+
+	/**
+	 * Constructs a new login handler.
+	 * @param gameServer is the game server.
+	 * @param workerCount is the number of threads completing logins.
+	 */
+	public LoginHandler(GameServer gameServer, int workerCount) {
 		this.gameServer = gameServer;
-		this.loginQueue = new LinkedList<Connection>();
+		AtomicInteger ids = new AtomicInteger();
+		this.workers = new ThreadPoolExecutor(workerCount, workerCount, 0, TimeUnit.MILLISECONDS,
+				new ArrayBlockingQueue<Runnable>(MAX_QUEUED_LOGINS), r -> {
+					Thread t = new Thread(r, "login-" + ids.getAndIncrement());
+					t.setDaemon(true);
+					return t;
+				});
+		this.sessions = new SessionRegistry();
+		this.loginLatency = new CommandDispatcher.Stats();
+		this.maxQueueDepth = new LongAccumulator(Math::max, 0);
+		this.rejected = new LongAdder();
 	}
-	
+
 	/**
-	 * Adds a connection to the login queue.
+	 * Adds a connection to the login queue. If the queue is full the login
+	 * is refused straight away.
 	 * @param connection being added to the queue.
 	 */
 	public void addConnectionToQueue(Connection connection) {
-		loginQueue.add(connection);
+		long queued = System.nanoTime();
+		try {
+			workers.execute(() -> {
+				login(connection);
+				loginLatency.record(System.nanoTime() - queued);
+			});
+			maxQueueDepth.accumulate(workers.getQueue().size());
+		} catch (RejectedExecutionException e) {
+			rejected.increment();
+			connection.send(CommunicationHandler.LOGIN_ERROR + " The server is busy, please try again later!");
+		}
 	}
-	
+
 	/**
 	 * @param player is the user connecting the server.
 	 * @return true if the player is not already logged in.
@@ -50,24 +115,107 @@ public class LoginHandler {
 			System.out.println("An error has occured in login handler.");
 			return;
 		}
-		for (Connection other : gameServer.getSocketListener().getConnections()) {
-			if (other.getUser() != null && connection != other && connection.getUser().getEmail().equals(other.getUser().getEmail())) {
-				connection.getOutputStream().println(CommunicationHandler.LOGIN_ERROR + " The user you have entered is already connected!");
-				return;
-			}
+		if (sessions.register(connection) != null) {
+			connection.send(CommunicationHandler.LOGIN_ERROR + " The user you have entered is already connected!");
+			return;
+		}
+		if (!connection.isGuest()) {
+			// the connection holds on to its user, so the cache must keep handing out that copy
+			UserManager.getCache().pin(connection.getUser());
+			UserManager.getFriendGraph().setOnline(connection.getUser().getId(), true);
+		}
+		if (connection.isClosed()) {
+			// the client left while the login was queued
+			logout(connection);
+			return;
 		}
 		this.gameServer.login(connection);
-		connection.getOutputStream().println(CommunicationHandler.LOGIN_SUCCESS + " " + connection.getUsername());
+		connection.send(CommunicationHandler.LOGIN_SUCCESS + " " + connection.getUsername());
 	}
-	
+
 	/**
-	 * The process method runs in an infinite loop until
-	 * the server stops.
+	 * Ends the connection's session, if it has one, so its email can log in again.
+	 * Must be called after the connection is closed, a login still in the queue
+	 * then sees the closed connection and drops its own session.
+	 * @param connection is the connection leaving the server.
 	 */
-	public void process() {
-		if (loginQueue.isEmpty())
-			return;
-		login(loginQueue.poll());
+	public void logout(Connection connection) {
+		if (sessions.remove(connection)) {
+			if (!connection.isGuest()) {
+				UserManager.getFriendGraph().setOnline(connection.getUser().getId(), false);
+				UserManager.getCache().unpin(connection.getUser());
+			}
+		}
+	}
+
+	/**
+	 * @param email is the email of a user.
+	 * @return the connection logged in with the email, or null.
+	 */
+	public Connection getSession(String email) {
+		return sessions.getByEmail(email);
+	}
+
+	/**
+	 * @return the logged in connections.
+	 */
+	public SessionRegistry getSessions() {
+		return sessions;
+	}
+
+	/**
+	 * @return the number of logged in connections.
+	 */
+	public int getSessionCount() {
+		return sessions.size();
+	}
+
+	/**
+	 * @return the number of logins waiting for a worker.
+	 */
+	public int getQueueDepth() {
+		return workers.getQueue().size();
+	}
+
+	/**
+	 * @return the most logins that have been waiting for a worker at once.
+	 */
+	public long getMaxQueueDepth() {
+		return maxQueueDepth.get();
 	}
-	
+
+	/**
+	 * @return the number of logins refused because the queue was full.
+	 */
+	public long getRejected() {
+		return rejected.sum();
+	}
+
+	/**
+	 * @return the time taken from a login being queued until it is answered.
+	 */
+	public CommandDispatcher.Stats getLoginLatency() {
+		return loginLatency;
+	}
+
+	/**
+	 * @return a one line summary of the counters.
+	 */
+	public String getStats() {
+		return "Logins " + loginLatency + ", " + getSessionCount() + " sessions, queue depth "
+				+ getQueueDepth() + " (max " + getMaxQueueDepth() + "), " + getRejected() + " refused";
+	}
+
+	/**
+	 * Stops the workers once the logins already queued have been answered.
+	 */
+	public void shutdown() {
+		workers.shutdown();
+		try {
+			workers.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
 }
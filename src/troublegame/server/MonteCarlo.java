@@ -0,0 +1,216 @@
+package troublegame.server;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Chooses a token for a player by playing the game on at random. For each
+ * token worth moving it plays a number of short games, starting with that
+ * token and a random die, every player after that moving its first token
+ * worth moving with random dice, and it picks the token whose games ended
+ * best for the player on average.
+ *
+ * A game ends after PLAYOUT_TURNS turns, or sooner if someone wins, and is
+ * scored by how far ahead of the best placed of the others the player's
+ * tokens are. Every token's games use the same dice, so the tokens are
+ * compared on the same luck.
+ *
+ * The games are split into batches run on a shared ForkJoinPool. Each batch
+ * draws from its own generator split off the caller's and plays on a board
+ * kept by its worker thread, so a game never allocates.
+ */
+public class MonteCarlo {
+
+	/**
+	 * The number of turns each game is played on for.
+	 */
+	public static final int PLAYOUT_TURNS = 40;
+
+	/**
+	 * The score of a game the player wins, the negative if another colour wins.
+	 */
+	public static final int WIN = 200;
+
+	/**
+	 * The most games one task plays before it splits.
+	 */
+	private static final int BATCH = 32;
+
+	private static final ThreadLocal<BoardState> BOARDS = ThreadLocal.withInitial(BoardState::new);
+
+	private final ForkJoinPool pool;
+
+	/**
+	 * @param pool runs the games.
+	 */
+	public MonteCarlo(ForkJoinPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Plays on from each of a colour's choices and picks the best.
+	 * @param position is the board, which must not change while the games run.
+	 * @param colour is the colour to move, as numbered by BoardState.
+	 * @param playouts is the number of games played for each token.
+	 * @param random supplies the dice.
+	 * @return the id of the token to move.
+	 */
+	public int chooseToken(BoardState position, int colour, int playouts, SplittableRandom random) {
+		Playouts[] tasks = new Playouts[Player.NUM_TOKENS];
+		long seed = random.nextLong();
+		int best = BoardState.NONE;
+		int choices = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int token = BoardState.token(colour, id);
+			if (!Rules.isChoice(position, token))
+				continue;
+			if (best == BoardState.NONE)
+				best = id;
+			tasks[id] = new Playouts(position, token, playouts, new SplittableRandom(seed));
+			choices++;
+		}
+		if (best == BoardState.NONE)
+			return 0;
+		if (choices == 1)
+			return best;
+
+		pool.invoke(new Choices(tasks));
+		long bestTotal = Long.MIN_VALUE;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			if (tasks[id] != null && tasks[id].getRawResult() > bestTotal) {
+				bestTotal = tasks[id].getRawResult();
+				best = id;
+			}
+		}
+		return best;
+	}
+
+	/**
+	 * Plays a game on from a position.
+	 * @param state is the board, which is played on.
+	 * @param token is the token moved first.
+	 * @param random supplies the dice.
+	 * @return the score of the game for the token's colour.
+	 */
+	public static int playout(BoardState state, int token, SplittableRandom random) {
+		int player = BoardState.colourOfToken(token);
+		int colour = player;
+		for (int turn = 0; turn < PLAYOUT_TURNS; turn++) {
+			int move = Rules.apply(state, Rules.evaluate(state, token, random.nextInt(6) + 1));
+			if (state.isEndZoneFull(colour))
+				return colour == player ? WIN : -WIN;
+			if (!Rules.rollsAgain(move))
+				colour = (colour + 1) % BoardState.NUM_COLOURS;
+			token = firstChoice(state, colour);
+		}
+		int others = Integer.MIN_VALUE;
+		for (int c = 0; c < BoardState.NUM_COLOURS; c++) {
+			if (c != player)
+				others = Math.max(others, progress(state, c));
+		}
+		return progress(state, player) - others;
+	}
+
+	/**
+	 * @return the first token of the colour worth moving.
+	 */
+	private static int firstChoice(BoardState state, int colour) {
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int token = BoardState.token(colour, id);
+			if (Rules.isChoice(state, token))
+				return token;
+		}
+		return BoardState.token(colour, 0);
+	}
+
+	/**
+	 * @return the number of slots the colour's tokens have travelled, a token in
+	 * the end zone counting for a little more than one that went all the way around.
+	 */
+	private static int progress(BoardState state, int colour) {
+		int progress = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int token = BoardState.token(colour, id);
+			switch (state.getZone(token)) {
+				case Board.SLOT_MAIN:
+					progress += 1 + Math.floorMod(state.getIndex(token) - Rules.getStart(colour), Board.NUM_MAIN_SLOTS);
+					break;
+				case Board.SLOT_END:
+					progress += Board.NUM_MAIN_SLOTS + 2 + state.getIndex(token);
+					break;
+				default:
+					break;
+			}
+		}
+		return progress;
+	}
+
+	/**
+	 * Runs the games of every choice at once.
+	 */
+	private static class Choices extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final Playouts[] tasks;
+
+		Choices(Playouts[] tasks) {
+			this.tasks = tasks;
+		}
+
+		@Override
+		protected Long compute() {
+			for (Playouts task : tasks) {
+				if (task != null)
+					task.fork();
+			}
+			long total = 0;
+			for (Playouts task : tasks) {
+				if (task != null)
+					total += task.join();
+			}
+			return total;
+		}
+
+	}
+
+	/**
+	 * Plays games on after moving a token and adds up their scores.
+	 */
+	private static class Playouts extends RecursiveTask<Long> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final BoardState position;
+		private final int token;
+		private final int count;
+		private final SplittableRandom random;
+
+		Playouts(BoardState position, int token, int count, SplittableRandom random) {
+			this.position = position;
+			this.token = token;
+			this.count = count;
+			this.random = random;
+		}
+
+		@Override
+		protected Long compute() {
+			if (count <= BATCH) {
+				BoardState state = BOARDS.get();
+				long total = 0;
+				for (int i = 0; i < count; i++) {
+					state.copyFrom(position);
+					total += playout(state, token, random);
+				}
+				return total;
+			}
+			Playouts right = new Playouts(position, token, count / 2, random.split());
+			right.fork();
+			long left = new Playouts(position, token, count - count / 2, random).compute();
+			return left + right.join();
+		}
+
+	}
+
+}
@@ -0,0 +1,345 @@
+package troublegame.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedSelectorException;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.Charset;
+import java.util.Iterator;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import troublegame.communication.BinaryCodec;
+import troublegame.communication.CommunicationHandler;
+
+/**
+ * Selector based transport for the socket listener. One acceptor thread hands
+ * new channels to a small fixed pool of I/O threads, each of which multiplexes
+ * its clients over a single selector. Complete lines are passed to the socket
+ * listener so the protocol is the same as with one thread per socket, and
+ * clients that negotiated the binary protocol have their frames decoded back
+ * into lines.
+ */
+public class NioListener {
+
+	/**
+	 * The size of the read buffer owned by each I/O thread.
+	 */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/**
+	 * The socket listener lines are handed to.
+	 */
+	private SocketListener listener;
+
+	/**
+	 * The channel accepting new clients.
+	 */
+	private ServerSocketChannel serverChannel;
+
+	/**
+	 * The I/O threads clients are spread over.
+	 */
+	private IoThread[] ioThreads;
+
+	/**
+	 * The I/O thread the next accepted client is given to.
+	 */
+	private int nextThread;
+
+	/**
+	 * Constructs a new nio listener bound to the given port.
+	 * @param listener is the socket listener handling the input.
+	 * @param port is the port to listen on.
+	 * @param threads is the number of I/O threads.
+	 * @throws IOException if the port could not be bound.
+	 */
+	public NioListener(SocketListener listener, int port, int threads) throws IOException {
+		this.listener = listener;
+		this.serverChannel = ServerSocketChannel.open();
+		this.serverChannel.bind(new InetSocketAddress(port));
+		this.ioThreads = new IoThread[Math.max(1, threads)];
+		for (int i = 0; i < ioThreads.length; i++)
+			ioThreads[i] = new IoThread(i);
+	}
+
+	/**
+	 * Starts the I/O threads and the acceptor.
+	 */
+	public void start() {
+		for (IoThread ioThread : ioThreads)
+			ioThread.start();
+		Thread acceptor = new Thread(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					while (listener.isListening()) {
+						SocketChannel channel = serverChannel.accept();
+						System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " A user has connected from " + channel.socket().getInetAddress());
+						ioThreads[nextThread].register(channel);
+						nextThread = (nextThread + 1) % ioThreads.length;
+					}
+				} catch (IOException e) {
+					e.printStackTrace();
+				} finally {
+					stop();
+				}
+			}
+		}, "nio-acceptor");
+		acceptor.start();
+	}
+
+	/**
+	 * Closes the server channel and every selector.
+	 */
+	public void stop() {
+		try {
+			serverChannel.close();
+		} catch (IOException e) {
+			e.printStackTrace();
+		}
+		for (IoThread ioThread : ioThreads)
+			ioThread.close();
+	}
+
+	/**
+	 * State kept for every channel registered with an I/O thread. It is also
+	 * the drainer of the connection's outbound queue, asking the owning I/O
+	 * thread to write whenever the queue fills, so callers never touch the
+	 * channel themselves.
+	 */
+	private static class ChannelState implements OutboundQueue.Drainer {
+
+		private SocketChannel channel;
+		private IoThread owner;
+		private SelectionKey key;
+		private Connection conn;
+		private ByteArrayOutputStream line;
+		private int frameLength;
+
+		private ChannelState(SocketChannel channel, IoThread owner) {
+			this.channel = channel;
+			this.owner = owner;
+			this.line = new ByteArrayOutputStream();
+			this.frameLength = -1;
+		}
+
+		@Override
+		public void schedule(OutboundQueue queue) {
+			owner.requestWrite(key);
+		}
+
+		@Override
+		public void overflow(OutboundQueue queue) {
+			owner.requestWrite(key);
+		}
+
+	}
+
+	/**
+	 * A thread multiplexing many client channels over one selector.
+	 */
+	private class IoThread implements Runnable {
+
+		private Selector selector;
+		private Thread thread;
+		private Queue<SocketChannel> registrations;
+		private Queue<SelectionKey> writeRequests;
+		private ByteBuffer readBuffer;
+
+		private IoThread(int id) throws IOException {
+			this.selector = Selector.open();
+			this.thread = new Thread(this, "nio-io-" + id);
+			this.registrations = new ConcurrentLinkedQueue<SocketChannel>();
+			this.writeRequests = new ConcurrentLinkedQueue<SelectionKey>();
+			this.readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		}
+
+		private void start() {
+			thread.start();
+		}
+
+		private void close() {
+			try {
+				for (SelectionKey key : selector.keys())
+					key.channel().close();
+				selector.close();
+			} catch (IOException | ClosedSelectorException e) {
+				// already closed
+			}
+		}
+
+		/**
+		 * Hands a newly accepted channel to this thread.
+		 */
+		private void register(SocketChannel channel) {
+			registrations.add(channel);
+			selector.wakeup();
+		}
+
+		/**
+		 * Asks this thread to start writing the queued output of a channel.
+		 */
+		private void requestWrite(SelectionKey key) {
+			writeRequests.add(key);
+			if (Thread.currentThread() != thread)
+				selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			try {
+				while (selector.isOpen()) {
+					processRegistrations();
+					processWriteRequests();
+					selector.select();
+					Iterator<SelectionKey> it = selector.selectedKeys().iterator();
+					while (it.hasNext()) {
+						SelectionKey key = it.next();
+						it.remove();
+						ChannelState state = (ChannelState) key.attachment();
+						try {
+							if (key.isValid() && key.isReadable())
+								read(key, state);
+							if (key.isValid() && key.isWritable())
+								write(key, state);
+						} catch (IOException e) {
+							close(state);
+						} catch (RuntimeException e) {
+							e.printStackTrace();
+							close(state);
+						}
+					}
+				}
+			} catch (IOException | ClosedSelectorException e) {
+				// selector closed, the listener is shutting down
+			}
+		}
+
+		private void processRegistrations() {
+			SocketChannel channel;
+			while ((channel = registrations.poll()) != null) {
+				try {
+					channel.configureBlocking(false);
+					ChannelState state = new ChannelState(channel, this);
+					state.key = channel.register(selector, SelectionKey.OP_READ, state);
+					state.conn = new Connection(channel.socket(), new OutboundQueue(state));
+					listener.addConnection(state.conn);
+				} catch (IOException e) {
+					e.printStackTrace();
+				}
+			}
+		}
+
+		private void processWriteRequests() {
+			SelectionKey key;
+			while ((key = writeRequests.poll()) != null) {
+				if (key.isValid())
+					key.interestOps(key.interestOps() | SelectionKey.OP_WRITE);
+			}
+		}
+
+		/**
+		 * Reads what is available on the channel and hands every complete line
+		 * or frame to the listener. The codec is checked for every byte as the
+		 * protocol can switch part way through a read.
+		 */
+		private void read(SelectionKey key, ChannelState state) throws IOException {
+			readBuffer.clear();
+			int read = state.channel.read(readBuffer);
+			if (read == -1) {
+				close(state);
+				return;
+			}
+			readBuffer.flip();
+			while (readBuffer.hasRemaining()) {
+				byte b = readBuffer.get();
+				BinaryCodec codec = state.conn.getCodec();
+				String input = codec == null ? readLine(state, b) : readFrame(state, codec, b);
+				if (input != null) {
+					listener.handleInput(state.conn, input);
+					if (!key.isValid())
+						return;
+				}
+			}
+		}
+
+		/**
+		 * @return the line the byte completes, or null if it does not complete one.
+		 */
+		private String readLine(ChannelState state, byte b) {
+			if (b != '\n') {
+				state.line.write(b);
+				return null;
+			}
+			byte[] bytes = state.line.toByteArray();
+			int length = bytes.length;
+			if (length > 0 && bytes[length - 1] == '\r')
+				length--;
+			state.line.reset();
+			return new String(bytes, 0, length, Charset.defaultCharset());
+		}
+
+		/**
+		 * @return the decoded line of the frame the byte completes, or null if it does not complete one.
+		 */
+		private String readFrame(ChannelState state, BinaryCodec codec, byte b) {
+			state.line.write(b);
+			int size = state.line.size();
+			if (state.frameLength == -1 && size == BinaryCodec.HEADER_LENGTH) {
+				byte[] header = state.line.toByteArray();
+				state.frameLength = ((header[0] & 0xFF) << 8) | (header[1] & 0xFF);
+			}
+			if (state.frameLength == -1 || size < BinaryCodec.HEADER_LENGTH + state.frameLength)
+				return null;
+			byte[] frame = state.line.toByteArray();
+			state.line.reset();
+			int length = state.frameLength;
+			state.frameLength = -1;
+			return codec.decode(frame, BinaryCodec.HEADER_LENGTH, length);
+		}
+
+		/**
+		 * Writes as much queued output as the channel accepts without blocking,
+		 * gathering all queued messages into as few writes as possible.
+		 */
+		private void write(SelectionKey key, ChannelState state) throws IOException {
+			OutboundQueue queue = state.conn.getOutbound();
+			if (queue.isOverflowed()) {
+				System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Disconnecting slow consumer " + state.channel.socket().getInetAddress());
+				queue.complete();
+				close(state);
+				return;
+			}
+			while (true) {
+				ByteBuffer[] batch = queue.batch();
+				if (batch.length > 0)
+					state.channel.write(batch);
+				if (queue.complete())
+					break;
+				if (batch[batch.length - 1].hasRemaining())
+					return;
+			}
+			if (queue.isClosing())
+				state.channel.close();
+			else
+				key.interestOps(SelectionKey.OP_READ);
+		}
+
+		private void close(ChannelState state) {
+			try {
+				listener.disconnect(state.conn);
+				state.channel.close();
+			} catch (IOException e) {
+				// the channel is gone either way
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,169 @@
+package troublegame.server;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.Iterator;
+
+/**
+ * Bounded queue of encoded messages waiting to be written to one client.
+ * Game and lobby threads only ever append to the queue; the transport drains
+ * it on its own thread, writing everything queued since the last drain in one
+ * go. A client that stops reading lets the queue grow until it passes its
+ * byte limit, at which point it is reported as a slow consumer instead of
+ * blocking whoever is sending to it.
+ */
+public class OutboundQueue {
+
+	/**
+	 * The default number of unwritten bytes a client may fall behind by.
+	 */
+	public static final int DEFAULT_MAX_PENDING_BYTES = 256 * 1024;
+
+	/**
+	 * The most buffers handed out in one batch, kept under the usual iovec limit.
+	 */
+	public static final int MAX_BATCH = 64;
+
+	/**
+	 * The transport side of the queue.
+	 */
+	public interface Drainer {
+
+		/**
+		 * Called when the queue has something to write, or is closing, and no
+		 * drain is scheduled yet. The drainer should soon call batch and
+		 * complete until complete returns true.
+		 * @param queue is the queue to drain.
+		 */
+		void schedule(OutboundQueue queue);
+
+		/**
+		 * Called once when the client has fallen too far behind. Queued
+		 * messages are dropped and no more are accepted.
+		 * @param queue is the queue that overflowed.
+		 */
+		void overflow(OutboundQueue queue);
+
+	}
+
+	private Drainer drainer;
+	private int maxPendingBytes;
+	private ArrayDeque<ByteBuffer> pending;
+	private int pendingBytes;
+	private boolean scheduled;
+	private boolean closing;
+	private boolean overflowed;
+
+	/**
+	 * Constructs a queue with the default byte limit.
+	 * @param drainer is told when the queue needs draining.
+	 */
+	public OutboundQueue(Drainer drainer) {
+		this(drainer, DEFAULT_MAX_PENDING_BYTES);
+	}
+
+	/**
+	 * Constructs a queue.
+	 * @param drainer is told when the queue needs draining.
+	 * @param maxPendingBytes is the number of unwritten bytes at which the client is dropped.
+	 */
+	public OutboundQueue(Drainer drainer, int maxPendingBytes) {
+		this.drainer = drainer;
+		this.maxPendingBytes = maxPendingBytes;
+		this.pending = new ArrayDeque<ByteBuffer>();
+	}
+
+	/**
+	 * Queues the remaining bytes of a message. The buffer itself is left
+	 * untouched, so the same buffer can be offered to any number of queues.
+	 * @param message is the encoded message.
+	 * @return false if the queue is closing or the client fell too far behind.
+	 */
+	public boolean offer(ByteBuffer message) {
+		boolean schedule = false;
+		boolean overflow = false;
+		synchronized (this) {
+			if (closing || overflowed)
+				return false;
+			if (pendingBytes + message.remaining() > maxPendingBytes) {
+				overflowed = true;
+				pending.clear();
+				pendingBytes = 0;
+				overflow = true;
+			} else {
+				ByteBuffer slice = message.slice();
+				pending.add(slice);
+				pendingBytes += slice.limit();
+				schedule = !scheduled;
+				scheduled = true;
+			}
+		}
+		if (overflow)
+			drainer.overflow(this);
+		else if (schedule)
+			drainer.schedule(this);
+		return !overflow;
+	}
+
+	/**
+	 * @return the queued messages not yet completely written, oldest first.
+	 */
+	public synchronized ByteBuffer[] batch() {
+		int size = Math.min(pending.size(), MAX_BATCH);
+		ByteBuffer[] batch = new ByteBuffer[size];
+		Iterator<ByteBuffer> it = pending.iterator();
+		for (int i = 0; i < size; i++)
+			batch[i] = it.next();
+		return batch;
+	}
+
+	/**
+	 * Removes the messages that have been written completely.
+	 * @return true if the queue is now empty, in which case the drain is over
+	 *         and the next message schedules a new one.
+	 */
+	public synchronized boolean complete() {
+		ByteBuffer head;
+		while ((head = pending.peek()) != null && !head.hasRemaining()) {
+			pending.poll();
+			pendingBytes -= head.limit();
+		}
+		if (!pending.isEmpty() && !overflowed)
+			return false;
+		scheduled = false;
+		return true;
+	}
+
+	/**
+	 * Stops accepting messages. The drainer is expected to close the client
+	 * once the messages already queued have been written.
+	 */
+	public void close() {
+		boolean schedule;
+		synchronized (this) {
+			if (closing)
+				return;
+			closing = true;
+			schedule = !scheduled;
+			scheduled = true;
+		}
+		if (schedule)
+			drainer.schedule(this);
+	}
+
+	public synchronized boolean isClosing() {
+		return closing;
+	}
+
+	public synchronized boolean isOverflowed() {
+		return overflowed;
+	}
+
+	/**
+	 * @return the number of bytes queued but not yet written.
+	 */
+	public synchronized int getPendingBytes() {
+		return pendingBytes;
+	}
+
+}
@@ -0,0 +1,264 @@
+package troublegame.server;
+
+/**
+ * The rules of moving a token, working on a BoardState alone. A move is an
+ * int holding the token, the die value, what kind of move it is, the slot
+ * the token ends up in and the token it sends home, if any. Evaluating,
+ * generating and applying moves never allocates; turning a move into a
+ * protocol message is left to the caller.
+ *
+ * Where a token can go for a die value depends only on its colour, its slot
+ * and the die, so it is worked out once for every combination when the class
+ * loads. Evaluating a move looks up the destination and then checks the
+ * board for what is in it.
+ *
+ * The rules for a token and a die value:
+ * <ul>
+ * <li>A token at home enters the main track at its colour's start and the player rolls again.</li>
+ * <li>A token on the main track moves on by the die value, wrapping around. Passing its colour's end
+ * index it goes into the end zone instead, as long as the end slot it lands on is free and it does not
+ * go beyond the end zone.</li>
+ * <li>A token in the end zone cannot move.</li>
+ * <li>A token landing on a main slot sends whichever token is there home, whatever its colour.</li>
+ * </ul>
+ */
+public final class Rules {
+
+	/**
+	 * The token cannot move and stays where it is.
+	 */
+	public static final int FAIL = 0;
+
+	/**
+	 * The token moves along the main track.
+	 */
+	public static final int MOVE = 1;
+
+	/**
+	 * The token leaves home for its start slot, the player rolls again.
+	 */
+	public static final int ENTER = 2;
+
+	/**
+	 * The token moves into its end zone.
+	 */
+	public static final int FINISH = 3;
+
+	private static final int TOKEN_MASK = 0xF;
+	private static final int DIE_SHIFT = 4;
+	private static final int KIND_SHIFT = 7;
+	private static final int ZONE_SHIFT = 9;
+	private static final int INDEX_SHIFT = 11;
+	private static final int EATEN_SHIFT = 16;
+
+	private static final int NUM_ZONES = 3;
+	private static final int INDEX_SLOTS = 1 << 5;
+	private static final int DIE_SLOTS = 1 << 3;
+
+	private static final int[] START = { Board.RED_START, Board.GREEN_START, Board.YELLOW_START, Board.BLUE_START };
+	private static final int[] END = { Board.RED_END, Board.GREEN_END, Board.YELLOW_END, Board.BLUE_END };
+
+	/**
+	 * The destinations of every colour, zone, index and die value, held as the
+	 * kind, zone and index bits of a move; 0, a FAIL, where the token cannot move.
+	 */
+	private static final int[] DESTINATIONS = new int[BoardState.NUM_COLOURS * NUM_ZONES * INDEX_SLOTS * DIE_SLOTS];
+
+	static {
+		for (int colour = 0; colour < BoardState.NUM_COLOURS; colour++) {
+			for (int zone = 0; zone < NUM_ZONES; zone++) {
+				for (int index = 0; index < INDEX_SLOTS; index++) {
+					for (int die = 1; die <= 6; die++)
+						DESTINATIONS[slot(colour, zone, index, die)] = destination(colour, zone, index, die);
+				}
+			}
+		}
+	}
+
+	private Rules() {
+	}
+
+	/**
+	 * @return the main slot the colour's tokens enter at.
+	 */
+	public static int getStart(int colour) {
+		return START[colour];
+	}
+
+	/**
+	 * @return the last main slot the colour's tokens pass before their end zone.
+	 */
+	public static int getEnd(int colour) {
+		return END[colour];
+	}
+
+	/**
+	 * Works out what happens to a token for a die value, without changing the state.
+	 * @param state is the board.
+	 * @param token is the number of the token in the state.
+	 * @param die is the value rolled.
+	 * @return the move.
+	 */
+	public static int evaluate(BoardState state, int token, int die) {
+		int colour = BoardState.colourOfToken(token);
+		int destination = DESTINATIONS[slot(colour, state.getZone(token), state.getIndex(token), die)];
+		int target = index(destination);
+		switch (kind(destination)) {
+			case FAIL:
+				return fail(token, die);
+			case FINISH:
+				if (state.getOccupant(Board.SLOT_END, colour, target) != BoardState.NONE)
+					return fail(token, die);
+				return token | die << DIE_SHIFT | destination;
+			default:
+				return token | die << DIE_SHIFT | destination | (state.getMainOccupant(target) + 1) << EATEN_SHIFT;
+		}
+	}
+
+	/**
+	 * Works out where a token of a colour in a slot goes for a die value on an
+	 * empty board, using the table built when the class loaded.
+	 * @return the kind, zone and index bits of the move, read with kind, zone and
+	 * index; 0, a FAIL, if the token cannot move.
+	 */
+	public static int getDestination(int colour, int zone, int index, int die) {
+		return DESTINATIONS[slot(colour, zone, index, die)];
+	}
+
+	private static int slot(int colour, int zone, int index, int die) {
+		return ((colour * NUM_ZONES + zone) * INDEX_SLOTS + index) * DIE_SLOTS + die;
+	}
+
+	/**
+	 * Works out a destination for the table.
+	 */
+	private static int destination(int colour, int zone, int index, int die) {
+		switch (zone) {
+			case Board.SLOT_HOME:
+				return destination(ENTER, Board.SLOT_MAIN, START[colour]);
+			case Board.SLOT_MAIN: {
+				if (index >= Board.NUM_MAIN_SLOTS)
+					return FAIL;
+				int endIndex = END[colour];
+				int endPos = index + die;
+				if (index <= endIndex && endPos > endIndex) {
+					// passing the end index, into the end zone if it does not go beyond it
+					int slot = endPos - endIndex - 1;
+					return slot < Board.NUM_END_SLOTS ? destination(FINISH, Board.SLOT_END, slot) : FAIL;
+				}
+				return destination(MOVE, Board.SLOT_MAIN, endPos % Board.NUM_MAIN_SLOTS);
+			}
+			default:
+				return FAIL;
+		}
+	}
+
+	private static int destination(int kind, int zone, int index) {
+		return kind << KIND_SHIFT | zone << ZONE_SHIFT | index << INDEX_SHIFT;
+	}
+
+	/**
+	 * Finds the moves of a colour for a die value. Tokens that cannot move are left out.
+	 * @param state is the board.
+	 * @param colour is the colour whose turn it is, as numbered by BoardState.
+	 * @param die is the value rolled.
+	 * @param moves receives the moves, it must have room for Player.NUM_TOKENS.
+	 * @return the number of moves found.
+	 */
+	public static int generateMoves(BoardState state, int colour, int die, int[] moves) {
+		int count = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			int move = evaluate(state, BoardState.token(colour, id), die);
+			if (kind(move) != FAIL)
+				moves[count++] = move;
+		}
+		return count;
+	}
+
+	/**
+	 * @return false for tokens whose moves get the player nowhere: a finished
+	 * token only passes the turn, and a token entering onto a token of its own
+	 * colour sends that one home and leaves the board as it was.
+	 */
+	public static boolean isChoice(BoardState state, int token) {
+		switch (state.getZone(token)) {
+			case Board.SLOT_END:
+				return false;
+			case Board.SLOT_HOME: {
+				int colour = BoardState.colourOfToken(token);
+				int occupant = state.getMainOccupant(START[colour]);
+				return occupant == BoardState.NONE || BoardState.colourOfToken(occupant) != colour;
+			}
+			default:
+				return true;
+		}
+	}
+
+	/**
+	 * Carries out a move worked out on the same state.
+	 * @param state is the board.
+	 * @param move is the move.
+	 * @return the move, which also describes its result.
+	 */
+	public static int apply(BoardState state, int move) {
+		if (kind(move) == FAIL)
+			return move;
+		int eaten = eaten(move);
+		if (eaten != BoardState.NONE)
+			state.move(eaten, Board.SLOT_HOME, BoardState.idOfToken(eaten));
+		state.move(token(move), zone(move), index(move));
+		return move;
+	}
+
+	private static int fail(int token, int die) {
+		// a FAIL has no destination and sends nothing home
+		return token | die << DIE_SHIFT;
+	}
+
+	/**
+	 * @return the number of the token moved.
+	 */
+	public static int token(int move) {
+		return move & TOKEN_MASK;
+	}
+
+	public static int die(int move) {
+		return move >>> DIE_SHIFT & 0x7;
+	}
+
+	/**
+	 * @return FAIL, MOVE, ENTER or FINISH.
+	 */
+	public static int kind(int move) {
+		return move >>> KIND_SHIFT & 0x3;
+	}
+
+	/**
+	 * @return the zone the token ends up in.
+	 */
+	public static int zone(int move) {
+		return move >>> ZONE_SHIFT & 0x3;
+	}
+
+	/**
+	 * @return the index of the slot the token ends up in.
+	 */
+	public static int index(int move) {
+		return move >>> INDEX_SHIFT & 0x1F;
+	}
+
+	/**
+	 * @return the token sent home, or BoardState.NONE.
+	 */
+	public static int eaten(int move) {
+		return (move >>> EATEN_SHIFT) - 1;
+	}
+
+	/**
+	 * @return true if the player rolls again after the move.
+	 */
+	public static boolean rollsAgain(int move) {
+		return kind(move) == ENTER;
+	}
+
+}
@@ -0,0 +1,154 @@
+package troublegame.server;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The logged in connections, found by email, username or user id without
+ * scanning every connection. Lookups may come from any thread and never
+ * block; logging in, renaming and leaving are serialised.
+ *
+ * Emails are unique, a second connection cannot log in with the same email.
+ * Usernames are not, so the username index holds every connection using a
+ * name and a lookup returns one of them. Guests have no id and are found by
+ * their email and username only.
+ */
+public class SessionRegistry {
+
+	/**
+	 * The keys a connection is registered under.
+	 */
+	private static final class Keys {
+
+		private final String email;
+		private final String username;
+		private final UUID id;
+
+		private Keys(String email, String username, UUID id) {
+			this.email = email;
+			this.username = username;
+			this.id = id;
+		}
+
+	}
+
+	private Map<String, Connection> byEmail;
+	private Map<String, Set<Connection>> byUsername;
+	private Map<UUID, Connection> byId;
+	private Map<Connection, Keys> keys;
+
+	public SessionRegistry() {
+		this.byEmail = new ConcurrentHashMap<String, Connection>();
+		this.byUsername = new ConcurrentHashMap<String, Set<Connection>>();
+		this.byId = new ConcurrentHashMap<UUID, Connection>();
+		this.keys = new ConcurrentHashMap<Connection, Keys>();
+	}
+
+	/**
+	 * Registers a connection under its user's email, username and id,
+	 * replacing whatever it was registered under before.
+	 * @param connection is the connection logging in.
+	 * @return null if registered, otherwise the connection already logged in with the email.
+	 */
+	public synchronized Connection register(Connection connection) {
+		User user = connection.getUser();
+		Connection other = byEmail.get(user.getEmail());
+		if (other != null && other != connection)
+			return other;
+		unindex(connection);
+		Keys k = new Keys(user.getEmail(), user.getUsername(), user.getId());
+		byEmail.put(k.email, connection);
+		byUsername.computeIfAbsent(k.username, name -> ConcurrentHashMap.newKeySet()).add(connection);
+		if (k.id != null)
+			byId.put(k.id, connection);
+		keys.put(connection, k);
+		return null;
+	}
+
+	/**
+	 * Moves a registered connection to its user's new username.
+	 * @param connection is the connection of the renamed user.
+	 * @param username is the new username.
+	 */
+	public synchronized void rename(Connection connection, String username) {
+		Keys k = keys.get(connection);
+		if (k == null || k.username.equals(username))
+			return;
+		removeUsername(k.username, connection);
+		byUsername.computeIfAbsent(username, name -> ConcurrentHashMap.newKeySet()).add(connection);
+		keys.put(connection, new Keys(k.email, username, k.id));
+	}
+
+	/**
+	 * Removes a connection.
+	 * @param connection is the connection leaving.
+	 * @return true if the connection was registered.
+	 */
+	public synchronized boolean remove(Connection connection) {
+		return unindex(connection);
+	}
+
+	private boolean unindex(Connection connection) {
+		Keys k = keys.remove(connection);
+		if (k == null)
+			return false;
+		byEmail.remove(k.email, connection);
+		removeUsername(k.username, connection);
+		if (k.id != null)
+			byId.remove(k.id, connection);
+		return true;
+	}
+
+	private void removeUsername(String username, Connection connection) {
+		byUsername.computeIfPresent(username, (name, connections) -> {
+			connections.remove(connection);
+			return connections.isEmpty() ? null : connections;
+		});
+	}
+
+	/**
+	 * @param email is the email of a user.
+	 * @return the connection logged in with the email, or null.
+	 */
+	public Connection getByEmail(String email) {
+		return byEmail.get(email.toLowerCase());
+	}
+
+	/**
+	 * @param username is the username of a user.
+	 * @return a connection logged in with the username, or null.
+	 */
+	public Connection getByUsername(String username) {
+		Set<Connection> connections = byUsername.get(username);
+		if (connections == null)
+			return null;
+		for (Connection connection : connections)
+			return connection;
+		return null;
+	}
+
+	/**
+	 * @param id is the id of a registered user.
+	 * @return the connection logged in as the user, or null.
+	 */
+	public Connection getById(UUID id) {
+		return byId.get(id);
+	}
+
+	/**
+	 * @return true if the connection is logged in.
+	 */
+	public boolean contains(Connection connection) {
+		return keys.containsKey(connection);
+	}
+
+	/**
+	 * @return the number of logged in connections.
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+}
@@ -1,10 +1,17 @@
 package troublegame.server;
 
+/**
+ * A slot of the board. A slot made by a Board is a view of the board's
+ * state and reports whichever token is there now; a slot made without one
+ * holds its token itself.
+ */
 public class Slot {
 	
 	private Token occupyingToken;
 	private int slotZone;
 	private int slotIndex;
+	private Board board;
+	private Color colour;
 	
 	public Slot(int zone, int index) {
 		occupyingToken = null;
@@ -18,12 +25,24 @@ public class Slot {
 		slotIndex = index;
 	}
 	
+	/**
+	 * Creates a view of a slot of the board
+	 * @param board The board the slot belongs to
+	 * @param colour The colour owning a home or end slot, null for the main zone
+	 */
+	public Slot(Board board, Color colour, int zone, int index) {
+		this.board = board;
+		this.colour = colour;
+		slotZone = zone;
+		slotIndex = index;
+	}
+	
 	/**
 	 * Determine whether the current slot has another token in it or not.
 	 * @return true if the slot has a token in it, false if it is unoccupied
 	 */
 	public boolean isOccupied() {
-		return occupyingToken != null;
+		return getOccupyingToken() != null;
 	}
 	
 	public String slotLocationToString() {
@@ -56,18 +75,36 @@ public class Slot {
 	 * @return null if no token is occupying this slot, otherwise returns the occupying token
 	 */
 	public Token getOccupyingToken() {
+		if (board != null) {
+			return board.getOccupyingToken(slotZone, colour, slotIndex);
+		}
 		return occupyingToken;
 	}
 	
 	/**
-	 * Sets the token which will be occupying the current slot
+	 * Sets the token which will be occupying the current slot. For a view of the board
+	 * the token is moved here
 	 * @param token The token which has moved into this slot
 	 */
 	public void setOccupyingToken(Token token) {
+		if (board != null) {
+			board.setTokenLoc(token, slotZone, slotIndex);
+			return;
+		}
 		occupyingToken = token;
 	}
 	
+	/**
+	 * Empties the slot. For a view of the board the token here is sent back to its home slot
+	 */
 	public void removeOccupyingToken() {
+		if (board != null) {
+			Token token = getOccupyingToken();
+			if (token != null) {
+				board.setTokenLoc(token, Board.SLOT_HOME, token.getTokenID());
+			}
+			return;
+		}
 		occupyingToken = null;
 	}
 	
@@ -1,36 +1,103 @@
 package troublegame.server;
 
-import java.io.BufferedReader;
 import java.io.IOException;
-import java.io.InputStreamReader;
-import java.io.PrintWriter;
+import java.io.OutputStream;
+import java.lang.reflect.Method;
 import java.net.ServerSocket;
 import java.net.Socket;
-import java.util.ArrayList;
-import java.util.UUID;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
+import troublegame.communication.BinaryCodec;
+import troublegame.communication.CommandDispatcher;
 import troublegame.communication.CommunicationHandler;
+import troublegame.communication.ProtocolReader;
+import troublegame.server.io.FriendGraph;
 import troublegame.server.io.UserManager;
 
 public class SocketListener {
 	
+	/**
+	 * Transport modes selectable with the transport option in server.txt.
+	 */
+	public static final String TRANSPORT_THREAD = "thread";
+	public static final String TRANSPORT_NIO = "nio";
+	public static final String TRANSPORT_VIRTUAL = "virtual";
+	
+	/**
+	 * The number of platform threads doing user file I/O for the virtual and nio transports.
+	 */
+	private static final int STORE_THREADS = 4;
+	
+	/**
+	 * Commands whose handlers read or write the user store. The nio transport
+	 * runs them on its store threads so a selector never waits on the disk.
+	 */
+	private static final Set<String> STORE_COMMANDS = new HashSet<String>(Arrays.asList(
+			CommunicationHandler.LOGIN_REQUEST, CommunicationHandler.REGISTER_REQUEST, CommunicationHandler.UNFRIEND,
+			CommunicationHandler.FRIEND_ADD_ATTEMPT, CommunicationHandler.FRIENDS_GET_LIST));
+	
 	private int port;
+	private String transport;
 	private ServerSocket socket;
-	private ArrayList<Socket> clients;
-	private ArrayList<Connection> connections;
+	private NioListener nioListener;
+	private ExecutorService clientExecutor;
+	private ExecutorService storeExecutor;
+	private ExecutorService commandExecutor;
+	private ConcurrentMap<Connection, CompletableFuture<Void>> pendingCommands;
+	private ExecutorService writerExecutor;
+	private CommandDispatcher<Connection> dispatcher;
+	private Set<Socket> clients;
+	private Set<Connection> connections;
 	private boolean listening;
 	private LoginHandler loginHandler;
 	private Lobby lobby;
 	private GameEngine gameEngine;
 	
 	public SocketListener(String[] strings) {
+		this(strings, TRANSPORT_THREAD, 1);
+	}
+	
+	/**
+	 * Constructs a socket listener using the given transport.
+	 * @param strings is the server info split into ip and port.
+	 * @param transport is one of TRANSPORT_THREAD, TRANSPORT_NIO or TRANSPORT_VIRTUAL.
+	 * @param ioThreads is the number of selector threads used by the nio transport.
+	 */
+	public SocketListener(String[] strings, String transport, int ioThreads) {
 		System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Initializing socket listener...");
 		this.port = Integer.parseInt(strings[1]);
-		clients = new ArrayList<Socket>();
-		connections = new ArrayList<Connection>();
+		this.transport = transport;
+		clients = ConcurrentHashMap.newKeySet();
+		connections = ConcurrentHashMap.newKeySet();
+		pendingCommands = new ConcurrentHashMap<Connection, CompletableFuture<Void>>();
+		dispatcher = new CommandDispatcher<Connection>();
+		registerCommands();
 		listening = true;
 		try {
-			socket = new ServerSocket(this.port);
+			if (TRANSPORT_NIO.equals(transport)) {
+				nioListener = new NioListener(this, this.port, ioThreads);
+				commandExecutor = Executors.newFixedThreadPool(STORE_THREADS);
+			} else {
+				socket = new ServerSocket(this.port);
+			}
+			if (TRANSPORT_VIRTUAL.equals(transport)) {
+				clientExecutor = newVirtualThreadExecutor();
+				storeExecutor = Executors.newFixedThreadPool(STORE_THREADS);
+				writerExecutor = clientExecutor;
+			} else if (!TRANSPORT_NIO.equals(transport)) {
+				writerExecutor = Executors.newCachedThreadPool();
+			}
 		} catch (IOException e) {
 			e.printStackTrace();
 		}
@@ -41,7 +108,14 @@ public class SocketListener {
 		return port;
 	}
 	
-	public ArrayList<Socket> getClients() {
+	/**
+	 * @return the transport this listener accepts clients with.
+	 */
+	public String getTransport() {
+		return transport;
+	}
+	
+	public Collection<Socket> getClients() {
 		return clients;
 	}
 	
@@ -49,17 +123,34 @@ public class SocketListener {
 		return listening;
 	}
 	
-	public void disconnect(Connection conn, Socket clientSocket) throws IOException {
-		System.out.println(conn.getUsername() + " has disconnected from the server.");
-		connections.remove(conn);
+	public void disconnect(Connection conn) throws IOException {
+		if (!connections.remove(conn))
+			return;
+		Socket clientSocket = conn.getSocket();
+		System.out.println((conn.getUser() == null ? "A user" : conn.getUsername()) + " has disconnected from the server.");
 		clients.remove(clientSocket);
 		lobby.leaveGameRoom(conn);
 		lobby.removeUser(conn);
 		gameEngine.removeConnection(conn);
-		clientSocket.close();
+		conn.close();
+		loginHandler.logout(conn);
+	}
+	
+	/**
+	 * Registers a newly accepted connection.
+	 * @param conn is the connection being added.
+	 */
+	public void addConnection(Connection conn) {
+		clients.add(conn.getSocket());
+		connections.add(conn);
 	}
+	
 	public void init() {
-		System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Socket listening on port: " + this.port);
+		System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Socket listening on port: " + this.port + " (" + transport + " transport)");
+		if (nioListener != null) {
+			nioListener.start();
+			return;
+		}
 		Runnable serverTask = new Runnable() {
 
 			@Override
@@ -68,205 +159,50 @@ public class SocketListener {
 					while (this.isListening()) {
 						
 						Socket clientSocket = this.getSocket().accept();
-						this.addClient(clientSocket);
 						
 						System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " A user has connected from " + clientSocket.getInetAddress());
 						
-						Thread thread = new Thread(new Runnable() {
+						// Establish the server's output queue.
+						Connection conn = new Connection(clientSocket, new OutboundQueue(new SocketDrainer(clientSocket)));
+						addConnection(conn);
+						
+						Runnable clientTask = new Runnable() {
 							@Override
 							public void run() {
 								try {
 									// Establish the client's input stream.
-									BufferedReader clientInput = new BufferedReader(new InputStreamReader(clientSocket.getInputStream()));
-									
-									// Establish the server's output stream.
-									PrintWriter clientOutput = new PrintWriter(clientSocket.getOutputStream(), true);
-									
-									Connection conn = new Connection(clientSocket, clientInput, clientOutput);
-									addConnection(conn);
+									ProtocolReader clientInput = new ProtocolReader(clientSocket.getInputStream());
 									
 									// TODO:later on we will have a method that adds player connections to correct gameEngines
 									
 									
-									while (clientSocket.isConnected()) {
+									while (!clientSocket.isClosed()) {
 										
-										String input = clientInput.readLine();
+										String input = clientInput.read(conn.getCodec());
 										if (input == null) {
-											disconnect(conn, clientSocket);
+											disconnect(conn);
 											return;
 										}
-										System.out.println("Client Sent: " + input);
-										// TEMPORARY
-										if (input.startsWith(CommunicationHandler.LOGIN_REQUEST)) {
-											
-											String[] inputSplit = input.split(" ");
-											
-											String receivedEmail = inputSplit[1];
-											String receivedPass = inputSplit[2];
-											
-											User tmp = UserManager.loadUserByEmail(receivedEmail);
-											PrintWriter serverStream = conn.getOutputStream();
-											
-											if(tmp == null) {
-												serverStream.println(CommunicationHandler.LOGIN_ERROR + " No user with the email " + receivedEmail + " was found");
-											} else if (tmp.getPassword().equals(receivedPass)) {
-												conn.setUser(tmp);
-												conn.setGuest(false);
-												loginHandler.addConnectionToQueue(conn);
-											} else {
-												conn.getOutputStream().println(CommunicationHandler.LOGIN_ERROR + " Incorrect password");
-											}
-										} else if (input.startsWith(CommunicationHandler.REGISTER_REQUEST)) {
-											String[] registerSplit = input.split("\t");
-											Color favColor = null;
-											switch (registerSplit[4]) {
-											case "RED": favColor = Color.RED; break;
-											case "BLUE": favColor = Color.BLUE; break;
-											case "GREEN": favColor = Color.GREEN; break;
-											case "YELLOW": favColor = Color.YELLOW; break;
-											}
-											int i = UserManager.createAndSaveNewUser(registerSplit[1], registerSplit[2], registerSplit[3], favColor, registerSplit[5]);
-											if (i == 0) conn.getOutputStream().println(CommunicationHandler.REGISTER_SUCCESS);
-											else if (i == 1) conn.getOutputStream().println(CommunicationHandler.REGISTER_ERROR);
-										} else if (input.startsWith(CommunicationHandler.LOGIN_GUEST)) {
-											int guestCount = 0;
-											for (Connection user : connections) {
-												if (user.equals(conn))
-													continue;
-												if (user.getUser().getPassword() == null) {
-													guestCount++;
-												}
-											}
-											User guestUser = new User("GUEST_" + guestCount);
-											conn.setUser(guestUser);
-											loginHandler.addConnectionToQueue(conn);
-											conn.setGuest(true);
-										} else if (input.equals(CommunicationHandler.GAME_ROOM_NEW)) {
-											System.out.println(conn.getUser().getUsername()+" created a room");
-											lobby.createGameRoom(conn);
-										} else if (input.startsWith(CommunicationHandler.GAME_ROOM_JOIN)) {
-											String[] inputSplit = input.split("] ");
-											lobby.joinGameRoom(conn, inputSplit[1]);
-										} else if (input.startsWith(CommunicationHandler.GAME_ROLL)) {
-											gameEngine.handleInput(conn, input);
-										} else if (input.startsWith(CommunicationHandler.GAME_ROOM_INFO)) {
-											lobby.handleGameRoomQuery(conn);
-										} else if (input.startsWith(CommunicationHandler.GAME_ROOM_CHAT)) {
-											String message = input.substring(CommunicationHandler.GAME_ROOM_CHAT.length());
-											lobby.handleGameroomChat(conn, message);
-										} else if(input.startsWith(CommunicationHandler.GAME_ROOM_LEAVE)) {
-											lobby.leaveGameRoom(conn);
-										} else if (input.equals(CommunicationHandler.LOGOUT_REQUEST)) {
-											conn.getOutputStream().println(CommunicationHandler.LOGOUT_SUCCESS);				
-											disconnect(conn, clientSocket);
-											lobby.broadcastOnlineList();
-										} else if (input.startsWith(CommunicationHandler.GAME_START)) {
-											String gameRoomName = input.substring(CommunicationHandler.GAME_START.length() + 1, input.length() - 2);
-											int startNum = Integer.parseInt(input.substring(input.length() - 1));
-											GameRoom g = lobby.getGameRoomByName(gameRoomName);
-											if (g.isOwner(conn)) {
-												gameEngine.createGame(lobby.getGameRoomByName(gameRoomName).getMembers(), startNum);
-												lobby.broadcastActivity(conn.getUsername()+ " has started his game.");
-												for (Connection u : connections)
-													u.getOutputStream().println(CommunicationHandler.GAME_ROOM_CLOSE + " " + gameRoomName);
-												lobby.getGameRooms().remove(g);
-											} else {
-												conn.getOutputStream().println(CommunicationHandler.GAME_START_FAIL);
-											}
-										} else if (input.startsWith(CommunicationHandler.GAME_CHAT)) {
-											String message = input.substring(CommunicationHandler.GAME_CHAT.length() + 1);
-											gameEngine.handleChat(conn, message);
-										} else if (input.startsWith(CommunicationHandler.UPDATE_DISPLAYNAME)) {
-											String[] inputSplit = input.split(" ");
-											String newDisplayname = inputSplit[1];
-											String myPassword = inputSplit[2];
-											User u = conn.getUser();
-											if (myPassword.equals(u.getPassword())) {
-												u.updateUsername(newDisplayname);
-												conn.getOutputStream().println(CommunicationHandler.UPDATE_SUCCESS + " " + newDisplayname);
-											} else {
-												conn.getOutputStream().println(CommunicationHandler.UPDATE_FAIL);
-											}
-
-										} else if (input.startsWith(CommunicationHandler.CHANGE_PASSWORD)) {
-											String[] inputSplit = input.split(" ");
-											String newPassword = inputSplit[1];
-											String myPassword = inputSplit[2];
-											User u = conn.getUser();
-											if (myPassword.equals(u.getPassword())) {
-												u.updatePassword(newPassword);
-												conn.getOutputStream().println(CommunicationHandler.CHANGE_SUCCESS);
-											} else {
-												conn.getOutputStream().println(CommunicationHandler.UPDATE_FAIL);
-											}
-
-										} else if (input.startsWith(CommunicationHandler.GET_STATISTICS)) {
-											User u = conn.getUser();
-											String statistics = " "+u.getGamesPlayed()+" "+ u.getGamesWon();
-											conn.getOutputStream().println(CommunicationHandler.GET_STATISTICS+ statistics);
-										} else if (input.startsWith(CommunicationHandler.LOBBY_CHAT)) {
-											String message = input.substring(CommunicationHandler.LOBBY_CHAT.length() + 1);
-											lobby.handleLobbyChat(conn, message);
-										} else if (input.startsWith(CommunicationHandler.LOBBY_ONLINE_LIST)) {
-											lobby.broadcastOnlineList();
-										} else if (input.startsWith(CommunicationHandler.GAME_ROOM_QUERY)) {
-											lobby.showGamerooms(conn);
-										} else if (input.startsWith(CommunicationHandler.UNFRIEND)) {
-											String userName = input.substring(CommunicationHandler.UNFRIEND.length());
-											User u = UserManager.loadUserByEmail(conn.getUser().getEmail());
-											User userToUnfriend = null;
-											for (UUID friendUID: u.getFriendList()) {
-												User tmp = UserManager.loadUserById(friendUID);
-												if (tmp.getUsername().equals(userName)) {
-													userToUnfriend = tmp;
-													break;
-												}
-											} 
-											if (userToUnfriend != null && u.removeFriend(userToUnfriend)) {
-												conn.getOutputStream().println(CommunicationHandler.UNFRIEND_SUCCESS + userName);
-											} else {
-												conn.getOutputStream().println(CommunicationHandler.UNFRIEND_FAIL);
-											}
-										} else if (!conn.isGuest()) {
-											if (input.startsWith(CommunicationHandler.FRIEND_ADD_ATTEMPT)) {
-												String userName = input.substring(CommunicationHandler.FRIEND_ADD_ATTEMPT.length()+1);
-												User u = UserManager.loadUserByEmail(conn.getUser().getEmail());
-												User userToAdd = getUserByUsername(userName);
-												
-												// some error occured, maybe guy disconnected
-												if (userToAdd == null) {
-													conn.getOutputStream().println(CommunicationHandler.FRIEND_ADD_FAIL);
-												} else if (u.isFriend(userToAdd)) {
-													conn.getOutputStream().println(CommunicationHandler.FRIENDS_ALREADY + userToAdd.getUsername());
-												} else {
-													if (u.addFriend(userToAdd))
-														conn.getOutputStream().println(CommunicationHandler.FRIEND_ADD_SUCCESS + userToAdd.getUsername());
-													else
-														conn.getOutputStream().println(CommunicationHandler.FRIEND_ADD_FAIL);
-												}
-											}  else if (input.startsWith(CommunicationHandler.FRIENDS_GET_LIST)) {
-												User u = UserManager.loadUserByEmail(conn.getUser().getEmail());
-												u.sendFriendList(conn.getOutputStream());
-											} else if (input.startsWith(CommunicationHandler.FRIEND_INVITE)) {
-												input = input.substring(CommunicationHandler.FRIEND_INVITE.length());
-												String[] inputSplit = input.split("%");
-												Connection c = getConnection(inputSplit[0]);
-												if (c != null) {
-													c.getOutputStream().println(CommunicationHandler.FRIEND_INVITE+conn.getUsername()
-																				+ "%"+ inputSplit[1]);
-												}
-											}
-										} else if (conn.isGuest()) {
-											System.out.println("Unknown Command: " + input);
-										}
+										handleInput(conn, input);
+									}
+								} catch (IOException | RuntimeException e) {
+									// the socket was closed, e.g. after the client fell behind,
+									// or the client sent something malformed such as an unknown opcode
+									if (e instanceof RuntimeException)
+										e.printStackTrace();
+									try {
+										disconnect(conn);
+									} catch (IOException e1) {
+										// already gone
 									}
-								} catch (IOException e) {
-									//e.printStackTrace();
 								}
 
 							}
-						});
-						thread.start();
+						};
+						if (clientExecutor != null)
+							clientExecutor.execute(clientTask);
+						else
+							new Thread(clientTask).start();
 					}
 				} catch (IOException e) {
 					e.printStackTrace();
@@ -292,14 +228,6 @@ public class SocketListener {
 				listening = false;
 			}
 			
-			public void addClient(Socket client) {
-				clients.add(client);
-			}
-			
-			public void addConnection(Connection conn) {
-				connections.add(conn);
-			}
-			
 			public ServerSocket getSocket() {
 				return socket;
 			}
@@ -309,20 +237,444 @@ public class SocketListener {
 		serverThread.start();
 	}
 
-	public ArrayList<Connection> getConnections() {
+	/**
+	 * Handles a single line of input sent by a client. This is shared by every
+	 * transport so the text protocol stays identical regardless of how the line was read.
+	 *
+	 * With the nio transport, commands touching the user store are handed to the
+	 * store threads instead, and so is every later line of the same connection
+	 * until they are done, so a client's commands still run in the order sent.
+	 * Protocol negotiation always runs straight away as the reader depends on it.
+	 * @param conn is the connection the line was received on.
+	 * @param input is the line received, without its line terminator.
+	 * @throws IOException if the connection had to be closed and closing failed.
+	 */
+	public void handleInput(Connection conn, String input) throws IOException {
+		System.out.println("Client Sent: " + input);
+		String command = CommandDispatcher.parseCommand(input);
+		if (commandExecutor != null && !CommunicationHandler.PROTOCOL.equals(command)
+				&& (STORE_COMMANDS.contains(command) || pendingCommands.containsKey(conn))) {
+			queueCommand(conn, input);
+			return;
+		}
+		dispatcher.dispatch(conn, input);
+	}
+	
+	/**
+	 * Runs a line on the store threads after any line of the connection already queued there.
+	 */
+	private void queueCommand(Connection conn, String input) {
+		CompletableFuture<Void> queued = pendingCommands.compute(conn, (c, previous) ->
+				(previous == null ? CompletableFuture.<Void>completedFuture(null) : previous)
+						.thenRunAsync(() -> dispatchQueued(c, input), commandExecutor));
+		queued.whenComplete((result, e) -> pendingCommands.remove(conn, queued));
+	}
+	
+	private void dispatchQueued(Connection conn, String input) {
+		try {
+			dispatcher.dispatch(conn, input);
+		} catch (IOException | RuntimeException e) {
+			if (e instanceof RuntimeException)
+				e.printStackTrace();
+			try {
+				disconnect(conn);
+			} catch (IOException e1) {
+				// already gone
+			}
+		}
+	}
+	
+	/**
+	 * @return the dispatcher routing client commands, with per command counters.
+	 */
+	public CommandDispatcher<Connection> getDispatcher() {
+		return dispatcher;
+	}
+	
+	/**
+	 * Registers the handler for every command a client may send.
+	 */
+	private void registerCommands() {
+		dispatcher.register(CommunicationHandler.PROTOCOL, this::handleProtocol);
+		dispatcher.register(CommunicationHandler.LOGIN_REQUEST, this::handleLogin);
+		dispatcher.register(CommunicationHandler.REGISTER_REQUEST, this::handleRegister);
+		dispatcher.register(CommunicationHandler.LOGIN_GUEST, this::handleGuestLogin);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_NEW, this::handleGameRoomNew);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_JOIN, this::handleGameRoomJoin);
+		dispatcher.register(CommunicationHandler.GAME_ROLL, this::handleGameRoll);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_INFO, this::handleGameRoomInfo);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_CHAT, this::handleGameRoomChat);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_LEAVE, this::handleGameRoomLeave);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_AI_LEVEL, this::handleGameRoomAiLevel);
+		dispatcher.register(CommunicationHandler.LOGOUT_REQUEST, this::handleLogout);
+		dispatcher.register(CommunicationHandler.GAME_START, this::handleGameStart);
+		dispatcher.register(CommunicationHandler.GAME_CHAT, this::handleGameChat);
+		dispatcher.register(CommunicationHandler.UPDATE_DISPLAYNAME, this::handleUpdateDisplayname);
+		dispatcher.register(CommunicationHandler.CHANGE_PASSWORD, this::handleChangePassword);
+		dispatcher.register(CommunicationHandler.GET_STATISTICS, this::handleGetStatistics);
+		dispatcher.register(CommunicationHandler.LOBBY_CHAT, this::handleLobbyChat);
+		dispatcher.register(CommunicationHandler.LOBBY_ONLINE_LIST, this::handleLobbyOnlineList);
+		dispatcher.register(CommunicationHandler.GAME_ROOM_QUERY, this::handleGameRoomQuery);
+		dispatcher.register(CommunicationHandler.UNFRIEND, this::handleUnfriend);
+		dispatcher.register(CommunicationHandler.FRIEND_ADD_ATTEMPT, membersOnly(this::handleFriendAdd));
+		dispatcher.register(CommunicationHandler.FRIENDS_GET_LIST, membersOnly(this::handleFriendList));
+		dispatcher.register(CommunicationHandler.FRIEND_INVITE, membersOnly(this::handleFriendInvite));
+		dispatcher.setFallback(this::handleUnknown);
+	}
+	
+	/**
+	 * Wraps a handler for a command guests are not allowed to use.
+	 * @param handler is the handler run for registered users.
+	 * @return a handler treating the command as unknown for guests.
+	 */
+	private CommandDispatcher.Handler<Connection> membersOnly(CommandDispatcher.Handler<Connection> handler) {
+		return (conn, input) -> {
+			if (conn.isGuest())
+				handleUnknown(conn, input);
+			else
+				handler.handle(conn, input);
+		};
+	}
+	
+	private void handleUnknown(Connection conn, String input) {
+		if (conn.isGuest())
+			System.out.println("Unknown Command: " + input);
+	}
+	
+	/**
+	 * Switches the connection to the binary protocol when the client asks for
+	 * it. The reply is still sent as text, everything after it is framed.
+	 */
+	private void handleProtocol(Connection conn, String input) {
+		String[] inputSplit = input.split(" ");
+		if (inputSplit.length > 1 && inputSplit[1].equals(CommunicationHandler.PROTOCOL_BINARY)) {
+			conn.send(CommunicationHandler.PROTOCOL + " " + CommunicationHandler.PROTOCOL_BINARY);
+			conn.setCodec(new BinaryCodec());
+		} else {
+			conn.send(CommunicationHandler.PROTOCOL);
+		}
+	}
+	
+	private void handleLogin(Connection conn, String input) {
+		String[] inputSplit = input.split(" ");
+		
+		String receivedEmail = inputSplit[1];
+		String receivedPass = inputSplit[2];
+		
+		User tmp = callStore(() -> UserManager.loadUserByEmail(receivedEmail));
+		
+		if(tmp == null) {
+			conn.send(CommunicationHandler.LOGIN_ERROR + " No user with the email " + receivedEmail + " was found");
+		} else if (tmp.getPassword().equals(receivedPass)) {
+			conn.setUser(tmp);
+			conn.setGuest(false);
+			loginHandler.addConnectionToQueue(conn);
+		} else {
+			conn.send(CommunicationHandler.LOGIN_ERROR + " Incorrect password");
+		}
+	}
+	
+	private void handleRegister(Connection conn, String input) {
+		String[] registerSplit = input.split("\t");
+		Color favColor = null;
+		switch (registerSplit[4]) {
+		case "RED": favColor = Color.RED; break;
+		case "BLUE": favColor = Color.BLUE; break;
+		case "GREEN": favColor = Color.GREEN; break;
+		case "YELLOW": favColor = Color.YELLOW; break;
+		}
+		Color color = favColor;
+		int i = callStore(() -> UserManager.createAndSaveNewUser(registerSplit[1], registerSplit[2], registerSplit[3], color, registerSplit[5]));
+		if (i == 0) conn.send(CommunicationHandler.REGISTER_SUCCESS);
+		else if (i == 1) conn.send(CommunicationHandler.REGISTER_ERROR);
+	}
+	
+	private void handleGuestLogin(Connection conn, String input) {
+		int guestCount = 0;
+		for (Connection user : connections) {
+			if (user.equals(conn))
+				continue;
+			if (user.getUser() != null && user.getUser().getPassword() == null) {
+				guestCount++;
+			}
+		}
+		User guestUser = new User("GUEST_" + guestCount);
+		conn.setUser(guestUser);
+		conn.setGuest(true);
+		loginHandler.addConnectionToQueue(conn);
+	}
+	
+	private void handleGameRoomNew(Connection conn, String input) {
+		System.out.println(conn.getUser().getUsername()+" created a room");
+		lobby.createGameRoom(conn);
+	}
+	
+	private void handleGameRoomJoin(Connection conn, String input) {
+		String[] inputSplit = input.split("] ");
+		lobby.joinGameRoom(conn, inputSplit[1]);
+	}
+	
+	private void handleGameRoll(Connection conn, String input) {
+		gameEngine.handleInput(conn, input);
+	}
+	
+	private void handleGameRoomInfo(Connection conn, String input) {
+		lobby.handleGameRoomQuery(conn);
+	}
+	
+	private void handleGameRoomChat(Connection conn, String input) {
+		String message = input.substring(CommunicationHandler.GAME_ROOM_CHAT.length());
+		lobby.handleGameroomChat(conn, message);
+	}
+	
+	private void handleGameRoomLeave(Connection conn, String input) {
+		lobby.leaveGameRoom(conn);
+	}
+	
+	private void handleGameRoomAiLevel(Connection conn, String input) {
+		lobby.handleGameRoomAiLevel(conn, input.substring(CommunicationHandler.GAME_ROOM_AI_LEVEL.length()).trim());
+	}
+	
+	private void handleLogout(Connection conn, String input) throws IOException {
+		conn.send(CommunicationHandler.LOGOUT_SUCCESS);
+		disconnect(conn);
+		lobby.broadcastOnlineList();
+	}
+	
+	private void handleGameStart(Connection conn, String input) {
+		String gameRoomName = input.substring(CommunicationHandler.GAME_START.length() + 1, input.length() - 2);
+		int startNum = Integer.parseInt(input.substring(input.length() - 1));
+		GameRoom g = lobby.getGameRoomByName(gameRoomName);
+		if (g.isOwner(conn)) {
+			gameEngine.createGame(g.getMembers(), startNum, g.getAiLevel());
+			lobby.broadcastActivity(conn.getUsername()+ " has started his game.");
+			Broadcaster.broadcast(connections, CommunicationHandler.GAME_ROOM_CLOSE + " " + gameRoomName);
+			lobby.getGameRooms().remove(g);
+		} else {
+			conn.send(CommunicationHandler.GAME_START_FAIL);
+		}
+	}
+	
+	private void handleGameChat(Connection conn, String input) {
+		String message = input.substring(CommunicationHandler.GAME_CHAT.length() + 1);
+		gameEngine.handleChat(conn, message);
+	}
+	
+	private void handleUpdateDisplayname(Connection conn, String input) {
+		String[] inputSplit = input.split(" ");
+		String newDisplayname = inputSplit[1];
+		String myPassword = inputSplit[2];
+		User u = conn.getUser();
+		if (myPassword.equals(u.getPassword())) {
+			u.updateUsername(newDisplayname);
+			loginHandler.getSessions().rename(conn, newDisplayname);
+			conn.send(CommunicationHandler.UPDATE_SUCCESS + " " + newDisplayname);
+		} else {
+			conn.send(CommunicationHandler.UPDATE_FAIL);
+		}
+	}
+	
+	private void handleChangePassword(Connection conn, String input) {
+		String[] inputSplit = input.split(" ");
+		String newPassword = inputSplit[1];
+		String myPassword = inputSplit[2];
+		User u = conn.getUser();
+		if (myPassword.equals(u.getPassword())) {
+			u.updatePassword(newPassword);
+			conn.send(CommunicationHandler.CHANGE_SUCCESS);
+		} else {
+			conn.send(CommunicationHandler.UPDATE_FAIL);
+		}
+	}
+	
+	private void handleGetStatistics(Connection conn, String input) {
+		User u = conn.getUser();
+		String statistics = " "+u.getGamesPlayed()+" "+ u.getGamesWon();
+		conn.send(CommunicationHandler.GET_STATISTICS+ statistics);
+	}
+	
+	private void handleLobbyChat(Connection conn, String input) {
+		String message = input.substring(CommunicationHandler.LOBBY_CHAT.length() + 1);
+		lobby.handleLobbyChat(conn, message);
+	}
+	
+	private void handleLobbyOnlineList(Connection conn, String input) {
+		lobby.broadcastOnlineList();
+	}
+	
+	private void handleGameRoomQuery(Connection conn, String input) {
+		lobby.showGamerooms(conn);
+	}
+	
+	private void handleUnfriend(Connection conn, String input) {
+		String userName = input.substring(CommunicationHandler.UNFRIEND.length());
+		boolean removed = callStore(() -> {
+			User u = UserManager.loadUserByEmail(conn.getUser().getEmail());
+			for (FriendGraph.Friend friend : UserManager.getFriendGraph().resolve(u.getFriendList())) {
+				if (friend.getUsername().equals(userName)) {
+					return u.removeFriend(friend.getId());
+				}
+			}
+			return false;
+		});
+		if (removed) {
+			conn.send(CommunicationHandler.UNFRIEND_SUCCESS + userName);
+		} else {
+			conn.send(CommunicationHandler.UNFRIEND_FAIL);
+		}
+	}
+	
+	private void handleFriendAdd(Connection conn, String input) {
+		String userName = input.substring(CommunicationHandler.FRIEND_ADD_ATTEMPT.length()+1);
+		User u = callStore(() -> UserManager.loadUserByEmail(conn.getUser().getEmail()));
+		User userToAdd = getUserByUsername(userName);
+		
+		// some error occured, maybe guy disconnected
+		if (userToAdd == null) {
+			conn.send(CommunicationHandler.FRIEND_ADD_FAIL);
+		} else if (u.isFriend(userToAdd)) {
+			conn.send(CommunicationHandler.FRIENDS_ALREADY + userToAdd.getUsername());
+		} else {
+			if (callStore(() -> u.addFriend(userToAdd)))
+				conn.send(CommunicationHandler.FRIEND_ADD_SUCCESS + userToAdd.getUsername());
+			else
+				conn.send(CommunicationHandler.FRIEND_ADD_FAIL);
+		}
+	}
+	
+	private void handleFriendList(Connection conn, String input) {
+		User u = callStore(() -> UserManager.loadUserByEmail(conn.getUser().getEmail()));
+		callStore(() -> {
+			u.sendFriendList(conn);
+			return null;
+		});
+	}
+	
+	private void handleFriendInvite(Connection conn, String input) {
+		input = input.substring(CommunicationHandler.FRIEND_INVITE.length());
+		String[] inputSplit = input.split("%");
+		Connection c = getConnection(inputSplit[0]);
+		if (c != null) {
+			c.send(CommunicationHandler.FRIEND_INVITE+conn.getUsername()
+										+ "%"+ inputSplit[1]);
+		}
+	}
+
+	/**
+	 * Runs a blocking call into the user store. With the virtual transport the call
+	 * is handed to a small pool of platform threads and the virtual thread parks
+	 * until it completes, so file I/O never occupies or pins a carrier thread.
+	 * Otherwise the call runs on the calling thread, which with the nio transport
+	 * is already one of its store threads.
+	 * @param task is the store call.
+	 * @return the result of the call.
+	 */
+	private <T> T callStore(Callable<T> task) {
+		try {
+			if (storeExecutor == null)
+				return task.call();
+			return storeExecutor.submit(task).get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException(e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException)
+				throw (RuntimeException) e.getCause();
+			throw new IllegalStateException(e.getCause());
+		} catch (RuntimeException e) {
+			throw e;
+		} catch (Exception e) {
+			throw new IllegalStateException(e);
+		}
+	}
+	
+	/**
+	 * Creates an executor starting one virtual thread per client. Virtual threads
+	 * are looked up reflectively so the server still runs on older JVMs, where a
+	 * cached thread pool is used instead.
+	 * @return the executor client read loops run on.
+	 */
+	private static ExecutorService newVirtualThreadExecutor() {
+		try {
+			Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+			return (ExecutorService) factory.invoke(null);
+		} catch (ReflectiveOperationException e) {
+			System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Virtual threads are not available on this JVM, using a cached thread pool.");
+			return Executors.newCachedThreadPool();
+		}
+	}
+	
+	/**
+	 * Drains a connection's outbound queue on the writer executor. Everything
+	 * queued since the last drain is copied into one buffer and written with a
+	 * single blocking write, which only ever blocks the writer and never the
+	 * game or lobby thread that sent the message.
+	 */
+	private class SocketDrainer implements OutboundQueue.Drainer {
+		
+		private Socket clientSocket;
+		
+		private SocketDrainer(Socket clientSocket) {
+			this.clientSocket = clientSocket;
+		}
+		
+		@Override
+		public void schedule(OutboundQueue queue) {
+			writerExecutor.execute(() -> drain(queue));
+		}
+		
+		@Override
+		public void overflow(OutboundQueue queue) {
+			System.out.println(CommunicationHandler.SOCKET_LISTENER_INFO + " Disconnecting slow consumer " + clientSocket.getInetAddress());
+			closeSocket();
+		}
+		
+		private void drain(OutboundQueue queue) {
+			try {
+				OutputStream out = clientSocket.getOutputStream();
+				do {
+					ByteBuffer[] batch = queue.batch();
+					int length = 0;
+					for (ByteBuffer buffer : batch)
+						length += buffer.remaining();
+					byte[] bytes = new byte[length];
+					int offset = 0;
+					for (ByteBuffer buffer : batch) {
+						int remaining = buffer.remaining();
+						buffer.get(bytes, offset, remaining);
+						offset += remaining;
+					}
+					if (length > 0)
+						out.write(bytes);
+				} while (!queue.complete());
+				if (queue.isClosing())
+					closeSocket();
+			} catch (IOException e) {
+				closeSocket();
+			}
+		}
+		
+		private void closeSocket() {
+			try {
+				clientSocket.close();
+			} catch (IOException e) {
+				// already closed
+			}
+		}
+		
+	}
+	
+	public Collection<Connection> getConnections() {
 		return connections;
 	}
 	
 	/**
-	 * Get the connection given a username
+	 * Get the logged in connection given a username
 	 * @param username
-	 * @return username if found, null otherwise
+	 * @return the connection if found, null otherwise
 	 */
 	public Connection getConnection(String username) {
-		for (Connection c: this.getConnections()) {
-			if (c.getUsername().equals(username)) return c;
-		}
-		return null;
+		return loginHandler.getSessions().getByUsername(username);
 	}
 	
 	public void setLoginHandler(LoginHandler loginHandler) {
@@ -343,9 +695,7 @@ public class SocketListener {
 	 * @return
 	 */
 	private User getUserByUsername(String username) {
-		for (Connection conn: connections) {
-			if (conn.getUsername().equals(username)) return conn.getUser();
-		}
-		return null;
+		Connection conn = getConnection(username);
+		return conn == null ? null : conn.getUser();
 	}
 }
\ No newline at end of file
@@ -3,13 +3,19 @@ package troublegame.server;
 public class Token {
 	
 	private int id;
+	private int currZone;
 	private int currPos;
 	private Player owner;
 	private Color color;
 	
+	/**
+	 * Creates a token in its home slot, which has the same index as the token's id
+	 */
 	public Token(int tokenID, Player owner) {
 		id = tokenID;
 		this.owner = owner;
+		currZone = Board.SLOT_HOME;
+		currPos = tokenID;
 		setColour();
 	}
 	
@@ -23,10 +29,28 @@ public class Token {
 		return this.id;
 	}
 	
+	/**
+	 * @return The zone the token is in, Board.SLOT_HOME, SLOT_MAIN or SLOT_END
+	 */
+	public int getCurrZone() {
+		return this.currZone;
+	}
+	
+	/**
+	 * @return The index of the token's slot within its zone
+	 */
 	public int getCurrPos() {
 		return this.currPos;
 	}
 	
+	/**
+	 * Records where the token is, called by the board as it moves the token
+	 */
+	void setLocation(int zone, int index) {
+		this.currZone = zone;
+		this.currPos = index;
+	}
+	
 	public Player getOwner() {
 		return this.owner;
 	}
@@ -0,0 +1,90 @@
+package troublegame.server;
+
+import java.util.Arrays;
+
+/**
+ * Remembers the values of positions already searched, keyed by their Zobrist
+ * hash. A position has a fixed number of values, one for each player. The
+ * table has a fixed power-of-two number of entries held in parallel
+ * primitive arrays; a position goes in the entry its hash picks, replacing
+ * what is there unless that was searched deeper.
+ *
+ * Values are only handed back for the depth they were searched to. Deeper
+ * values would often do, but then what a search finds would depend on what
+ * earlier searches left in the table, and a replayed game could go differently.
+ *
+ * A table is used by one search at a time.
+ */
+public class TranspositionTable {
+
+	private final long[] keys;
+	private final double[] values;
+	private final byte[] depths;
+	private final int width;
+	private final int mask;
+	private long probes;
+	private long hits;
+
+	/**
+	 * @param bits is the log2 of the number of entries.
+	 * @param width is the number of values of a position.
+	 */
+	public TranspositionTable(int bits, int width) {
+		int size = 1 << bits;
+		keys = new long[size];
+		values = new double[size * width];
+		this.width = width;
+		depths = new byte[size];
+		mask = size - 1;
+	}
+
+	/**
+	 * @param key is the position's hash.
+	 * @param depth is the depth the values are needed to.
+	 * @param out receives the stored values if they were searched to exactly that depth.
+	 * @return true if they were.
+	 */
+	public boolean probe(long key, int depth, double[] out) {
+		probes++;
+		int i = (int) key & mask;
+		// depth 0 marks an empty entry, stored depths are at least 1
+		if (keys[i] != key || depths[i] != depth)
+			return false;
+		hits++;
+		System.arraycopy(values, i * width, out, 0, width);
+		return true;
+	}
+
+	/**
+	 * Stores the values of a position searched to a depth.
+	 */
+	public void store(long key, int depth, double[] value) {
+		int i = (int) key & mask;
+		if (keys[i] == key && depths[i] > depth)
+			return;
+		keys[i] = key;
+		System.arraycopy(value, 0, values, i * width, width);
+		depths[i] = (byte) depth;
+	}
+
+	/**
+	 * Forgets every position.
+	 */
+	public void clear() {
+		Arrays.fill(depths, (byte) 0);
+		Arrays.fill(keys, 0);
+	}
+
+	public int size() {
+		return keys.length;
+	}
+
+	public long getProbes() {
+		return probes;
+	}
+
+	public long getHits() {
+		return hits;
+	}
+
+}
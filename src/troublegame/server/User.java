@@ -1,12 +1,13 @@
 package troublegame.server;
 
-import java.io.PrintWriter;
 import java.io.Serializable;
 import java.util.ArrayList;
+import java.util.List;
 import java.util.Objects;
 import java.util.UUID;
 
 import troublegame.communication.CommunicationHandler;
+import troublegame.server.io.FriendGraph;
 import troublegame.server.io.UserManager;
 
 /**
@@ -69,6 +70,23 @@ public class User implements Serializable {
 		friends = new ArrayList<>();
 	}
 	
+	/**
+	 * Constructor used when loading a stored user
+	 */
+	public User(UUID id, String email, String username, String password, Color favColor, String pQuot,
+			int onlineStatus, ArrayList<UUID> friends, int gamesPlayed, int gamesWon) {
+		this.id = id;
+		this.email = email;
+		this.username = username;
+		this.password = password;
+		this.favouriteColor = favColor;
+		this.personalQuote = pQuot;
+		this.onlineStatus = onlineStatus;
+		this.friends = friends;
+		this.gamesPlayed = gamesPlayed;
+		this.gamesWon = gamesWon;
+	}
+	
 	/**
 	 * @return Email in lowercase
 	 */
@@ -125,6 +143,7 @@ public class User implements Serializable {
 	public void updateUsername(String u) {
 		setUsername(u);
 		UserManager.saveExistingUser(this);
+		UserManager.getFriendGraph().setUsername(getId(), u);
 	}
 	
 	/**
@@ -187,23 +206,57 @@ public class User implements Serializable {
 	 * @return number of games this user played
 	 */
 	public int getGamesPlayed() {
-		return this.gamesPlayed;
+		int slot = getStatsSlot();
+		if (slot < 0) return this.gamesPlayed;
+		return UserManager.getStatsStore().getGamesPlayed(slot);
 	}
 	
 	/**
 	 * @return number of games this user won
 	 */
 	public int getGamesWon() {
+		int slot = getStatsSlot();
+		if (slot < 0) return this.gamesWon;
+		return UserManager.getStatsStore().getGamesWon(slot);
+	}
+	
+	/**
+	 * @return number of games played as saved with this user, ignoring the statistics store
+	 */
+	int getSavedGamesPlayed() {
+		return this.gamesPlayed;
+	}
+	
+	/**
+	 * @return number of games won as saved with this user, ignoring the statistics store
+	 */
+	int getSavedGamesWon() {
 		return this.gamesWon;
 	}
 	
 	/**
-	 * call this function after a game to increase statistics
+	 * call this function after a game to increase statistics. The statistics of a registered
+	 * user are updated in place in the statistics store, without saving the user
 	 */
 	public void finishedGame(boolean won) {
+		int slot = getStatsSlot();
 		if (won) this.gamesWon++;
 		this.gamesPlayed++;
-		UserManager.saveExistingUser(this);
+		if (slot >= 0) UserManager.getStatsStore().recordGame(slot, won);
+	}
+	
+	/**
+	 * Finds this user's slot in the statistics store. A user seen for the first time
+	 * is given a slot starting from the statistics saved with the user
+	 * @return the slot, or -1 for guests
+	 */
+	private int getStatsSlot() {
+		if (this.id == null) return -1;
+		int slot = UserManager.getStatsStore().slotOf(this.id);
+		if (slot < 0 && UserManager.getStore().contains(this.id)) {
+			slot = UserManager.getStatsStore().allocate(this.id, this.gamesPlayed, this.gamesWon);
+		}
+		return slot;
 	}
 	
 	/**
@@ -251,14 +304,7 @@ public class User implements Serializable {
 	 * @return true if friends, false otherwise
 	 */
 	public boolean isFriend(User user) {
-		ArrayList<UUID> friendList = this.getFriendList();
-		UUID userID = user.getId();
-		for (UUID id: friendList) {
-			if (id.equals(userID)) {
-				return true;
-			}
-		}
-		return false;
+		return UserManager.getFriendGraph().areFriends(getId(), user.getId());
 	}
 	
 	/**
@@ -291,6 +337,7 @@ public class User implements Serializable {
 		if(getFriendList().contains(newFriendId) && newFriend.getFriendList().contains(this.getId())) {
 			UserManager.saveExistingUser(this);
 			UserManager.saveExistingUser(newFriend);
+			UserManager.getFriendGraph().addFriendship(getId(), newFriendId);
 			return true;
 		}
 		else return false;
@@ -325,6 +372,7 @@ public class User implements Serializable {
 		if(getFriendList().contains(oldFriendId) == false && oldFriend.getFriendList().contains(this.getId()) == false) {
 			UserManager.saveExistingUser(this);
 			UserManager.saveExistingUser(oldFriend);
+			UserManager.getFriendGraph().removeFriendship(getId(), oldFriendId);
 			return true;
 		}
 		else return false;
@@ -332,16 +380,16 @@ public class User implements Serializable {
 	}
 	
 	/**
-	 * Given the user's outputstream, send his friends over in a string, separated by %
+	 * Given the user's connection, send his friends over in a string, separated by %
 	 */
-	public void sendFriendList(PrintWriter outputStream) {
-		String friends = "";
-		for(UUID friendID: this.getFriendList()) {
-			if (!friends.equals("")) friends += "%";
-			User friend = UserManager.loadUserById(friendID);
-			friends += friend.getUsername();
+	public void sendFriendList(Connection conn) {
+		StringBuilder friends = new StringBuilder(CommunicationHandler.FRIENDS_GET_LIST);
+		List<FriendGraph.Friend> resolved = UserManager.getFriendGraph().resolve(getFriendList());
+		for(int i = 0; i < resolved.size(); i++) {
+			if (i > 0) friends.append('%');
+			friends.append(resolved.get(i).getUsername());
 		}
-		outputStream.println(CommunicationHandler.FRIENDS_GET_LIST+friends);
+		conn.send(friends.toString());
 	}
 	/**
 	 * Representation of this user as a string
@@ -356,11 +404,10 @@ public class User implements Serializable {
 		user += "\nPersonal Quote: " + getPersonalQuote();
 		user += "\nOnline Status: " + getOnlineStatus();
 		user += "\nFriends: ";
-		for(int i = 0; i < getFriendList().size(); i++) {
-			UUID friendID = getFriendList().get(i);
-			User friend = UserManager.loadUserById(friendID);
-			if(i == 0) user += friend.getUsername();
-			else user += ", " + friend.getUsername();
+		List<FriendGraph.Friend> resolved = UserManager.getFriendGraph().resolve(getFriendList());
+		for(int i = 0; i < resolved.size(); i++) {
+			if(i == 0) user += resolved.get(i).getUsername();
+			else user += ", " + resolved.get(i).getUsername();
 		}
 		
 		return user;
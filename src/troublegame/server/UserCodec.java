@@ -0,0 +1,165 @@
+package troublegame.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.UUID;
+
+/**
+ * Hand-written binary format for stored users, replacing Java serialisation.
+ *
+ * A record starts with a magic byte and a version byte, then the id as two
+ * longs, email, username and password, the favourite color as its ordinal,
+ * the personal quote, the online status, games played and won, and the
+ * friend list as a count followed by packed ids. Strings are an unsigned
+ * short byte length followed by UTF-8, with 0xFFFF meaning null.
+ *
+ * Records written by Java serialisation are still read, so users saved
+ * before the format existed load as before and are converted the next time
+ * they are saved.
+ */
+public final class UserCodec {
+
+	/**
+	 * The first byte of every record.
+	 */
+	public static final byte MAGIC = 0x55;
+
+	/**
+	 * The version written by encode.
+	 */
+	public static final byte VERSION = 1;
+
+	private static final int NULL_STRING = 0xFFFF;
+	private static final int MAX_STRING = 0xFFFE;
+	private static final byte NO_COLOR = -1;
+	private static final Color[] COLORS = Color.values();
+
+	private UserCodec() {
+	}
+
+	/**
+	 * @param user is the user to encode.
+	 * @return the user in the current version of the format.
+	 * @throws IOException if a string is too long for the format.
+	 */
+	public static byte[] encode(User user) throws IOException {
+		ArrayList<UUID> friends = user.getFriendList();
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(96 + friends.size() * 16);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeByte(MAGIC);
+		out.writeByte(VERSION);
+		writeId(out, user.getId());
+		writeString(out, user.getEmail());
+		writeString(out, user.getUsername());
+		writeString(out, user.getPassword());
+		out.writeByte(user.getFavouriteColor() == null ? NO_COLOR : user.getFavouriteColor().ordinal());
+		writeString(out, user.getPersonalQuote());
+		out.writeByte(user.getOnlineStatus());
+		out.writeInt(user.getSavedGamesPlayed());
+		out.writeInt(user.getSavedGamesWon());
+		// copied first so a friend added meanwhile cannot break the count
+		UUID[] ids = friends.toArray(new UUID[0]);
+		out.writeInt(ids.length);
+		for (UUID id : ids)
+			writeId(out, id);
+		return bytes.toByteArray();
+	}
+
+	private static void writeId(DataOutputStream out, UUID id) throws IOException {
+		out.writeLong(id.getMostSignificantBits());
+		out.writeLong(id.getLeastSignificantBits());
+	}
+
+	private static void writeString(DataOutputStream out, String s) throws IOException {
+		if (s == null) {
+			out.writeShort(NULL_STRING);
+			return;
+		}
+		byte[] utf8 = s.getBytes(StandardCharsets.UTF_8);
+		if (utf8.length > MAX_STRING)
+			throw new IOException("String too long for a user record: " + utf8.length + " bytes");
+		out.writeShort(utf8.length);
+		out.write(utf8);
+	}
+
+	/**
+	 * Decodes a user in any version of the format, or written by Java serialisation.
+	 * @param data holds the record.
+	 * @param offset is where the record starts.
+	 * @param length is the length of the record.
+	 * @return the user.
+	 * @throws IOException if the record is damaged or of an unknown version.
+	 */
+	public static User decode(byte[] data, int offset, int length) throws IOException {
+		if (isSerialized(data, offset, length))
+			return decodeSerialized(data, offset, length);
+		ByteBuffer in = ByteBuffer.wrap(data, offset, length);
+		try {
+			if (in.get() != MAGIC)
+				throw new IOException("Not a user record");
+			byte version = in.get();
+			if (version != 1)
+				throw new IOException("Unknown user record version " + version);
+			UUID id = readId(in);
+			String email = readString(in);
+			String username = readString(in);
+			String password = readString(in);
+			byte color = in.get();
+			String quote = readString(in);
+			int onlineStatus = in.get();
+			int gamesPlayed = in.getInt();
+			int gamesWon = in.getInt();
+			int friendCount = in.getInt();
+			if (friendCount < 0 || friendCount > in.remaining() / 16)
+				throw new IOException("Bad friend count " + friendCount);
+			ArrayList<UUID> friends = new ArrayList<UUID>(friendCount);
+			for (int i = 0; i < friendCount; i++)
+				friends.add(readId(in));
+			return new User(id, email, username, password, color == NO_COLOR ? null : COLORS[color], quote, onlineStatus,
+					friends, gamesPlayed, gamesWon);
+		} catch (BufferUnderflowException | IndexOutOfBoundsException e) {
+			throw new IOException("User record cut short", e);
+		}
+	}
+
+	private static UUID readId(ByteBuffer in) {
+		return new UUID(in.getLong(), in.getLong());
+	}
+
+	private static String readString(ByteBuffer in) {
+		int length = in.getShort() & 0xFFFF;
+		if (length == NULL_STRING)
+			return null;
+		if (length > in.remaining())
+			throw new BufferUnderflowException();
+		String s = new String(in.array(), in.arrayOffset() + in.position(), length, StandardCharsets.UTF_8);
+		in.position(in.position() + length);
+		return s;
+	}
+
+	/**
+	 * @return true if the record was written by Java serialisation.
+	 */
+	public static boolean isSerialized(byte[] data, int offset, int length) {
+		return length >= 2 && data[offset] == (byte) 0xAC && data[offset + 1] == (byte) 0xED;
+	}
+
+	private static User decodeSerialized(byte[] data, int offset, int length) throws IOException {
+		ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(data, offset, length));
+		try {
+			return (User) in.readObject();
+		} catch (ClassNotFoundException | ClassCastException e) {
+			throw new IOException("Not a serialised user", e);
+		} finally {
+			in.close();
+		}
+	}
+
+}
@@ -0,0 +1,188 @@
+package troublegame.server.io;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.UUID;
+
+import troublegame.server.User;
+import troublegame.server.UserCodec;
+
+/**
+ * Keeps each user in its own file in the user directory, named
+ * after the email hash and id of the user and found through a UserIndex.
+ */
+public class FileUserStore implements UserStore {
+
+	private File directory;
+	private UserIndex index;
+
+	/**
+	 * @param path The user directory
+	 */
+	public FileUserStore(String path) {
+		this.directory = new File(path);
+		this.index = new UserIndex(path);
+	}
+
+	@Override
+	public void open() throws IOException {
+		index.load();
+	}
+
+	@Override
+	public UUID findIdByEmail(String email) {
+		return index.getIdByEmail(email);
+	}
+
+	@Override
+	public boolean contains(UUID id) {
+		return index.getById(id) != null;
+	}
+
+	@Override
+	public User read(UUID id) {
+
+		File userProfile = index.getById(id);
+		if (userProfile == null) {
+			return null;
+		}
+
+		try {
+
+			// Try read in and open the requested list
+			byte[] bytes = Files.readAllBytes(userProfile.toPath());
+			return UserCodec.decode(bytes, 0, bytes.length);
+
+		} catch (IOException e) {
+			// Catch input output error
+			System.out.println(e.toString());
+			return null;
+		}
+
+	}
+
+	@Override
+	public synchronized int create(User user) {
+
+		int emailHash = user.getEmail().hashCode();
+		File userProfile = new File(directory, UserIndex.fileName(emailHash, user.getId()));
+
+		// Check if the user directory exists or can be created
+		if (directory.isDirectory() == false) {
+			if (directory.mkdirs() == false) {
+				return UserManager.DIRECTORY_ERROR;
+			}
+		}
+
+		// Check that a user with this email doesnt exist already
+		if (index.getIdByEmail(user.getEmail()) != null) return UserManager.EMAIL_EXISTS;
+
+		try {
+
+			// Write the this list object to the file
+			FileOutputStream fileOutput = new FileOutputStream(userProfile);
+			fileOutput.write(UserCodec.encode(user));
+			fileOutput.close();
+
+		} catch (IOException e) {
+			System.out.println(e.toString());
+		}
+
+		index.add(emailHash, user.getId());
+
+		return UserManager.SUCCESS;
+
+	}
+
+	/**
+	 * The user is encoded in memory first so a change made meanwhile cannot leave a
+	 * half written file behind.
+	 */
+	@Override
+	public synchronized boolean write(User user) {
+
+		// A user deleted since it was saved has nothing left to write
+		File userProfile = index.getById(user.getId());
+		if (userProfile == null) {
+			return true;
+		}
+
+		try {
+
+			byte[] bytes = UserCodec.encode(user);
+
+			// Write the this list object to the file
+			FileOutputStream fileOutput = new FileOutputStream(userProfile);
+			fileOutput.write(bytes);
+			fileOutput.close();
+
+		} catch (IOException | RuntimeException e) {
+			System.out.println(e.toString());
+			return false;
+		}
+
+		return true;
+
+	}
+
+	@Override
+	public synchronized int migrate(String currentEmail, User user) {
+
+		int currentHash = currentEmail.toLowerCase().hashCode();
+		File currentFile = new File(directory, UserIndex.fileName(currentHash, user.getId()));
+		try {
+			Files.move(currentFile.toPath(), currentFile.toPath().resolveSibling(UserIndex.fileName(user.getEmail().hashCode(), user.getId())));
+		} catch (IOException e) {
+			e.printStackTrace();
+			return UserManager.RENAME_ERROR;
+		}
+
+		index.remove(currentHash, user.getId());
+		index.add(user.getEmail().hashCode(), user.getId());
+
+		return UserManager.SUCCESS;
+
+	}
+
+	@Override
+	public synchronized int delete(User user) {
+
+		int emailHash = user.getEmail().hashCode();
+		File userProfile = new File(directory, UserIndex.fileName(emailHash, user.getId()));
+
+		if (userProfile.exists() == false) {
+			return UserManager.ACCOUNT_NOT_FOUND;
+		}
+		if (userProfile.delete() == false) {
+			return UserManager.DELETION_ERROR;
+		}
+
+		index.remove(emailHash, user.getId());
+		return UserManager.SUCCESS;
+
+	}
+
+	@Override
+	public List<UUID> getIds() {
+		return index.getIds();
+	}
+
+	@Override
+	public int size() {
+		return index.size();
+	}
+
+	@Override
+	public String getStats() {
+		return "File user store " + size() + " users";
+	}
+
+	@Override
+	public void close() throws IOException {
+		index.close();
+	}
+
+}
@@ -0,0 +1,185 @@
+package troublegame.server.io;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Who is friends with whom, kept in memory as adjacency lists keyed by user
+ * id together with every user's username and whether the user is online, so
+ * a friend list is rendered from memory in time proportional to its length.
+ *
+ * The friend lists saved with each user stay the stored copy; the graph is
+ * built from them when first used and kept up to date as friendships,
+ * usernames and accounts change.
+ */
+public class FriendGraph {
+
+	/**
+	 * A resolved friend.
+	 */
+	public static final class Friend {
+
+		private final UUID id;
+		private final String username;
+		private final boolean online;
+
+		private Friend(UUID id, String username, boolean online) {
+			this.id = id;
+			this.username = username;
+			this.online = online;
+		}
+
+		public UUID getId() {
+			return id;
+		}
+
+		public String getUsername() {
+			return username;
+		}
+
+		public boolean isOnline() {
+			return online;
+		}
+
+	}
+
+	private Map<UUID, Set<UUID>> adjacency;
+	private Map<UUID, String> usernames;
+	private Set<UUID> online;
+
+	public FriendGraph() {
+		this.adjacency = new HashMap<UUID, Set<UUID>>();
+		this.usernames = new HashMap<UUID, String>();
+		this.online = new HashSet<UUID>();
+	}
+
+	/**
+	 * Adds a user, or replaces what is known about it.
+	 * @param id is the user's id.
+	 * @param username is the user's username.
+	 * @param friends are the ids of the user's friends, in the order they were added.
+	 */
+	public synchronized void addUser(UUID id, String username, Collection<UUID> friends) {
+		usernames.put(id, username);
+		adjacency.put(id, new LinkedHashSet<UUID>(friends));
+	}
+
+	/**
+	 * Removes a user and every friendship it is part of.
+	 * @param id is the user's id.
+	 */
+	public synchronized void removeUser(UUID id) {
+		Set<UUID> friends = adjacency.remove(id);
+		if (friends != null)
+			for (UUID friend : friends) {
+				Set<UUID> theirs = adjacency.get(friend);
+				if (theirs != null)
+					theirs.remove(id);
+			}
+		usernames.remove(id);
+		online.remove(id);
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @param username is the user's new username.
+	 */
+	public synchronized void setUsername(UUID id, String username) {
+		if (usernames.containsKey(id))
+			usernames.put(id, username);
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @param isOnline is true if the user has just logged in, false if it has left.
+	 */
+	public synchronized void setOnline(UUID id, boolean isOnline) {
+		if (!isOnline)
+			online.remove(id);
+		else if (usernames.containsKey(id))
+			online.add(id);
+	}
+
+	/**
+	 * Makes two users friends of each other.
+	 * @return false if either user is unknown.
+	 */
+	public synchronized boolean addFriendship(UUID a, UUID b) {
+		Set<UUID> ofA = adjacency.get(a);
+		Set<UUID> ofB = adjacency.get(b);
+		if (ofA == null || ofB == null)
+			return false;
+		ofA.add(b);
+		ofB.add(a);
+		return true;
+	}
+
+	/**
+	 * Ends the friendship of two users.
+	 */
+	public synchronized void removeFriendship(UUID a, UUID b) {
+		Set<UUID> ofA = adjacency.get(a);
+		Set<UUID> ofB = adjacency.get(b);
+		if (ofA != null)
+			ofA.remove(b);
+		if (ofB != null)
+			ofB.remove(a);
+	}
+
+	/**
+	 * @return true if the two users are friends.
+	 */
+	public synchronized boolean areFriends(UUID a, UUID b) {
+		Set<UUID> ofA = adjacency.get(a);
+		return ofA != null && ofA.contains(b);
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @return the ids of the user's friends, empty for an unknown user.
+	 */
+	public synchronized List<UUID> getFriends(UUID id) {
+		Set<UUID> friends = adjacency.get(id);
+		return friends == null ? new ArrayList<UUID>() : new ArrayList<UUID>(friends);
+	}
+
+	/**
+	 * Looks up the username and online status of many users at once.
+	 * @param ids are the ids of the users.
+	 * @return the known users, in the order given.
+	 */
+	public synchronized List<Friend> resolve(Collection<UUID> ids) {
+		List<Friend> resolved = new ArrayList<Friend>(ids.size());
+		for (UUID id : ids) {
+			String username = usernames.get(id);
+			if (username != null)
+				resolved.add(new Friend(id, username, online.contains(id)));
+		}
+		return resolved;
+	}
+
+	/**
+	 * @return the number of users in the graph.
+	 */
+	public synchronized int size() {
+		return usernames.size();
+	}
+
+	/**
+	 * @return a one line summary of the graph.
+	 */
+	public synchronized String getStats() {
+		long edges = 0;
+		for (Set<UUID> friends : adjacency.values())
+			edges += friends.size();
+		return "Friend graph " + size() + " users, " + edges / 2 + " friendships, " + online.size() + " online";
+	}
+
+}
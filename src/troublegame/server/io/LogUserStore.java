@@ -0,0 +1,605 @@
+package troublegame.server.io;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.zip.CRC32;
+
+import troublegame.server.User;
+import troublegame.server.UserCodec;
+
+/**
+ * Keeps every user in an append-only log split into numbered segment files.
+ * Each save appends the whole user as a new record and each deletion
+ * appends a tombstone, so the disk only ever sees sequential writes. An
+ * index in memory points at the latest record of every user.
+ *
+ * A record is its length, a CRC32 of its body, then the body: the record
+ * type, the user's id and email and the user encoded by UserCodec. On open every
+ * segment is replayed in order to rebuild the index; a record cut short or
+ * failing its checksum ends the segment and the tail is cut off, which is
+ * how the log recovers from a crash in the middle of an append.
+ *
+ * Once more than half the log is dead records a background thread copies
+ * the live records of every finished segment into one new segment, which
+ * starts with a marker so that the segments it replaces are discarded even
+ * if the process dies before they are deleted.
+ */
+public class LogUserStore implements UserStore {
+
+	/**
+	 * The size at which the segment being appended to is finished and a new one started.
+	 */
+	public static final int SEGMENT_SIZE = 8 * 1024 * 1024;
+
+	/**
+	 * The least number of dead bytes worth compacting.
+	 */
+	public static final int COMPACT_MIN_GARBAGE = 1024 * 1024;
+
+	private static final String SEGMENT_PREFIX = "users-";
+	private static final String SEGMENT_SUFFIX = ".log";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final byte PUT = 1;
+	private static final byte DELETE = 2;
+	private static final byte COMPACTED = 3;
+
+	/**
+	 * The length and checksum in front of every record body.
+	 */
+	private static final int HEADER_LENGTH = 8;
+
+	/**
+	 * The type and id at the start of every record body.
+	 */
+	private static final int KEY_LENGTH = 17;
+
+	private static final int MAX_BODY_LENGTH = SEGMENT_SIZE;
+
+	/**
+	 * Where the latest record of a user is.
+	 */
+	private static class Location {
+
+		private int segment;
+		private long offset;
+		private int length;
+		private String email;
+
+		private Location(int segment, long offset, int length, String email) {
+			this.segment = segment;
+			this.offset = offset;
+			this.length = length;
+			this.email = email;
+		}
+
+	}
+
+	private File directory;
+	private TreeMap<Integer, FileChannel> segments;
+	private Map<UUID, Location> locations;
+	private Map<String, UUID> emails;
+	private int active;
+	private long activeSize;
+	private long totalBytes;
+	private long liveBytes;
+	private ExecutorService compactor;
+	private boolean compacting;
+	private Object compactLock;
+	private long appends;
+	private long compactions;
+	private long reclaimedBytes;
+	private long recoveredBytes;
+
+	/**
+	 * @param path The directory holding the segments
+	 */
+	public LogUserStore(String path) {
+		this.directory = new File(path);
+		this.segments = new TreeMap<Integer, FileChannel>();
+		this.locations = new HashMap<UUID, Location>();
+		this.emails = new HashMap<String, UUID>();
+		this.compactLock = new Object();
+		this.compactor = Executors.newSingleThreadExecutor(r -> {
+			Thread t = new Thread(r, "user-log-compactor");
+			t.setDaemon(true);
+			return t;
+		});
+	}
+
+	/**
+	 * Replays the log. If there is no log yet, the user files of the
+	 * file store in the same directory are imported into a new one.
+	 */
+	@Override
+	public synchronized void open() throws IOException {
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		File[] tmps = directory.listFiles((dir, name) -> name.startsWith(SEGMENT_PREFIX) && name.endsWith(TMP_SUFFIX));
+		for (File tmp : tmps)
+			tmp.delete();
+
+		List<Integer> numbers = listSegments();
+		for (int i = numbers.size() - 1; i > 0; i--) {
+			if (startsWithMarker(numbers.get(i))) {
+				// a compaction finished but died before deleting the segments it replaced
+				for (int n : numbers.subList(0, i))
+					segmentFile(n).delete();
+				numbers = numbers.subList(i, numbers.size());
+				break;
+			}
+		}
+
+		for (int i = 0; i < numbers.size(); i++)
+			replay(numbers.get(i), i == numbers.size() - 1);
+
+		if (segments.isEmpty()) {
+			importUserFiles();
+			active = 1;
+			segments.put(active, openSegment(active));
+			activeSize = segments.get(active).size();
+		} else {
+			active = segments.lastKey();
+			activeSize = segments.get(active).size();
+		}
+	}
+
+	private List<Integer> listSegments() {
+		List<Integer> numbers = new ArrayList<Integer>();
+		String[] names = directory.list();
+		if (names == null)
+			return numbers;
+		for (String name : names) {
+			if (!name.startsWith(SEGMENT_PREFIX) || !name.endsWith(SEGMENT_SUFFIX))
+				continue;
+			try {
+				numbers.add(Integer.parseInt(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+			} catch (NumberFormatException e) {
+				continue;
+			}
+		}
+		numbers.sort(null);
+		return numbers;
+	}
+
+	private File segmentFile(int number) {
+		return new File(directory, String.format("%s%06d%s", SEGMENT_PREFIX, number, SEGMENT_SUFFIX));
+	}
+
+	private FileChannel openSegment(int number) throws IOException {
+		return FileChannel.open(segmentFile(number).toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+	}
+
+	/**
+	 * @return true if the segment was written by a compaction.
+	 */
+	private boolean startsWithMarker(int number) throws IOException {
+		DataInputStream in = new DataInputStream(new FileInputStream(segmentFile(number)));
+		try {
+			byte[] body = readRecord(in);
+			return body != null && body[0] == COMPACTED;
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads one record.
+	 * @return the record body, or null at the end of the segment or at a damaged record.
+	 */
+	private static byte[] readRecord(DataInputStream in) throws IOException {
+		try {
+			int length = in.readInt();
+			if (length < KEY_LENGTH || length > MAX_BODY_LENGTH)
+				return null;
+			int crc = in.readInt();
+			byte[] body = new byte[length];
+			in.readFully(body);
+			return checksum(body) == crc ? body : null;
+		} catch (EOFException e) {
+			return null;
+		}
+	}
+
+	private static int checksum(byte[] body) {
+		CRC32 crc = new CRC32();
+		crc.update(body);
+		return (int) crc.getValue();
+	}
+
+	/**
+	 * Applies every record of a segment to the index. Anything after the
+	 * last good record of the newest segment is cut off so appends carry on
+	 * from there.
+	 */
+	private void replay(int number, boolean newest) throws IOException {
+		FileChannel channel = openSegment(number);
+		long size = channel.size();
+		long offset = 0;
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(segmentFile(number))));
+		try {
+			byte[] body;
+			while ((body = readRecord(in)) != null) {
+				apply(body, number, offset);
+				offset += HEADER_LENGTH + body.length;
+			}
+		} finally {
+			in.close();
+		}
+		if (offset < size) {
+			System.out.println("Damaged user log record in " + segmentFile(number) + " at " + offset + ", " + (size - offset) + " bytes lost");
+			recoveredBytes += size - offset;
+			if (newest)
+				channel.truncate(offset);
+		}
+		totalBytes += offset;
+		segments.put(number, channel);
+	}
+
+	/**
+	 * Points the index at a record.
+	 */
+	private void apply(byte[] body, int segment, long offset) {
+		ByteBuffer buffer = ByteBuffer.wrap(body);
+		byte type = buffer.get();
+		UUID id = new UUID(buffer.getLong(), buffer.getLong());
+		int length = HEADER_LENGTH + body.length;
+		if (type == PUT) {
+			byte[] emailBytes = new byte[buffer.getShort() & 0xFFFF];
+			buffer.get(emailBytes);
+			String email = new String(emailBytes, StandardCharsets.UTF_8);
+			forget(locations.put(id, new Location(segment, offset, length, email)), id);
+			emails.put(email, id);
+			liveBytes += length;
+		} else if (type == DELETE) {
+			forget(locations.remove(id), id);
+		}
+	}
+
+	private void forget(Location previous, UUID id) {
+		if (previous == null)
+			return;
+		liveBytes -= previous.length;
+		emails.remove(previous.email, id);
+	}
+
+	/**
+	 * Moves the serialised user files of the file store into the log. They
+	 * are written to a temporary first segment that is only renamed into
+	 * place once every file has been handled, so a crash part way through
+	 * leaves no log and the import starts over. A file that cannot be read
+	 * is skipped and the rest are still imported.
+	 */
+	private void importUserFiles() throws IOException {
+		File[] files = directory.listFiles((dir, name) -> name.endsWith(".ser"));
+		if (files == null || files.length == 0)
+			return;
+		File tmp = new File(directory, segmentFile(1).getName() + TMP_SUFFIX);
+		int imported = 0;
+		long size = 0;
+		try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+				StandardOpenOption.WRITE)) {
+			for (File file : files) {
+				User user;
+				try {
+					byte[] bytes = Files.readAllBytes(file.toPath());
+					user = UserCodec.decode(bytes, 0, bytes.length);
+				} catch (IOException | RuntimeException e) {
+					System.out.println("Cannot import user file " + file.getName() + ": " + e);
+					continue;
+				}
+				if (emails.containsKey(user.getEmail()))
+					continue;
+				byte[] body = body(PUT, user.getId(), user.getEmail(), UserCodec.encode(user));
+				writeFully(out, record(body), size);
+				apply(body, 1, size);
+				size += HEADER_LENGTH + body.length;
+				imported++;
+			}
+			out.force(true);
+		} catch (IOException e) {
+			tmp.delete();
+			locations.clear();
+			emails.clear();
+			liveBytes = 0;
+			throw e;
+		}
+		Files.move(tmp.toPath(), segmentFile(1).toPath(), StandardCopyOption.ATOMIC_MOVE);
+		totalBytes += size;
+		System.out.println("Imported " + imported + " of " + files.length + " user files into " + directory);
+	}
+
+	/**
+	 * Appends a record to the newest segment, starting a new segment first if it is full.
+	 */
+	private void append(byte type, UUID id, String email, byte[] user) throws IOException {
+		if (!segments.containsKey(active))
+			throw new IOException("The user log in " + directory + " is not open");
+		byte[] body = body(type, id, email, user);
+		ByteBuffer record = record(body);
+		if (activeSize > 0 && activeSize + record.remaining() > SEGMENT_SIZE)
+			roll();
+		long offset = activeSize;
+		writeFully(segments.get(active), record, offset);
+		activeSize += HEADER_LENGTH + body.length;
+		totalBytes += HEADER_LENGTH + body.length;
+		apply(body, active, offset);
+		appends++;
+		maybeCompact();
+	}
+
+	/**
+	 * @return the body of a record: its type, the user's id and, for a save, the email and encoded user.
+	 */
+	private static byte[] body(byte type, UUID id, String email, byte[] user) throws IOException {
+		byte[] emailBytes = email == null ? new byte[0] : email.getBytes(StandardCharsets.UTF_8);
+		int bodyLength = KEY_LENGTH + (type == PUT ? 2 + emailBytes.length + user.length : 0);
+		if (bodyLength > MAX_BODY_LENGTH)
+			throw new IOException("User record too large: " + bodyLength);
+		ByteBuffer body = ByteBuffer.allocate(bodyLength);
+		body.put(type).putLong(id.getMostSignificantBits()).putLong(id.getLeastSignificantBits());
+		if (type == PUT)
+			body.putShort((short) emailBytes.length).put(emailBytes).put(user);
+		return body.array();
+	}
+
+	/**
+	 * @return the body with its length and checksum in front, ready to write.
+	 */
+	private static ByteBuffer record(byte[] body) {
+		ByteBuffer record = ByteBuffer.allocate(HEADER_LENGTH + body.length);
+		record.putInt(body.length).putInt(checksum(body)).put(body);
+		record.flip();
+		return record;
+	}
+
+	private static void writeFully(FileChannel channel, ByteBuffer buffer, long position) throws IOException {
+		while (buffer.hasRemaining())
+			position += channel.write(buffer, position);
+	}
+
+	private static ByteBuffer readFully(FileChannel channel, int length, long position) throws IOException {
+		ByteBuffer buffer = ByteBuffer.allocate(length);
+		while (buffer.hasRemaining()) {
+			int n = channel.read(buffer, position);
+			if (n < 0)
+				throw new EOFException("User log record cut short at " + position);
+			position += n;
+		}
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Finishes the newest segment and starts the next one.
+	 */
+	private void roll() throws IOException {
+		segments.get(active).force(false);
+		active++;
+		activeSize = 0;
+		segments.put(active, openSegment(active));
+	}
+
+	private void maybeCompact() {
+		long garbage = totalBytes - liveBytes;
+		if (compacting || garbage < COMPACT_MIN_GARBAGE || garbage <= liveBytes)
+			return;
+		compacting = true;
+		compactor.execute(() -> {
+			try {
+				compact();
+			} catch (IOException e) {
+				System.out.println("User log compaction failed: " + e);
+			} finally {
+				synchronized (this) {
+					compacting = false;
+				}
+			}
+		});
+	}
+
+	/**
+	 * Copies the live records of every finished segment into a single new
+	 * segment and deletes the old ones. Finished segments never change, so
+	 * the copying is done without holding the store; it is only held to
+	 * start a new segment and to swap the copy in, and users saved or
+	 * deleted in the meantime keep their newer records.
+	 * @throws IOException if the new segment cannot be written, the old segments are then kept.
+	 */
+	public void compact() throws IOException {
+		synchronized (compactLock) {
+			int limit;
+			Map<UUID, Location> live = new HashMap<UUID, Location>();
+			TreeMap<Integer, FileChannel> sources;
+			synchronized (this) {
+				roll();
+				limit = active;
+				for (Map.Entry<UUID, Location> e : locations.entrySet()) {
+					if (e.getValue().segment < limit)
+						live.put(e.getKey(), e.getValue());
+				}
+				sources = new TreeMap<Integer, FileChannel>(segments.headMap(limit));
+			}
+
+			int target = limit - 1;
+			File tmp = new File(directory, segmentFile(target).getName() + TMP_SUFFIX);
+			Map<UUID, Location> moved = new HashMap<UUID, Location>();
+			long size = 0;
+			try (FileChannel out = FileChannel.open(tmp.toPath(), StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING,
+					StandardOpenOption.WRITE)) {
+				byte[] marker = new byte[KEY_LENGTH];
+				marker[0] = COMPACTED;
+				ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH + KEY_LENGTH);
+				header.putInt(KEY_LENGTH).putInt(checksum(marker)).put(marker).flip();
+				writeFully(out, header, size);
+				size += HEADER_LENGTH + KEY_LENGTH;
+				for (Map.Entry<UUID, Location> e : live.entrySet()) {
+					Location l = e.getValue();
+					writeFully(out, readFully(sources.get(l.segment), l.length, l.offset), size);
+					moved.put(e.getKey(), new Location(target, size, l.length, l.email));
+					size += l.length;
+				}
+				out.force(true);
+			} catch (IOException e) {
+				tmp.delete();
+				throw e;
+			}
+
+			synchronized (this) {
+				if (segments.get(target) != sources.get(target)) {
+					tmp.delete();
+					throw new IOException("User store closed while compacting");
+				}
+				long before = 0;
+				for (FileChannel channel : sources.values()) {
+					before += channel.size();
+					channel.close();
+				}
+				Files.move(tmp.toPath(), segmentFile(target).toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+				for (int n : sources.headMap(target).keySet())
+					segmentFile(n).delete();
+				segments.headMap(limit).clear();
+				segments.put(target, openSegment(target));
+				for (Map.Entry<UUID, Location> e : moved.entrySet()) {
+					// a user saved or deleted while copying has a newer record, its copy is dead
+					if (locations.get(e.getKey()) == live.get(e.getKey()))
+						locations.put(e.getKey(), e.getValue());
+				}
+
+				totalBytes += size - before;
+				reclaimedBytes += before - size;
+				compactions++;
+				System.out.println("Compacted the user log into " + segmentFile(target).getName() + ", " + (before - size) + " bytes reclaimed");
+			}
+		}
+	}
+
+	@Override
+	public synchronized UUID findIdByEmail(String email) {
+		return emails.get(email);
+	}
+
+	@Override
+	public synchronized boolean contains(UUID id) {
+		return locations.containsKey(id);
+	}
+
+	@Override
+	public synchronized User read(UUID id) {
+		Location l = locations.get(id);
+		if (l == null)
+			return null;
+		try {
+			ByteBuffer record = readFully(segments.get(l.segment), l.length, l.offset);
+			DataInputStream in = new DataInputStream(new ByteArrayInputStream(record.array()));
+			byte[] body = readRecord(in);
+			if (body == null) {
+				System.out.println("Damaged user log record for " + id);
+				return null;
+			}
+			int userOffset = KEY_LENGTH + 2 + (ByteBuffer.wrap(body).getShort(KEY_LENGTH) & 0xFFFF);
+			return UserCodec.decode(body, userOffset, body.length - userOffset);
+		} catch (IOException e) {
+			System.out.println(e.toString());
+			return null;
+		}
+	}
+
+	@Override
+	public synchronized int create(User user) {
+		if (emails.containsKey(user.getEmail()))
+			return UserManager.EMAIL_EXISTS;
+		try {
+			append(PUT, user.getId(), user.getEmail(), UserCodec.encode(user));
+		} catch (IOException e) {
+			System.out.println(e.toString());
+			return UserManager.DIRECTORY_ERROR;
+		}
+		return UserManager.SUCCESS;
+	}
+
+	@Override
+	public synchronized boolean write(User user) {
+		// A user deleted since it was saved has nothing left to write
+		if (!locations.containsKey(user.getId()))
+			return true;
+		try {
+			append(PUT, user.getId(), user.getEmail(), UserCodec.encode(user));
+		} catch (IOException | RuntimeException e) {
+			System.out.println(e.toString());
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * There is nothing to rename, the user is simply appended under its new email.
+	 */
+	@Override
+	public synchronized int migrate(String currentEmail, User user) {
+		UUID owner = emails.get(user.getEmail());
+		if (!locations.containsKey(user.getId()) || (owner != null && !owner.equals(user.getId())))
+			return UserManager.RENAME_ERROR;
+		return write(user) ? UserManager.SUCCESS : UserManager.RENAME_ERROR;
+	}
+
+	@Override
+	public synchronized int delete(User user) {
+		if (!locations.containsKey(user.getId()))
+			return UserManager.ACCOUNT_NOT_FOUND;
+		try {
+			append(DELETE, user.getId(), null, null);
+		} catch (IOException e) {
+			System.out.println(e.toString());
+			return UserManager.DELETION_ERROR;
+		}
+		return UserManager.SUCCESS;
+	}
+
+	@Override
+	public synchronized List<UUID> getIds() {
+		return new ArrayList<UUID>(locations.keySet());
+	}
+
+	@Override
+	public synchronized int size() {
+		return locations.size();
+	}
+
+	@Override
+	public synchronized String getStats() {
+		return "Log user store " + size() + " users in " + segments.size() + " segments, " + liveBytes + " of " + totalBytes
+				+ " bytes live, " + appends + " appends, " + compactions + " compactions (" + reclaimedBytes + " bytes reclaimed), "
+				+ recoveredBytes + " bytes lost to damage";
+	}
+
+	@Override
+	public synchronized void close() throws IOException {
+		compactor.shutdown();
+		for (FileChannel channel : segments.values()) {
+			channel.force(true);
+			channel.close();
+		}
+		segments.clear();
+	}
+
+}
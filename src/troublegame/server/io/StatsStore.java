@@ -0,0 +1,169 @@
+package troublegame.server.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Games played and won of every user, kept in a memory-mapped file of
+ * fixed-size records. Each user is given the next free slot the first time
+ * its statistics are needed, so recording a finished game is two writes
+ * into the mapped file instead of saving the whole user.
+ *
+ * The file starts with a header holding a magic number, the format version
+ * and the number of slots in use, followed by one record per slot: the
+ * user's id as two longs, games played, games won and four reserved bytes.
+ */
+public class StatsStore {
+
+	/**
+	 * The name of the statistics file within the user directory.
+	 */
+	public static final String STATS_FILE = "stats.dat";
+
+	/**
+	 * The length of one user's record.
+	 */
+	public static final int RECORD_LENGTH = 28;
+
+	private static final int MAGIC = 0x54475354;
+	private static final int VERSION = 1;
+	private static final int HEADER_LENGTH = 12;
+	private static final int USED_OFFSET = 8;
+	private static final int PLAYED_OFFSET = 16;
+	private static final int WON_OFFSET = 20;
+	private static final int RESERVED_OFFSET = 24;
+	private static final int INITIAL_SLOTS = 1024;
+
+	private File file;
+	private FileChannel channel;
+	private volatile MappedByteBuffer map;
+	private int capacity;
+	private int used;
+	private Map<UUID, Integer> slots;
+
+	/**
+	 * Constructs the store, call open before use.
+	 * @param path is the user directory.
+	 */
+	public StatsStore(String path) {
+		this.file = new File(path, STATS_FILE);
+		this.slots = new ConcurrentHashMap<UUID, Integer>();
+	}
+
+	/**
+	 * Maps the statistics file, creating it if needed. A file that is not a
+	 * statistics file is started over; users are then given new slots seeded
+	 * from the statistics saved with them.
+	 * @throws IOException if the file cannot be mapped.
+	 */
+	public synchronized void open() throws IOException {
+		File directory = file.getParentFile();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+		long size = channel.size();
+		capacity = Math.max(INITIAL_SLOTS, (int) ((size - HEADER_LENGTH) / RECORD_LENGTH));
+		remap();
+		if (size < HEADER_LENGTH || map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+			if (size > 0)
+				System.out.println("Starting over " + file + ", it is not a statistics file");
+			map.putInt(0, MAGIC).putInt(4, VERSION).putInt(USED_OFFSET, 0);
+		}
+		used = Math.min(map.getInt(USED_OFFSET), capacity);
+		for (int slot = 0; slot < used; slot++) {
+			int at = offset(slot);
+			slots.put(new UUID(map.getLong(at), map.getLong(at + 8)), slot);
+		}
+	}
+
+	private void remap() throws IOException {
+		map = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_LENGTH + (long) capacity * RECORD_LENGTH);
+	}
+
+	private static int offset(int slot) {
+		return HEADER_LENGTH + slot * RECORD_LENGTH;
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @return the user's slot, or -1 if the user has none yet.
+	 */
+	public int slotOf(UUID id) {
+		Integer slot = slots.get(id);
+		return slot == null ? -1 : slot;
+	}
+
+	/**
+	 * Returns the user's slot, giving the user the next free one if it has none.
+	 * @param id is the user's id.
+	 * @param gamesPlayed is the number of games played stored in a new slot.
+	 * @param gamesWon is the number of games won stored in a new slot.
+	 * @return the user's slot.
+	 */
+	public synchronized int allocate(UUID id, int gamesPlayed, int gamesWon) {
+		Integer existing = slots.get(id);
+		if (existing != null)
+			return existing;
+		if (used == capacity) {
+			capacity *= 2;
+			try {
+				remap();
+			} catch (IOException e) {
+				throw new IllegalStateException("Cannot grow " + file, e);
+			}
+		}
+		int slot = used;
+		int at = offset(slot);
+		map.putLong(at, id.getMostSignificantBits()).putLong(at + 8, id.getLeastSignificantBits());
+		map.putInt(at + PLAYED_OFFSET, gamesPlayed).putInt(at + WON_OFFSET, gamesWon).putInt(at + RESERVED_OFFSET, 0);
+		// the slot only counts once its record is complete
+		map.putInt(USED_OFFSET, ++used);
+		slots.put(id, slot);
+		return slot;
+	}
+
+	public int getGamesPlayed(int slot) {
+		return map.getInt(offset(slot) + PLAYED_OFFSET);
+	}
+
+	public int getGamesWon(int slot) {
+		return map.getInt(offset(slot) + WON_OFFSET);
+	}
+
+	/**
+	 * Counts a finished game.
+	 * @param slot is the user's slot.
+	 * @param won is true if the user won the game.
+	 */
+	public synchronized void recordGame(int slot, boolean won) {
+		int at = offset(slot);
+		map.putInt(at + PLAYED_OFFSET, map.getInt(at + PLAYED_OFFSET) + 1);
+		if (won)
+			map.putInt(at + WON_OFFSET, map.getInt(at + WON_OFFSET) + 1);
+	}
+
+	/**
+	 * @return the number of slots in use.
+	 */
+	public synchronized int size() {
+		return used;
+	}
+
+	/**
+	 * Writes the mapped file to disk and closes it.
+	 */
+	public synchronized void close() throws IOException {
+		if (channel == null)
+			return;
+		map.force();
+		channel.close();
+		channel = null;
+	}
+
+}
@@ -0,0 +1,309 @@
+package troublegame.server.io;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import troublegame.communication.CommandDispatcher;
+import troublegame.server.User;
+
+/**
+ * Bounded cache of loaded users with write-behind. Users are kept in least
+ * recently used order and the eldest is dropped once the cache is full.
+ * Saving a user only marks it dirty; dirty users are written in one batch
+ * by a background thread every flush period and are never dropped from the
+ * cache before they have been written, so a load always sees the latest
+ * changes.
+ *
+ * Users that are logged in are pinned: they are never dropped while pinned,
+ * so everyone loading a logged in user gets the instance its connection
+ * holds rather than a second copy whose save would overwrite the first.
+ */
+public class UserCache {
+
+	/**
+	 * The default number of users kept in memory.
+	 */
+	public static final int DEFAULT_CAPACITY = 10000;
+
+	/**
+	 * The default time between writes of dirty users in milliseconds.
+	 */
+	public static final int DEFAULT_FLUSH_PERIOD = 1000;
+
+	/**
+	 * Writes a user to disk.
+	 */
+	public interface Writer {
+
+		/**
+		 * @param user is the user to write.
+		 * @return true if the user was written and no longer needs to be.
+		 */
+		boolean write(User user);
+
+	}
+
+	/**
+	 * A user waiting to be written.
+	 */
+	private static class Dirty {
+
+		private volatile User user;
+		private volatile long since;
+		private volatile long version;
+
+		private Dirty(User user, long since) {
+			this.user = user;
+			this.since = since;
+		}
+
+	}
+
+	private LinkedHashMap<UUID, User> users;
+	private Map<UUID, Dirty> dirty;
+	private Map<UUID, User> pinned;
+	private Writer writer;
+	private ScheduledExecutorService flusher;
+	private LongAdder hits;
+	private LongAdder misses;
+	private LongAdder writes;
+	private LongAdder failedWrites;
+	private CommandDispatcher.Stats flushLag;
+
+	/**
+	 * Constructs a cache and starts its flush thread.
+	 * @param capacity is the number of users kept in memory.
+	 * @param flushPeriod is the time between writes of dirty users in milliseconds.
+	 * @param writer writes the dirty users.
+	 */
+	public UserCache(int capacity, long flushPeriod, Writer writer) {
+		this.users = new LinkedHashMap<UUID, User>(16, 0.75f, true) {
+
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<UUID, User> eldest) {
+				return size() > capacity;
+			}
+		};
+		this.dirty = new ConcurrentHashMap<UUID, Dirty>();
+		this.pinned = new HashMap<UUID, User>();
+		this.writer = writer;
+		this.hits = new LongAdder();
+		this.misses = new LongAdder();
+		this.writes = new LongAdder();
+		this.failedWrites = new LongAdder();
+		this.flushLag = new CommandDispatcher.Stats();
+		this.flusher = Executors.newSingleThreadScheduledExecutor(r -> {
+			Thread t = new Thread(r, "user-flusher");
+			t.setDaemon(true);
+			return t;
+		});
+		this.flusher.scheduleWithFixedDelay(() -> {
+			try {
+				flush();
+			} catch (RuntimeException e) {
+				// a failed flush must not cancel the following ones
+				System.out.println(e.toString());
+			}
+		}, flushPeriod, flushPeriod, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @return the cached user, or null if the user has to be loaded.
+	 */
+	public User get(UUID id) {
+		User user;
+		synchronized (this) {
+			user = users.get(id);
+			if (user == null) {
+				user = pinned.get(id);
+				if (user == null) {
+					Dirty d = dirty.get(id);
+					if (d != null)
+						user = d.user;
+				}
+				if (user != null)
+					users.put(id, user);
+			}
+		}
+		if (user == null)
+			misses.increment();
+		else
+			hits.increment();
+		return user;
+	}
+
+	/**
+	 * Caches a user that has just been loaded. If another thread cached the
+	 * same user first, that copy wins so there is only ever one.
+	 * @param user is the loaded user.
+	 * @return the cached copy of the user.
+	 */
+	public synchronized User put(User user) {
+		User cached = pinned.get(user.getId());
+		if (cached != null) {
+			users.put(user.getId(), cached);
+			return cached;
+		}
+		cached = users.putIfAbsent(user.getId(), user);
+		return cached == null ? user : cached;
+	}
+
+	/**
+	 * Keeps a user in memory until it is unpinned, handing out this instance to
+	 * every load of the user in the meantime.
+	 * @param user is the user, e.g. the one a logged in connection holds.
+	 */
+	public synchronized void pin(User user) {
+		pinned.put(user.getId(), user);
+		users.put(user.getId(), user);
+	}
+
+	/**
+	 * Lets a pinned user be dropped again like any other.
+	 * @param user is the pinned user.
+	 */
+	public synchronized void unpin(User user) {
+		pinned.remove(user.getId(), user);
+	}
+
+	/**
+	 * Marks a user as changed, it will be written by the next flush.
+	 * @param user is the changed user.
+	 */
+	public void markDirty(User user) {
+		synchronized (this) {
+			users.put(user.getId(), user);
+		}
+		long now = System.nanoTime();
+		dirty.compute(user.getId(), (id, d) -> {
+			if (d == null)
+				d = new Dirty(user, now);
+			d.user = user;
+			d.version++;
+			return d;
+		});
+	}
+
+	/**
+	 * Forgets a user without writing it, e.g. once it has been deleted.
+	 * @param id is the user's id.
+	 */
+	public void remove(UUID id) {
+		synchronized (this) {
+			users.remove(id);
+		}
+		dirty.remove(id);
+	}
+
+	/**
+	 * Writes every dirty user. A user changed again while it was being
+	 * written stays dirty for the next flush.
+	 * @return the number of users written.
+	 */
+	public int flush() {
+		List<Map.Entry<UUID, Dirty>> batch = new ArrayList<Map.Entry<UUID, Dirty>>(dirty.entrySet());
+		int written = 0;
+		for (Map.Entry<UUID, Dirty> e : batch) {
+			Dirty d = e.getValue();
+			long version = d.version;
+			long since = d.since;
+			if (!writer.write(d.user)) {
+				failedWrites.increment();
+				continue;
+			}
+			written++;
+			writes.increment();
+			flushLag.record(System.nanoTime() - since);
+			dirty.computeIfPresent(e.getKey(), (id, current) -> {
+				if (current.version != version)
+					current.since = System.nanoTime();
+				return current.version == version ? null : current;
+			});
+		}
+		return written;
+	}
+
+	/**
+	 * Stops the flush thread and writes whatever is still dirty.
+	 */
+	public void shutdown() {
+		flusher.shutdown();
+		try {
+			flusher.awaitTermination(10, TimeUnit.SECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		flush();
+	}
+
+	/**
+	 * @return the number of users in memory.
+	 */
+	public synchronized int size() {
+		return users.size();
+	}
+
+	/**
+	 * @return the number of users pinned.
+	 */
+	public synchronized int getPinnedCount() {
+		return pinned.size();
+	}
+
+	/**
+	 * @return the number of users waiting to be written.
+	 */
+	public int getDirtyCount() {
+		return dirty.size();
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * @return the number of users written by flushes.
+	 */
+	public long getWrites() {
+		return writes.sum();
+	}
+
+	/**
+	 * @return the number of writes that failed and were retried on a later flush.
+	 */
+	public long getFailedWrites() {
+		return failedWrites.sum();
+	}
+
+	/**
+	 * @return the time from a user first being marked dirty until it was written.
+	 */
+	public CommandDispatcher.Stats getFlushLag() {
+		return flushLag;
+	}
+
+	/**
+	 * @return a one line summary of the counters.
+	 */
+	public String getStats() {
+		return "User cache " + size() + " users (" + getPinnedCount() + " pinned), " + getHits() + " hits, " + getMisses() + " misses, " + getWrites()
+				+ " writes (" + getFailedWrites() + " failed), " + getDirtyCount() + " dirty, flush lag " + flushLag;
+	}
+
+}
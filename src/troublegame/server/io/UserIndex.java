@@ -0,0 +1,260 @@
+package troublegame.server.io;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Persistent index of the user data files. Every user file is named after
+ * the user's email hash and id, so the index maps each email hash to the id
+ * and each id to the email hash, which is enough to find the file for either
+ * without listing the user directory.
+ *
+ * The index is kept in the user directory as a journal of added and removed
+ * entries. It is replayed and compacted when loaded, and rebuilt from the
+ * file names if it is missing or the directory has been changed behind its
+ * back. Entries are only journalled after the user file itself has been
+ * created, moved or deleted, so the journal is always newer than the last
+ * change to the directory that it knows about.
+ */
+public class UserIndex {
+
+	/**
+	 * The name of the index file within the user directory.
+	 */
+	public static final String INDEX_FILE = "users.idx";
+
+	private static final char ADD = '+';
+	private static final char REMOVE = '-';
+
+	private File directory;
+	private File indexFile;
+	private Map<Integer, UUID> byEmailHash;
+	private Map<UUID, Integer> byId;
+	private BufferedWriter journal;
+
+	/**
+	 * Constructs an empty index for a user directory, call load before use.
+	 * @param path is the user directory.
+	 */
+	public UserIndex(String path) {
+		this.directory = new File(path);
+		this.indexFile = new File(directory, INDEX_FILE);
+		this.byEmailHash = new ConcurrentHashMap<Integer, UUID>();
+		this.byId = new ConcurrentHashMap<UUID, Integer>();
+	}
+
+	/**
+	 * Reads the index from disk, rebuilding it from the user files if it
+	 * cannot be trusted, and rewrites it without the entries since removed.
+	 * @return true if the index had to be rebuilt.
+	 * @throws IOException if the index cannot be written.
+	 */
+	public synchronized boolean load() throws IOException {
+		byEmailHash.clear();
+		byId.clear();
+		boolean rebuild = !indexFile.isFile() || directory.lastModified() > indexFile.lastModified();
+		if (rebuild)
+			rebuild();
+		else
+			replay();
+		compact();
+		return rebuild;
+	}
+
+	/**
+	 * Applies every entry of the journal in order. A line that cannot be
+	 * parsed, e.g. one cut short by a crash, is skipped.
+	 */
+	private void replay() throws IOException {
+		BufferedReader reader = new BufferedReader(new FileReader(indexFile));
+		try {
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] entry = line.length() > 1 ? line.substring(1).split(" ") : null;
+				if (entry == null || entry.length != 2)
+					continue;
+				try {
+					int emailHash = Integer.parseInt(entry[0]);
+					UUID id = UUID.fromString(entry[1]);
+					if (line.charAt(0) == ADD)
+						index(emailHash, id);
+					else if (line.charAt(0) == REMOVE)
+						unindex(emailHash, id);
+				} catch (IllegalArgumentException e) {
+					continue;
+				}
+			}
+		} finally {
+			reader.close();
+		}
+	}
+
+	/**
+	 * Indexes every user file in the directory by its name.
+	 */
+	private void rebuild() {
+		String[] names = directory.list();
+		if (names == null)
+			return;
+		for (String name : names) {
+			if (!name.endsWith(".ser"))
+				continue;
+			String[] entry = name.substring(0, name.length() - 4).split(" ");
+			if (entry.length != 2)
+				continue;
+			try {
+				index(Integer.parseInt(entry[0]), UUID.fromString(entry[1]));
+			} catch (IllegalArgumentException e) {
+				continue;
+			}
+		}
+	}
+
+	/**
+	 * Replaces the journal with one entry per indexed user and reopens it for appending.
+	 */
+	private void compact() throws IOException {
+		if (journal != null)
+			journal.close();
+		if (!directory.isDirectory() && !directory.mkdirs())
+			throw new IOException("Cannot create " + directory);
+		File tmp = new File(directory, INDEX_FILE + ".tmp");
+		BufferedWriter writer = new BufferedWriter(new FileWriter(tmp));
+		try {
+			for (Map.Entry<UUID, Integer> e : byId.entrySet())
+				writeEntry(writer, ADD, e.getValue(), e.getKey());
+		} finally {
+			writer.close();
+		}
+		Files.move(tmp.toPath(), indexFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+		// the move itself touches the directory, which must not look like a change behind the index's back
+		indexFile.setLastModified(System.currentTimeMillis());
+		journal = new BufferedWriter(new FileWriter(indexFile, true));
+	}
+
+	private static void writeEntry(BufferedWriter writer, char op, int emailHash, UUID id) throws IOException {
+		writer.write(op);
+		writer.write(Integer.toString(emailHash));
+		writer.write(' ');
+		writer.write(id.toString());
+		writer.newLine();
+	}
+
+	private void index(int emailHash, UUID id) {
+		byEmailHash.put(emailHash, id);
+		byId.put(id, emailHash);
+	}
+
+	private void unindex(int emailHash, UUID id) {
+		byEmailHash.remove(emailHash, id);
+		byId.remove(id, emailHash);
+	}
+
+	/**
+	 * Records a new user file, unless another user already has the email hash.
+	 * @param emailHash is the hash of the user's lowercase email.
+	 * @param id is the user's id.
+	 * @return false if the email hash is taken.
+	 */
+	public synchronized boolean add(int emailHash, UUID id) {
+		if (byEmailHash.containsKey(emailHash))
+			return false;
+		index(emailHash, id);
+		append(ADD, emailHash, id);
+		return true;
+	}
+
+	/**
+	 * Forgets a user file.
+	 * @param emailHash is the hash of the user's lowercase email.
+	 * @param id is the user's id.
+	 */
+	public synchronized void remove(int emailHash, UUID id) {
+		unindex(emailHash, id);
+		append(REMOVE, emailHash, id);
+	}
+
+	/**
+	 * Writes an entry to the journal. The index in memory stays correct if
+	 * this fails, the next load then rebuilds it from the user files.
+	 */
+	private void append(char op, int emailHash, UUID id) {
+		if (journal == null)
+			return;
+		try {
+			writeEntry(journal, op, emailHash, id);
+			journal.flush();
+		} catch (IOException e) {
+			System.out.println(e.toString());
+		}
+	}
+
+	/**
+	 * @param email is the user's lowercase email.
+	 * @return the user's data file, or null if there is no such user.
+	 */
+	public File getByEmail(String email) {
+		int emailHash = email.hashCode();
+		UUID id = byEmailHash.get(emailHash);
+		return id == null ? null : new File(directory, fileName(emailHash, id));
+	}
+
+	/**
+	 * @param email is the user's lowercase email.
+	 * @return the user's id, or null if there is no such user.
+	 */
+	public UUID getIdByEmail(String email) {
+		return byEmailHash.get(email.hashCode());
+	}
+
+	/**
+	 * @param id is the user's id.
+	 * @return the user's data file, or null if there is no such user.
+	 */
+	public File getById(UUID id) {
+		Integer emailHash = byId.get(id);
+		return emailHash == null ? null : new File(directory, fileName(emailHash, id));
+	}
+
+	/**
+	 * @return the ids of every user indexed.
+	 */
+	public List<UUID> getIds() {
+		return new ArrayList<UUID>(byId.keySet());
+	}
+
+	/**
+	 * @return the number of users indexed.
+	 */
+	public int size() {
+		return byId.size();
+	}
+
+	/**
+	 * Closes the journal.
+	 */
+	public synchronized void close() throws IOException {
+		if (journal != null)
+			journal.close();
+		journal = null;
+	}
+
+	/**
+	 * @return the name of the data file of a user.
+	 */
+	public static String fileName(int emailHash, UUID id) {
+		return emailHash + " " + id + ".ser";
+	}
+
+}
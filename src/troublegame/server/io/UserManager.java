@@ -1,23 +1,13 @@
 package troublegame.server.io;
 
-import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
-import java.io.FilenameFilter;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
-import java.nio.file.Files;
-import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.UUID;
-import java.util.regex.Pattern;
 
 import troublegame.server.Color;
 import troublegame.server.User;
 
 /**
- * Player manager to load existing, and save new and existing user profiles using serialisation.
+ * Player manager to load existing, and save new and existing user profiles.
  * @author Nick
  *
  */
@@ -28,6 +18,21 @@ public class UserManager {
 	 */
 	public static final String USER_PATH = "./data/users/";
 	
+	/**
+	 * System property choosing the user store, either STORE_LOG or STORE_FILE
+	 */
+	public static final String STORE_PROPERTY = "troublegame.userstore";
+	
+	/**
+	 * Keep users in an append-only log
+	 */
+	public static final String STORE_LOG = "log";
+	
+	/**
+	 * Keep each user in its own serialised file
+	 */
+	public static final String STORE_FILE = "file";
+	
 	/**
 	 * Error codes
 	 */
@@ -39,147 +44,213 @@ public class UserManager {
 	public static final int RENAME_ERROR = 5;
 	
 	/**
-	 * Load the existing user with the given email from the associated data file.
-	 * @return null if user/file not found, otherwise the found user
+	 * Where the users are kept
 	 */
-	public static User loadUserByEmail(String email) {
+	private static volatile UserStore store;
+	
+	/**
+	 * Loaded users, written back in the background
+	 */
+	private static volatile UserCache cache;
+	
+	/**
+	 * Games played and won of every user
+	 */
+	private static volatile StatsStore stats;
+	
+	/**
+	 * Friendships and usernames of every user
+	 */
+	private static volatile FriendGraph friends;
+	
+	/**
+	 * Returns the user store chosen by the STORE_PROPERTY system property, opening it on first use.
+	 * @return the user store
+	 */
+	public static UserStore getStore() {
+		
+		if (store != null) {
+			return store;
+		}
 		
-		File[] profileList = new File(USER_PATH).listFiles(new FilenameFilter() {
-			
-			@Override
-			public boolean accept(File dir, String name) {
-				if(Pattern.matches("^" + email.toLowerCase().hashCode() + " .+\\.ser$", name)) return true;
-				return false;
+		synchronized (UserManager.class) {
+			if (store == null) {
+				UserStore opened;
+				if (STORE_FILE.equals(System.getProperty(STORE_PROPERTY, STORE_LOG))) {
+					opened = new FileUserStore(USER_PATH);
+				} else {
+					opened = new LogUserStore(USER_PATH);
+				}
+				try {
+					opened.open();
+				} catch (IOException e) {
+					// The store still works from memory as far as it can, it just is not saved
+					System.out.println(e.toString());
+				}
+				store = opened;
 			}
-		});
+		}
 		
-		if(profileList.length != 1) {
-			return null;
+		return store;
+		
+	}
+	
+	/**
+	 * Returns the cache of loaded users, creating it on first use. Whatever is still waiting
+	 * to be written when the program exits is written by a shutdown hook.
+	 * @return the user cache
+	 */
+	public static UserCache getCache() {
+		
+		if (cache != null) {
+			return cache;
 		}
 		
-		File userProfile = profileList[0];
+		synchronized (UserManager.class) {
+			if (cache == null) {
+				UserCache created = new UserCache(UserCache.DEFAULT_CAPACITY, UserCache.DEFAULT_FLUSH_PERIOD, user -> getStore().write(user));
+				Runtime.getRuntime().addShutdownHook(new Thread(UserManager::shutdown, "user-manager-shutdown"));
+				cache = created;
+			}
+		}
 		
-		User tmp = null;
+		return cache;
 		
-		try {
-
-			// Try read in and open the requested list
-			FileInputStream fileIn = new FileInputStream(userProfile);
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-
-			// Read in object and cast to the specified object
-			tmp = (User) in.readObject();
-			in.close();
-			fileIn.close();
-
-		} catch (IOException e) {
-			// Catch input output error
-			System.out.println(e.toString());
-
-		} catch (ClassNotFoundException e) {
-			// Catch class not found error, display class not found error
-			// message
-			System.out.println(e.toString());
+	}
+	
+	/**
+	 * Returns the statistics of every user, mapping the statistics file on first use.
+	 * @return the statistics store
+	 */
+	public static StatsStore getStatsStore() {
+		
+		if (stats != null) {
+			return stats;
+		}
+		
+		synchronized (UserManager.class) {
+			if (stats == null) {
+				StatsStore opened = new StatsStore(USER_PATH);
+				try {
+					opened.open();
+				} catch (IOException e) {
+					throw new IllegalStateException("Cannot open the statistics in " + USER_PATH, e);
+				}
+				stats = opened;
+			}
 		}
-
-		return tmp;
+		
+		return stats;
 		
 	}
 	
 	/**
-	 * Load the existing user with the given id from the associated data file.
-	 * @return null if user/file not found, otherwise the found user
+	 * Returns the friend graph, building it from the stored users on first use.
+	 * @return the friend graph
 	 */
-	public static User loadUserById(UUID id) {
+	public static FriendGraph getFriendGraph() {
 		
-		File[] profileList = new File(USER_PATH).listFiles(new FilenameFilter() {
-			
-			@Override
-			public boolean accept(File dir, String name) {
-				if(Pattern.matches("^.+ " + id + "\\.ser$", name)) return true;
-				return false;
+		if (friends != null) {
+			return friends;
+		}
+		
+		synchronized (UserManager.class) {
+			if (friends == null) {
+				FriendGraph built = new FriendGraph();
+				for (UUID id : getStore().getIds()) {
+					// A loaded user may hold changes not written yet
+					User user = getCache().get(id);
+					if (user == null) {
+						user = getStore().read(id);
+					}
+					if (user != null) {
+						built.addUser(id, user.getUsername(), user.getFriendList());
+					}
+				}
+				friends = built;
 			}
-		});
-
-		if (profileList.length != 1) {
-			return null;
 		}
 		
-		File userProfile = profileList[0];
+		return friends;
 		
-		User tmp = null;
+	}
+	
+	/**
+	 * Write every changed user and close the user and statistics stores.
+	 */
+	public static void shutdown() {
 		
+		getCache().shutdown();
 		try {
-
-			// Try read in and open the requested list
-			FileInputStream fileIn = new FileInputStream(userProfile);
-			ObjectInputStream in = new ObjectInputStream(fileIn);
-
-			// Read in object and cast to the specified object
-			tmp = (User) in.readObject();
-			in.close();
-			fileIn.close();
-
+			getStore().close();
+			if (stats != null) {
+				stats.close();
+			}
 		} catch (IOException e) {
-			// Catch input output error
-			System.out.println(e.toString());
-
-		} catch (ClassNotFoundException e) {
-			// Catch class not found error, display class not found error
-			// message
 			System.out.println(e.toString());
 		}
-
-		return tmp;
 		
 	}
 	
 	/**
-	 * Save the given, existing user to a data file
-	 * @return PlayerManagerErrorCode relating to the status of this operation
+	 * Load the existing user with the given email.
+	 * @return null if user not found, otherwise the found user
 	 */
-	public static int saveExistingUser(User user) {
+	public static User loadUserByEmail(String email) {
 		
-		String email = user.getEmail();
-		int emailHash = email.hashCode();
+		return loadUserById(getStore().findIdByEmail(email.toLowerCase()));
 		
-		// Create file paths for the list
-		File userDirectory = new File(USER_PATH);
-		File userProfile = new File(USER_PATH + emailHash + " " + user.getId() + ".ser");
+	}
+	
+	/**
+	 * Load the existing user with the given id.
+	 * @return null if user not found, otherwise the found user
+	 */
+	public static User loadUserById(UUID id) {
 		
-		// Check if the user directory exists or can be created
-		if (userDirectory.isDirectory() == false) {
-			if (userDirectory.mkdirs() == false) {
-				return DIRECTORY_ERROR;
-			}
+		if (id == null) {
+			return null;
 		}
 		
-		// Check that user file already exists
-		if(userProfile.exists() == false) {
-			return ACCOUNT_NOT_FOUND;
+		User cached = getCache().get(id);
+		if (cached != null) {
+			return cached;
 		}
 		
-		try {
-
-			// Write the this list object to the file
-			FileOutputStream fileOutput = new FileOutputStream(userProfile);
-			ObjectOutputStream outStream = new ObjectOutputStream(fileOutput);
-
-			outStream.writeObject(user);
-			outStream.close();
-			fileOutput.close();
-
-		} catch (IOException e) {
-			System.out.println(e.toString());
+		User tmp = getStore().read(id);
+		return tmp == null ? null : getCache().put(tmp);
+		
+	}
+	
+	/**
+	 * Save the given, existing user. The user is written to the user store in the background
+	 * by the user cache, so this returns without touching the disk.
+	 * @return PlayerManagerErrorCode relating to the status of this operation
+	 */
+	public static int saveExistingUser(User user) {
+		
+		// Check that user already exists
+		if(user.getId() == null || getStore().contains(user.getId()) == false) {
+			return ACCOUNT_NOT_FOUND;
 		}
-
+		
+		getCache().markDirty(user);
+		
 		return SUCCESS;
 		
 	}
 	
+	/**
+	 * Write every changed user to disk now.
+	 * @return the number of users written
+	 */
+	public static int flush() {
+		return getCache().flush();
+	}
+	
 	/**
 	 * Create a new user given the current properties received from the client, check that the
-	 * a user doesn't already exist with this email address and then save the user to a data file
+	 * a user doesn't already exist with this email address and then save the user
 	 * @return PlayerManagerErrorCode relating to status of the operation
 	 */
 	public static int createAndSaveNewUser(String email, String username, String password, Color favColor, String pQuot) {
@@ -188,69 +259,23 @@ public class UserManager {
 		email = email.toLowerCase();
 		User tmp = new User(email, username, password, favColor, pQuot);
 		
-		int emailHash = email.hashCode();
-		
-		// Create file paths for the list
-		File userDirectory = new File(USER_PATH);
-		File userProfile = new File(USER_PATH + emailHash + " " + tmp.getId() + ".ser");
-		
-		// Check if the user directory exists or can be created
-		if (userDirectory.isDirectory() == false) {
-			if (userDirectory.mkdirs() == false) {
-				return DIRECTORY_ERROR;
-			}
-		}
-		
-		// Check that a user with this email doesnt exist already
-		File[] existingUsers = userDirectory.listFiles(new FilenameFilter() {
-			
-			@Override
-			public boolean accept(File dir, String name) {
-				if(Pattern.matches("^" + emailHash + " .+\\.ser$", name)) return true;
-				return false;
-			}
-		});
-		
-		if(existingUsers != null && existingUsers.length != 0) return EMAIL_EXISTS;
-		
-		try {
-
-			// Create user file if it doesn't exist
-			userProfile.createNewFile();
-
-			// Write the this list object to the file
-			FileOutputStream fileOutput = new FileOutputStream(userProfile);
-			ObjectOutputStream outStream = new ObjectOutputStream(fileOutput);
-
-			outStream.writeObject(tmp);
-			outStream.close();
-			fileOutput.close();
-
-		} catch (IOException e) {
-			System.out.println(e.toString());
+		int result = getStore().create(tmp);
+		if (result == SUCCESS) {
+			getFriendGraph().addUser(tmp.getId(), tmp.getUsername(), tmp.getFriendList());
 		}
-
-		return SUCCESS;
+		return result;
 		
 	}
 	
 	/**
-	 * Renames an existing user file to a new name provided the new name file does not already exist
+	 * Moves an existing user to its new email provided no other user has that email
 	 * @param oldEmail The original email of the user to migrate
 	 * @param u The user to migrate
 	 * @return PlayerManagerErrorCode relating to the status of the operation
 	 */
 	public static int migrateUser(String currentEmail, User user) {
 		
-		Path currentFile = Paths.get(USER_PATH + currentEmail.toLowerCase().hashCode() + " " + user.getId() + ".ser");
-		try {
-			Files.move(currentFile, currentFile.resolveSibling(user.getEmail().hashCode() + " " + user.getId() + ".ser"));
-		} catch (IOException e) {
-			e.printStackTrace();
-			return RENAME_ERROR;
-		}
-		
-		return SUCCESS;
+		return getStore().migrate(currentEmail, user);
 		
 	}
 	
@@ -261,24 +286,23 @@ public class UserManager {
 	 */
 	public static int deleteUserAccount(User toDelete) {
 		
-		String email = toDelete.getEmail();
-		String profile = USER_PATH + email.hashCode() + " " + toDelete.getId() + ".ser";
-		File userProfile = new File(profile);
-		
-		if (userProfile.exists() == false) {
+		if (getStore().contains(toDelete.getId()) == false) {
 			return ACCOUNT_NOT_FOUND;
-		} else {
-			
-			// Remove connection from all friends
-			for(UUID friendID : toDelete.getFriendList()) {
-				User friend = loadUserById(friendID);
-				friend.removeFriend(toDelete.getId());
-			}
-			
-			if(userProfile.delete()) return SUCCESS;
-			return DELETION_ERROR;
 		}
 		
+		// Remove connection from all friends
+		for(UUID friendID : getFriendGraph().getFriends(toDelete.getId())) {
+			User friend = loadUserById(friendID);
+			friend.removeFriend(toDelete.getId());
+		}
+		
+		int result = getStore().delete(toDelete);
+		if (result == SUCCESS) {
+			getCache().remove(toDelete.getId());
+			getFriendGraph().removeUser(toDelete.getId());
+		}
+		return result;
+		
 	}
 	
 }
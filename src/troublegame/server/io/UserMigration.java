@@ -0,0 +1,66 @@
+package troublegame.server.io;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+import troublegame.server.User;
+
+/**
+ * Rewrites every stored user in the current UserCodec format. Users saved by
+ * Java serialisation are read as before, so the server works without this,
+ * converting each user the next time it is saved; running it converts the
+ * rest at once. The log store is compacted afterwards so the old records go.
+ *
+ * Run it while the server is stopped, from the directory the server runs in.
+ * The store is chosen by the STORE_PROPERTY system property as in the server.
+ *
+ * Usage: UserMigration
+ */
+public class UserMigration {
+
+	public static void main(String[] args) throws IOException {
+
+		File directory = new File(UserManager.USER_PATH);
+		long before = storedBytes(directory);
+
+		UserStore store = UserManager.getStore();
+		int rewritten = 0;
+		int failed = 0;
+		for (UUID id : store.getIds()) {
+			User user = store.read(id);
+			if (user != null && store.write(user)) {
+				rewritten++;
+			} else {
+				System.out.println("Could not rewrite user " + id);
+				failed++;
+			}
+		}
+		if (store instanceof LogUserStore) {
+			((LogUserStore) store).compact();
+		}
+		store.close();
+
+		long after = storedBytes(directory);
+		System.out.println("Rewrote " + rewritten + " users, " + failed + " failed, " + before + " bytes before and " + after + " after");
+
+	}
+
+	/**
+	 * @return the size of the user files and log segments in the directory
+	 */
+	private static long storedBytes(File directory) {
+		long bytes = 0;
+		File[] files = directory.listFiles();
+		if (files == null) {
+			return 0;
+		}
+		for (File f : files) {
+			if (f.getName().endsWith(".ser") || f.getName().endsWith(".log")) {
+				bytes += f.length();
+			}
+		}
+		return bytes;
+	}
+
+}
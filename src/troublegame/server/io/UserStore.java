@@ -0,0 +1,85 @@
+package troublegame.server.io;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.UUID;
+
+import troublegame.server.User;
+
+/**
+ * Where the user manager keeps its users. Results that can fail return one
+ * of the UserManager error codes.
+ */
+public interface UserStore {
+
+	/**
+	 * Opens the store, reading whatever is needed to find users.
+	 * @throws IOException if the store cannot be opened.
+	 */
+	void open() throws IOException;
+
+	/**
+	 * @param email The lowercase email of a user
+	 * @return the id of the user, or null if there is no such user
+	 */
+	UUID findIdByEmail(String email);
+
+	/**
+	 * @param id The id of a user
+	 * @return true if the user exists
+	 */
+	boolean contains(UUID id);
+
+	/**
+	 * @param id The id of the user to read
+	 * @return null if the user is not found or cannot be read, otherwise the user
+	 */
+	User read(UUID id);
+
+	/**
+	 * Stores a new user unless a user with the same email exists
+	 * @return SUCCESS, EMAIL_EXISTS or DIRECTORY_ERROR
+	 */
+	int create(User user);
+
+	/**
+	 * Stores the current state of an existing user. A user that no longer exists is ignored.
+	 * @return false if the user could not be written and should be tried again later
+	 */
+	boolean write(User user);
+
+	/**
+	 * Moves an existing user whose email has changed
+	 * @param currentEmail The email the user is stored under
+	 * @param user The user, already holding its new email
+	 * @return SUCCESS or RENAME_ERROR
+	 */
+	int migrate(String currentEmail, User user);
+
+	/**
+	 * Removes a user
+	 * @return SUCCESS, ACCOUNT_NOT_FOUND or DELETION_ERROR
+	 */
+	int delete(User user);
+
+	/**
+	 * @return the ids of every user stored, copied so the store can change meanwhile
+	 */
+	List<UUID> getIds();
+
+	/**
+	 * @return the number of users stored
+	 */
+	int size();
+
+	/**
+	 * @return a one line summary of the store
+	 */
+	String getStats();
+
+	/**
+	 * Makes everything written so far durable and closes the store.
+	 */
+	void close() throws IOException;
+
+}
@@ -0,0 +1,40 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+
+import troublegame.server.BoardState;
+import troublegame.server.Expectimax;
+
+/**
+ * Searches a fixed number of turns ahead with the server's AI search. Each
+ * simulation thread keeps a search of its own, so the policy itself holds no
+ * game state.
+ */
+public class ExpectimaxPolicy implements Policy {
+
+	public static final String NAME = "expectimax";
+
+	private static final int TABLE_BITS = 16;
+
+	private final int depth;
+	private final ThreadLocal<Expectimax> searches;
+
+	/**
+	 * @param depth is the number of turns searched ahead.
+	 */
+	public ExpectimaxPolicy(int depth) {
+		this.depth = depth;
+		this.searches = ThreadLocal.withInitial(() -> new Expectimax(TABLE_BITS, depth));
+	}
+
+	@Override
+	public int chooseToken(BoardState state, int colour, SplittableRandom random) {
+		return searches.get().chooseToken(state, colour, Long.MAX_VALUE);
+	}
+
+	@Override
+	public String getName() {
+		return NAME + depth;
+	}
+
+}
@@ -0,0 +1,30 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+
+import troublegame.server.Board;
+import troublegame.server.BoardState;
+import troublegame.server.Player;
+
+/**
+ * Moves the first token not yet in the end zone, as the server's AI does.
+ */
+public class FirstTokenPolicy implements Policy {
+
+	public static final String NAME = "first";
+
+	@Override
+	public int chooseToken(BoardState state, int colour, SplittableRandom random) {
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			if (state.getZone(BoardState.token(colour, id)) != Board.SLOT_END)
+				return id;
+		}
+		return 0;
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+}
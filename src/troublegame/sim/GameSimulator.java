@@ -0,0 +1,90 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+
+import troublegame.server.BoardState;
+import troublegame.server.Rules;
+
+/**
+ * Plays four-player games of the server's rules in memory. Turns go red,
+ * green, yellow, blue as in Game; on each turn the player's policy picks a
+ * token, the die is rolled and the move is played by Rules, and a token
+ * leaving home earns another turn.
+ *
+ * One simulator plays one game at a time, reusing its board for every game.
+ */
+public class GameSimulator {
+
+	private final Policy[] policies;
+	private final int maxTurns;
+	private final BoardState state;
+	private int turns;
+	private int moves;
+
+	/**
+	 * @param policies are the policies of red, green, yellow and blue.
+	 * @param maxTurns is the number of turns after which a game is cut off without a winner.
+	 */
+	public GameSimulator(Policy[] policies, int maxTurns) {
+		if (policies.length != BoardState.NUM_COLOURS)
+			throw new IllegalArgumentException("A game needs " + BoardState.NUM_COLOURS + " policies");
+		this.policies = policies.clone();
+		this.maxTurns = maxTurns;
+		this.state = new BoardState();
+	}
+
+	/**
+	 * Plays a game from the start.
+	 * @param random supplies the die rolls and the policies' randomness.
+	 * @return the winning colour, or BoardState.NONE if the game was cut off.
+	 */
+	public int play(SplittableRandom random) {
+		state.reset();
+		turns = 0;
+		moves = 0;
+		int colour = 0;
+		while (turns < maxTurns) {
+			int id = policies[colour].chooseToken(state, colour, random);
+			int die = random.nextInt(6) + 1;
+			turns++;
+			int move = Rules.apply(state, Rules.evaluate(state, BoardState.token(colour, id), die));
+			if (Rules.kind(move) != Rules.FAIL)
+				moves++;
+			if (state.isEndZoneFull(colour))
+				return colour;
+			if (!Rules.rollsAgain(move))
+				colour = (colour + 1) % BoardState.NUM_COLOURS;
+		}
+		return BoardState.NONE;
+	}
+
+	/**
+	 * Plays a game and counts it.
+	 */
+	public void play(SplittableRandom random, Outcomes outcomes) {
+		int winner = play(random);
+		outcomes.record(winner, turns, moves);
+	}
+
+	/**
+	 * @return the number of turns the last game took.
+	 */
+	public int getTurns() {
+		return turns;
+	}
+
+	/**
+	 * @return the number of moves in the last game that moved a token.
+	 */
+	public int getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @return the board as the last game left it.
+	 */
+	public BoardState getState() {
+		return state;
+	}
+
+}
@@ -0,0 +1,38 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+
+import troublegame.server.BoardState;
+import troublegame.server.MonteCarlo;
+
+/**
+ * Plays each choice out at random with the server's Monte Carlo AI, on the
+ * common ForkJoinPool.
+ */
+public class MonteCarloPolicy implements Policy {
+
+	public static final String NAME = "montecarlo";
+
+	private final int playouts;
+	private final MonteCarlo monteCarlo;
+
+	/**
+	 * @param playouts is the number of games played out for each token.
+	 */
+	public MonteCarloPolicy(int playouts) {
+		this.playouts = playouts;
+		this.monteCarlo = new MonteCarlo(ForkJoinPool.commonPool());
+	}
+
+	@Override
+	public int chooseToken(BoardState state, int colour, SplittableRandom random) {
+		return monteCarlo.chooseToken(state, colour, playouts, random);
+	}
+
+	@Override
+	public String getName() {
+		return NAME + playouts;
+	}
+
+}
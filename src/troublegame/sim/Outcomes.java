@@ -0,0 +1,122 @@
+package troublegame.sim;
+
+import troublegame.server.BoardState;
+
+/**
+ * What happened over a number of simulated games: wins per colour, games cut
+ * off by the turn limit and how long games took. Each simulation task fills
+ * its own and they are merged at the end.
+ */
+public class Outcomes {
+
+	/**
+	 * Game lengths are counted in buckets of this many turns.
+	 */
+	public static final int BUCKET_TURNS = 50;
+
+	private static final int BUCKETS = 40;
+
+	private long games;
+	private long[] wins;
+	private long unfinished;
+	private long turns;
+	private long moves;
+	private int shortest;
+	private int longest;
+	private long[] lengths;
+
+	public Outcomes() {
+		wins = new long[BoardState.NUM_COLOURS];
+		lengths = new long[BUCKETS];
+		shortest = Integer.MAX_VALUE;
+	}
+
+	/**
+	 * Counts a game.
+	 * @param winner is the winning colour, or BoardState.NONE if the game was cut off.
+	 * @param gameTurns is the number of times the die was rolled.
+	 * @param gameMoves is the number of moves that moved a token.
+	 */
+	public void record(int winner, int gameTurns, int gameMoves) {
+		games++;
+		if (winner == BoardState.NONE)
+			unfinished++;
+		else
+			wins[winner]++;
+		turns += gameTurns;
+		moves += gameMoves;
+		shortest = Math.min(shortest, gameTurns);
+		longest = Math.max(longest, gameTurns);
+		lengths[Math.min(BUCKETS - 1, gameTurns / BUCKET_TURNS)]++;
+	}
+
+	/**
+	 * Adds the games counted by another.
+	 * @return this.
+	 */
+	public Outcomes merge(Outcomes other) {
+		games += other.games;
+		for (int c = 0; c < wins.length; c++)
+			wins[c] += other.wins[c];
+		unfinished += other.unfinished;
+		turns += other.turns;
+		moves += other.moves;
+		shortest = Math.min(shortest, other.shortest);
+		longest = Math.max(longest, other.longest);
+		for (int b = 0; b < lengths.length; b++)
+			lengths[b] += other.lengths[b];
+		return this;
+	}
+
+	public long getGames() {
+		return games;
+	}
+
+	/**
+	 * @param colour is the colour as numbered by BoardState.
+	 */
+	public long getWins(int colour) {
+		return wins[colour];
+	}
+
+	public long getUnfinished() {
+		return unfinished;
+	}
+
+	public long getTurns() {
+		return turns;
+	}
+
+	public long getMoves() {
+		return moves;
+	}
+
+	/**
+	 * @return the share of games won by the colour.
+	 */
+	public double getWinRate(int colour) {
+		return games == 0 ? 0 : (double) wins[colour] / games;
+	}
+
+	/**
+	 * @return a report of the wins and game lengths over several lines.
+	 */
+	public String report() {
+		StringBuilder sb = new StringBuilder();
+		for (int c = 0; c < wins.length; c++)
+			sb.append(String.format("%-7s %10d wins (%5.2f%%)%n", BoardState.colourOf(c), wins[c], 100 * getWinRate(c)));
+		sb.append(String.format("%-7s %10d cut off at the turn limit%n", "none", unfinished));
+		if (games > 0) {
+			sb.append(String.format("Turns per game: mean %.1f, shortest %d, longest %d, moves %.1f%n",
+					(double) turns / games, shortest, longest, (double) moves / games));
+			for (int b = 0; b < lengths.length; b++) {
+				if (lengths[b] == 0)
+					continue;
+				String range = b == lengths.length - 1 ? (b * BUCKET_TURNS) + "+" : (b * BUCKET_TURNS) + "-" + ((b + 1) * BUCKET_TURNS - 1);
+				sb.append(String.format("  %9s turns %10d (%5.2f%%)%n", range, lengths[b], 100.0 * lengths[b] / games));
+			}
+		}
+		return sb.toString();
+	}
+
+}
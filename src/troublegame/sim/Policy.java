@@ -0,0 +1,29 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+
+import troublegame.server.BoardState;
+
+/**
+ * Decides which token a player moves. As in the live game the token is
+ * chosen before the die is rolled.
+ *
+ * A policy is shared by every game running at once and must not keep any
+ * state of its own between calls; randomness comes from the game's generator.
+ */
+public interface Policy {
+
+	/**
+	 * @param state is the board, which must be left as it is.
+	 * @param colour is the colour to move, as numbered by BoardState.
+	 * @param random is the game's random number generator.
+	 * @return the id of the token to move, from 0 to Player.NUM_TOKENS - 1.
+	 */
+	int chooseToken(BoardState state, int colour, SplittableRandom random);
+
+	/**
+	 * @return the name the policy is chosen by on the command line.
+	 */
+	String getName();
+
+}
@@ -0,0 +1,37 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+
+import troublegame.server.Board;
+import troublegame.server.BoardState;
+import troublegame.server.Player;
+
+/**
+ * Moves a token not yet in the end zone, picked at random.
+ */
+public class RandomPolicy implements Policy {
+
+	public static final String NAME = "random";
+
+	@Override
+	public int chooseToken(BoardState state, int colour, SplittableRandom random) {
+		int movable = 0;
+		for (int id = 0; id < Player.NUM_TOKENS; id++) {
+			if (state.getZone(BoardState.token(colour, id)) != Board.SLOT_END)
+				movable |= 1 << id;
+		}
+		if (movable == 0)
+			return 0;
+		// the n-th set bit, counting from the lowest
+		int n = random.nextInt(Integer.bitCount(movable));
+		for (int i = 0; i < n; i++)
+			movable &= movable - 1;
+		return Integer.numberOfTrailingZeros(movable);
+	}
+
+	@Override
+	public String getName() {
+		return NAME;
+	}
+
+}
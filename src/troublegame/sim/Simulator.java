@@ -0,0 +1,150 @@
+package troublegame.sim;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import troublegame.server.BoardState;
+import troublegame.server.GameRandom;
+
+/**
+ * Plays large numbers of games with no clients, no GameEngine and no
+ * logging, spread over a ForkJoinPool. The range of games is split in halves
+ * until it is small enough for one task, and idle workers steal the other
+ * halves.
+ *
+ * Every game draws from its own generator, seeded from the run's seed and the
+ * game's number, so a run gives the same outcomes whatever the thread count.
+ *
+ * Usage: Simulator [games] [threads] [seed] [policy ...]
+ * where a thread count of 0 uses every core, and
+ * the policies are given for red, green, yellow and blue in turn and the
+ * last one given plays the remaining colours.
+ */
+public class Simulator {
+
+	public static final int DEFAULT_MAX_TURNS = 10000;
+
+	/**
+	 * The most games one task plays before it splits.
+	 */
+	private static final long BATCH = 2048;
+
+	private final Policy[] policies;
+	private final long seed;
+	private final int maxTurns;
+
+	public Simulator(Policy[] policies, long seed, int maxTurns) {
+		if (policies.length != BoardState.NUM_COLOURS)
+			throw new IllegalArgumentException("A game needs " + BoardState.NUM_COLOURS + " policies");
+		this.policies = policies.clone();
+		this.seed = seed;
+		this.maxTurns = maxTurns;
+	}
+
+	/**
+	 * Plays games 0 to games - 1.
+	 */
+	public Outcomes run(long games, ForkJoinPool pool) {
+		return pool.invoke(new Batch(0, games));
+	}
+
+	/**
+	 * @return the generator game number gameIndex of the run draws from.
+	 */
+	public SplittableRandom getRandom(long gameIndex) {
+		return GameRandom.forSeed(GameRandom.seedOf(seed, gameIndex));
+	}
+
+	private class Batch extends RecursiveTask<Outcomes> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final long from;
+		private final long to;
+
+		Batch(long from, long to) {
+			this.from = from;
+			this.to = to;
+		}
+
+		@Override
+		protected Outcomes compute() {
+			if (to - from <= BATCH) {
+				Outcomes outcomes = new Outcomes();
+				GameSimulator simulator = new GameSimulator(policies, maxTurns);
+				for (long i = from; i < to; i++)
+					simulator.play(getRandom(i), outcomes);
+				return outcomes;
+			}
+			long middle = (from + to) >>> 1;
+			Batch right = new Batch(middle, to);
+			right.fork();
+			Outcomes left = new Batch(from, middle).compute();
+			return left.merge(right.join());
+		}
+
+	}
+
+	/**
+	 * @param name is a policy's name; expectimax may be followed by the depth, which is 2 if left
+	 * out, and montecarlo by the number of playouts per token, which is 256 if left out.
+	 * @return the policy with the name, or null if there is none.
+	 */
+	public static Policy getPolicy(String name) {
+		name = name.toLowerCase();
+		switch (name) {
+		case FirstTokenPolicy.NAME:
+			return new FirstTokenPolicy();
+		case RandomPolicy.NAME:
+			return new RandomPolicy();
+		case ExpectimaxPolicy.NAME:
+			return new ExpectimaxPolicy(2);
+		case MonteCarloPolicy.NAME:
+			return new MonteCarloPolicy(256);
+		default:
+			if (name.startsWith(ExpectimaxPolicy.NAME) && name.substring(ExpectimaxPolicy.NAME.length()).matches("[1-9]\\d?"))
+				return new ExpectimaxPolicy(Integer.parseInt(name.substring(ExpectimaxPolicy.NAME.length())));
+			if (name.startsWith(MonteCarloPolicy.NAME) && name.substring(MonteCarloPolicy.NAME.length()).matches("[1-9]\\d{0,5}"))
+				return new MonteCarloPolicy(Integer.parseInt(name.substring(MonteCarloPolicy.NAME.length())));
+			return null;
+		}
+	}
+
+	public static void main(String[] args) {
+		long games = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+		int threads = args.length > 1 ? Integer.parseInt(args[1]) : 0;
+		if (threads < 1)
+			threads = Runtime.getRuntime().availableProcessors();
+		long seed = args.length > 2 ? Long.parseLong(args[2]) : System.nanoTime();
+		Policy[] policies = new Policy[BoardState.NUM_COLOURS];
+		for (int c = 0; c < policies.length; c++) {
+			if (args.length > 3 + c) {
+				policies[c] = getPolicy(args[3 + c]);
+				if (policies[c] == null) {
+					System.err.println("Unknown policy " + args[3 + c] + ", expected " + FirstTokenPolicy.NAME + ", " + RandomPolicy.NAME + ", "
+								+ ExpectimaxPolicy.NAME + "[depth] or " + MonteCarloPolicy.NAME + "[playouts]");
+					return;
+				}
+			} else {
+				policies[c] = c == 0 ? new FirstTokenPolicy() : policies[c - 1];
+			}
+		}
+
+		StringBuilder players = new StringBuilder();
+		for (int c = 0; c < policies.length; c++)
+			players.append(c == 0 ? "" : ", ").append(BoardState.colourOf(c)).append('=').append(policies[c].getName());
+		System.out.println("Playing " + games + " games on " + threads + " threads with seed " + seed + " (" + players + ")");
+
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		long start = System.nanoTime();
+		Outcomes outcomes = new Simulator(policies, seed, DEFAULT_MAX_TURNS).run(games, pool);
+		double seconds = (System.nanoTime() - start) / 1e9;
+		pool.shutdown();
+
+		System.out.print(outcomes.report());
+		System.out.println(String.format("%d games in %.2f s, %.0f games/s, %.0f turns/s", outcomes.getGames(), seconds,
+				outcomes.getGames() / seconds, outcomes.getTurns() / seconds));
+	}
+
+}
@@ -0,0 +1,137 @@
+package troublegame.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+import troublegame.communication.BinaryCodec;
+import troublegame.communication.CommunicationHandler;
+import troublegame.communication.EncodedMessage;
+import troublegame.communication.ProtocolReader;
+
+/**
+ * Checks that lines of every length survive the binary protocol. Lines
+ * around and well past the size of one frame are encoded, checked to be
+ * framed in pieces that each fit their length prefix, and read back both
+ * through a ProtocolReader and frame by frame the way the nio listener
+ * does. A shared EncodedMessage is decoded by two recipients, a game event
+ * is sent after a long line, and a line longer than a peer may send is
+ * refused.
+ */
+public class BinaryCodecTest {
+
+	private static long checked;
+	private static long failures;
+
+	public static void main(String[] args) throws IOException {
+		int max = BinaryCodec.MAX_BODY_LENGTH;
+		int[] lengths = { 0, 1, max - 2, max - 1, max, max + 1, 2 * max - 2, 2 * max, 5 * max + 7 };
+		for (int length : lengths) {
+			roundTrip(CommunicationHandler.LOBBY_ONLINE_LIST + names(length, "Victor "));
+			roundTrip(CommunicationHandler.FRIENDS_GET_LIST + names(length, "Zo\u00eb "));
+			roundTrip(names(length, "raw "));
+		}
+		shared(CommunicationHandler.LOBBY_ONLINE_LIST + names(3 * max, "Victor "));
+		gameEventAfterLongLine();
+		tooLong();
+		System.out.println(checked + " checks, " + failures + " failures");
+	}
+
+	/**
+	 * @return a line of about the given number of bytes, made of the name over and over.
+	 */
+	private static String names(int length, String name) {
+		StringBuilder line = new StringBuilder(length + name.length());
+		while (line.length() < length)
+			line.append(name);
+		line.setLength(length);
+		return line.toString();
+	}
+
+	private static void roundTrip(String line) throws IOException {
+		byte[] frames = new BinaryCodec().encode(line);
+		String what = line.length() + " characters of " + line.substring(0, Math.min(line.length(), 20));
+		check(what + " read by a protocol reader", line.equals(read(frames)));
+		check(what + " read frame by frame", line.equals(readFrames(frames)));
+	}
+
+	private static void shared(String line) throws IOException {
+		EncodedMessage message = new EncodedMessage(line);
+		BinaryCodec first = new BinaryCodec();
+		BinaryCodec second = new BinaryCodec();
+		check("shared long line to the first recipient", line.equals(read(bytes(message.frame(first)))));
+		check("shared long line to the second recipient", line.equals(read(bytes(message.frame(second)))));
+		check("long line encoded once", message.getEncodings() == 1);
+	}
+
+	private static void gameEventAfterLongLine() throws IOException {
+		BinaryCodec sender = new BinaryCodec();
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		String[] lines = {
+			CommunicationHandler.GAME_SETUP,
+			CommunicationHandler.GAME_COLORS + " Victor RED",
+			CommunicationHandler.LOBBY_CHAT + names(4 * BinaryCodec.MAX_BODY_LENGTH, " hello"),
+			CommunicationHandler.GAME_ROLL + " 6 2 Victor 1 12",
+		};
+		for (String line : lines)
+			out.write(sender.encode(line));
+		ProtocolReader in = new ProtocolReader(new ByteArrayInputStream(out.toByteArray()));
+		BinaryCodec receiver = new BinaryCodec();
+		for (String line : lines)
+			check("game line after a long line: " + line.substring(0, Math.min(line.length(), 20)), line.equals(in.read(receiver)));
+		check("end of stream after the game lines", in.read(receiver) == null);
+	}
+
+	private static void tooLong() {
+		byte[] frames = new BinaryCodec().encode(names(BinaryCodec.MAX_LINE_LENGTH + 1, "x"));
+		try {
+			read(frames);
+			check("a line over the limit is refused", false);
+		} catch (IllegalArgumentException | IOException e) {
+			check("a line over the limit is refused", true);
+		}
+	}
+
+	private static String read(byte[] frames) throws IOException {
+		ProtocolReader in = new ProtocolReader(new ByteArrayInputStream(frames));
+		BinaryCodec codec = new BinaryCodec();
+		String line = in.read(codec);
+		check("nothing after the line", in.read(codec) == null);
+		return line;
+	}
+
+	/**
+	 * Decodes each frame on its own, checking every frame fits its length prefix.
+	 */
+	private static String readFrames(byte[] frames) {
+		BinaryCodec codec = new BinaryCodec();
+		String line = null;
+		int position = 0;
+		while (position < frames.length) {
+			check("no frame after the line ends", line == null);
+			int length = ((frames[position] & 0xFF) << 8) | (frames[position + 1] & 0xFF);
+			check("frame length in range", length >= 1 && position + BinaryCodec.HEADER_LENGTH + length <= frames.length);
+			line = codec.decode(frames, position + BinaryCodec.HEADER_LENGTH, length);
+			position += BinaryCodec.HEADER_LENGTH + length;
+		}
+		return line;
+	}
+
+	private static byte[] bytes(ByteBuffer buffer) {
+		ByteBuffer copy = buffer.duplicate();
+		byte[] bytes = new byte[copy.remaining()];
+		copy.get(bytes);
+		return bytes;
+	}
+
+	private static void check(String what, boolean ok) {
+		checked++;
+		if (!ok) {
+			failures++;
+			if (failures <= 10)
+				System.out.println("FAILED: " + what);
+		}
+	}
+
+}
@@ -24,6 +24,7 @@ public class GameColorTesting {
 		conns.add(a);
 		
 		ge.createGame(conns, 5);
+		ge.shutdown();
 		
 	}
 
@@ -0,0 +1,57 @@
+package troublegame.testing;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+
+import troublegame.server.AIExecutor;
+import troublegame.server.Connection;
+import troublegame.server.GameEngine;
+import troublegame.server.GameRandom;
+
+/**
+ * Plays a batch of all-AI games with no AI delay through the game engine at
+ * 1, 2, 4 and 8 shards and prints the games finished per second for each.
+ * The number of AI threads stays the same in every run, so only the
+ * sharding changes.
+ *
+ * Usage: GameEngineBenchmark [games] [ai threads]
+ */
+public class GameEngineBenchmark {
+
+	private static final int[] SHARDS = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws InterruptedException {
+		int games = args.length > 0 ? Integer.parseInt(args[0]) : 2000;
+		int aiThreads = args.length > 1 ? Integer.parseInt(args[1]) : AIExecutor.DEFAULT_THREADS;
+		PrintStream console = System.out;
+		console.println("Cores: " + Runtime.getRuntime().availableProcessors() + ", games per run: " + games + ", AI threads: " + aiThreads);
+
+		// warm up once so the first measured run is not paying for the JIT
+		System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+		run(SHARDS[SHARDS.length - 1], aiThreads, games / 4);
+
+		for (int shards : SHARDS) {
+			long nanos = run(shards, aiThreads, games);
+			console.printf("%d shards: %.0f games/sec%n", shards, games / (nanos / 1e9));
+		}
+		System.setOut(console);
+	}
+
+	/**
+	 * @return the time taken to finish every game in nanoseconds.
+	 */
+	private static long run(int shards, int aiThreads, int games) throws InterruptedException {
+		GameEngine engine = new GameEngine(shards, aiThreads, new GameRandom());
+		engine.setAiDelay(0);
+		long start = System.nanoTime();
+		for (int i = 0; i < games; i++)
+			engine.createGame(new ArrayList<Connection>(), 1);
+		while (engine.getGamesFinished() < games)
+			Thread.sleep(1);
+		long nanos = System.nanoTime() - start;
+		engine.shutdown();
+		return nanos;
+	}
+
+}
@@ -0,0 +1,98 @@
+package troublegame.testing;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import troublegame.server.AIExecutor;
+import troublegame.server.AILevel;
+import troublegame.server.Connection;
+import troublegame.server.GameEngine;
+import troublegame.server.GameRandom;
+
+/**
+ * Checks that an all-AI game played with a time limit on its searches plays
+ * out the same again from its seed and the AI depths logged when it ended.
+ * The replay runs with no AI delay, so it only matches if the depths, and not
+ * the time, decide the moves. Also plays the seed with no delay and no depths,
+ * which should go differently whenever the searches went deeper than one turn.
+ *
+ * Usage: GameReplayTest [ai delay in ms] [seed]
+ */
+public class GameReplayTest {
+
+	private static final String MOVE = "AI's MOVE: ";
+	private static final String GAME_OVER = " Game over, seed ";
+
+	public static void main(String[] args) throws InterruptedException {
+		int aiDelay = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+		long baseSeed = args.length > 1 ? Long.parseLong(args[1]) : 1;
+		long seed = GameRandom.seedOf(baseSeed, 0);
+
+		List<String> played = play(aiDelay, seed, null);
+		String depthLog = gameOver(played).substring(gameOver(played).indexOf(": ") + 2);
+		int[] depths = parseDepths(depthLog);
+		List<String> replayed = play(0, seed, depths);
+		List<String> untimed = play(0, seed, null);
+
+		System.out.println("Played " + moves(played).size() + " AI moves with a " + aiDelay + " ms delay, seed " + seed);
+		System.out.println("AI depths: " + depthLog);
+		System.out.println("Replay from seed and depths: " + (moves(replayed).equals(moves(played))
+				&& gameOver(replayed).equals(gameOver(played)) ? "same moves" : "DIFFERENT MOVES"));
+		System.out.println("Replay from seed alone with no delay: "
+				+ (moves(untimed).equals(moves(played)) ? "same moves" : "different moves"));
+	}
+
+	/**
+	 * Plays one all-AI game on its own engine.
+	 * @return the lines it printed.
+	 */
+	private static List<String> play(int aiDelay, long seed, int[] depths) throws InterruptedException {
+		PrintStream console = System.out;
+		ByteArrayOutputStream output = new ByteArrayOutputStream();
+		System.setOut(new PrintStream(output, true));
+		try {
+			GameEngine engine = new GameEngine(1, AIExecutor.DEFAULT_THREADS, new GameRandom());
+			engine.setAiDelay(aiDelay);
+			engine.createGame(new ArrayList<Connection>(), 1, AILevel.SEARCH, seed, depths);
+			while (engine.getGamesFinished() < 1)
+				Thread.sleep(1);
+			engine.shutdown();
+		} finally {
+			System.setOut(console);
+		}
+		List<String> lines = new ArrayList<String>();
+		for (String line : output.toString().split("\n"))
+			lines.add(line.trim());
+		return lines;
+	}
+
+	private static List<String> moves(List<String> lines) {
+		List<String> moves = new ArrayList<String>();
+		for (String line : lines) {
+			if (line.startsWith(MOVE))
+				moves.add(line);
+		}
+		return moves;
+	}
+
+	private static String gameOver(List<String> lines) {
+		for (String line : lines) {
+			if (line.contains(GAME_OVER))
+				return line;
+		}
+		throw new IllegalStateException("The game did not end");
+	}
+
+	private static int[] parseDepths(String log) {
+		if (log.isEmpty())
+			return new int[0];
+		String[] split = log.split(" ");
+		int[] depths = new int[split.length];
+		for (int i = 0; i < split.length; i++)
+			depths[i] = Integer.parseInt(split[i]);
+		return depths;
+	}
+
+}
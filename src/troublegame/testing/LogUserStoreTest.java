@@ -0,0 +1,199 @@
+package troublegame.testing;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import troublegame.server.Color;
+import troublegame.server.User;
+import troublegame.server.io.FileUserStore;
+import troublegame.server.io.LogUserStore;
+
+/**
+ * Checks that the log user store recovers what it should. Saves users a few
+ * times over, cuts the newest segment off in the middle of its last record
+ * and reopens it, compacts while users are still being saved, and reopens
+ * after a compaction that died before deleting the segments it replaced.
+ * Also imports the files of a file store with a damaged file among them
+ * over an import that never finished. Works in new temporary directories,
+ * which are deleted afterwards.
+ */
+public class LogUserStoreTest {
+
+	private static final int USERS = 200;
+
+	private static long checked;
+	private static long failures;
+
+	public static void main(String[] args) throws Exception {
+		File directory = Files.createTempDirectory("user-log").toFile();
+		File files = Files.createTempDirectory("user-files").toFile();
+		try {
+			run(directory);
+			runImport(files);
+		} finally {
+			delete(directory);
+			delete(files);
+		}
+		System.out.println(checked + " checks, " + failures + " failures");
+	}
+
+	private static void delete(File directory) {
+		for (File file : directory.listFiles())
+			file.delete();
+		directory.delete();
+	}
+
+	private static void run(File directory) throws Exception {
+		List<User> users = new ArrayList<User>();
+		LogUserStore store = open(directory);
+		for (int i = 0; i < USERS; i++) {
+			User user = new User("user" + i + "@test.com", "User" + i, "test", Color.RANDOM, "0");
+			users.add(user);
+			store.create(user);
+		}
+		for (int version = 1; version <= 5; version++)
+			saveAll(store, users, version);
+		store.close();
+
+		// a crash part way through appending the last save
+		File newest = newestSegment(directory);
+		try (RandomAccessFile file = new RandomAccessFile(newest, "rw")) {
+			file.setLength(file.length() - 10);
+		}
+		store = open(directory);
+		check("users after cutting a record short", store.size() == USERS);
+		check("the cut save is lost", quote(store, users.get(USERS - 1)).equals("4"));
+		check("the save before it is kept", quote(store, users.get(USERS - 2)).equals("5"));
+		check("the cut bytes are counted", !store.getStats().endsWith(" 0 bytes lost to damage"));
+		store.write(users.get(USERS - 1));
+
+		// saves made while the finished segments are being copied keep their newer records
+		LogUserStore compacting = store;
+		Thread compactor = new Thread(() -> {
+			try {
+				compacting.compact();
+			} catch (IOException e) {
+				System.out.println("Compaction failed: " + e);
+			}
+		});
+		compactor.start();
+		saveAll(store, users, 6);
+		compactor.join();
+		checkAll(store, users, "6", "after compacting while saving");
+		store.close();
+		store = open(directory);
+		checkAll(store, users, "6", "after reopening a compacted log");
+
+		// a compaction that dies after moving its segment in, before deleting the old ones
+		saveAll(store, users, 7);
+		Map<File, byte[]> before = new HashMap<File, byte[]>();
+		for (File file : segmentFiles(directory))
+			before.put(file, Files.readAllBytes(file.toPath()));
+		store.compact();
+		store.close();
+		List<File> restored = new ArrayList<File>();
+		for (Map.Entry<File, byte[]> e : before.entrySet()) {
+			if (!e.getKey().exists()) {
+				Files.write(e.getKey().toPath(), e.getValue());
+				restored.add(e.getKey());
+			}
+		}
+		File tmp = new File(newestSegment(directory).getPath() + ".tmp");
+		Files.write(tmp.toPath(), new byte[] { 1, 2, 3 });
+		check("old segments put back", !restored.isEmpty());
+		store = open(directory);
+		for (File file : restored)
+			check("replaced segment " + file.getName() + " deleted", !file.exists());
+		check("unfinished copy deleted", !tmp.exists());
+		check("users after an interrupted compaction", store.size() == USERS);
+		checkAll(store, users, "7", "after an interrupted compaction");
+		System.out.println(store.getStats());
+		store.close();
+	}
+
+	/**
+	 * Imports the user files of a file store that has one file that cannot be
+	 * read, first after an import that died before finishing.
+	 */
+	private static void runImport(File directory) throws Exception {
+		List<User> users = new ArrayList<User>();
+		FileUserStore files = new FileUserStore(directory.getPath());
+		files.open();
+		for (int i = 0; i < 30; i++) {
+			User user = new User("file" + i + "@test.com", "File" + i, "test", Color.RANDOM, "0");
+			users.add(user);
+			files.create(user);
+		}
+		files.close();
+		Files.write(new File(directory, "damaged.ser").toPath(), new byte[] { 1, 2, 3 });
+		// what an import that died part way through leaves behind
+		File tmp = new File(directory, "users-000001.log.tmp");
+		Files.write(tmp.toPath(), new byte[] { 0, 0, 0, 30, 1, 2, 3 });
+
+		LogUserStore store = open(directory);
+		check("unfinished import replaced", !tmp.exists());
+		check("users imported past a damaged file", store.size() == users.size());
+		checkAll(store, users, "0", "after importing");
+		store.close();
+		store = open(directory);
+		check("users after reopening an import", store.size() == users.size());
+		checkAll(store, users, "0", "after reopening an import");
+		store.close();
+	}
+
+	private static LogUserStore open(File directory) throws IOException {
+		LogUserStore store = new LogUserStore(directory.getPath());
+		store.open();
+		return store;
+	}
+
+	private static void saveAll(LogUserStore store, List<User> users, int version) {
+		for (User user : users) {
+			user.setPersonalQuote(Integer.toString(version));
+			store.write(user);
+		}
+	}
+
+	private static String quote(LogUserStore store, User user) {
+		User read = store.read(user.getId());
+		return read == null ? null : read.getPersonalQuote();
+	}
+
+	private static void checkAll(LogUserStore store, List<User> users, String expected, String when) {
+		for (User user : users) {
+			String quote = quote(store, user);
+			check(user.getEmail() + " reads back " + expected + " " + when + ", got " + quote, expected.equals(quote));
+		}
+	}
+
+	private static void check(String what, boolean ok) {
+		checked++;
+		if (!ok) {
+			failures++;
+			if (failures <= 10)
+				System.out.println("FAILED: " + what);
+		}
+	}
+
+	private static List<File> segmentFiles(File directory) {
+		List<File> files = new ArrayList<File>();
+		for (File file : directory.listFiles()) {
+			if (file.getName().startsWith("users-") && file.getName().endsWith(".log"))
+				files.add(file);
+		}
+		files.sort(null);
+		return files;
+	}
+
+	private static File newestSegment(File directory) {
+		List<File> files = segmentFiles(directory);
+		return files.get(files.size() - 1);
+	}
+
+}
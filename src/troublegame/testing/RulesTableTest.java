@@ -0,0 +1,148 @@
+package troublegame.testing;
+
+import troublegame.server.Board;
+import troublegame.server.BoardState;
+import troublegame.server.Player;
+import troublegame.server.Rules;
+
+/**
+ * Checks the precomputed move tables in Rules against the arithmetic they
+ * replaced. Every token is put in every slot it can be in, on its own and with
+ * each other token in each slot that one can be in, and every die value is
+ * evaluated both ways. Also times a run of evaluations.
+ */
+public class RulesTableTest {
+
+	private static final int[] START = { Board.RED_START, Board.GREEN_START, Board.YELLOW_START, Board.BLUE_START };
+	private static final int[] END = { Board.RED_END, Board.GREEN_END, Board.YELLOW_END, Board.BLUE_END };
+
+	private static long checked;
+	private static long failures;
+
+	public static void main(String[] args) {
+		BoardState state = new BoardState();
+		for (int token = 0; token < BoardState.NUM_TOKENS; token++) {
+			for (int[] slot : slots(token)) {
+				state.reset();
+				state.move(token, slot[0], slot[1]);
+				check(state, token);
+				for (int other = 0; other < BoardState.NUM_TOKENS; other++) {
+					if (other == token)
+						continue;
+					for (int[] otherSlot : slots(other)) {
+						if (isSameSlot(token, slot, other, otherSlot))
+							continue;
+						state.reset();
+						state.move(token, slot[0], slot[1]);
+						state.move(other, otherSlot[0], otherSlot[1]);
+						check(state, token);
+					}
+				}
+			}
+		}
+		System.out.println(checked + " moves checked, " + failures + " failures");
+		time(state);
+	}
+
+	/**
+	 * @return every zone and index the token can be in.
+	 */
+	private static int[][] slots(int token) {
+		int[][] slots = new int[1 + Board.NUM_MAIN_SLOTS + Board.NUM_END_SLOTS][];
+		int n = 0;
+		slots[n++] = new int[] { Board.SLOT_HOME, BoardState.idOfToken(token) };
+		for (int i = 0; i < Board.NUM_MAIN_SLOTS; i++)
+			slots[n++] = new int[] { Board.SLOT_MAIN, i };
+		for (int i = 0; i < Board.NUM_END_SLOTS; i++)
+			slots[n++] = new int[] { Board.SLOT_END, i };
+		return slots;
+	}
+
+	private static boolean isSameSlot(int token, int[] slot, int other, int[] otherSlot) {
+		if (slot[0] != otherSlot[0] || slot[1] != otherSlot[1])
+			return false;
+		// home and end slots belong to a colour
+		return slot[0] == Board.SLOT_MAIN || BoardState.colourOfToken(token) == BoardState.colourOfToken(other);
+	}
+
+	private static void check(BoardState state, int token) {
+		for (int die = 1; die <= 6; die++) {
+			int expected = reference(state, token, die);
+			int actual = Rules.evaluate(state, token, die);
+			checked++;
+			if (expected != actual) {
+				failures++;
+				if (failures <= 10)
+					System.out.println("token " + token + " in " + state.getZone(token) + " " + state.getIndex(token) + " die " + die
+							+ ": expected " + describe(expected) + ", got " + describe(actual));
+			}
+		}
+	}
+
+	private static String describe(int move) {
+		return "kind " + Rules.kind(move) + " to " + Rules.zone(move) + " " + Rules.index(move) + " eating " + Rules.eaten(move);
+	}
+
+	/**
+	 * The rules as they were worked out before the tables, returning the move in the same encoding.
+	 */
+	private static int reference(BoardState state, int token, int die) {
+		int colour = BoardState.colourOfToken(token);
+		switch (state.getZone(token)) {
+			case Board.SLOT_HOME: {
+				int start = START[colour];
+				return move(token, die, Rules.ENTER, Board.SLOT_MAIN, start, state.getMainOccupant(start));
+			}
+			case Board.SLOT_MAIN: {
+				int pos = state.getIndex(token);
+				int endIndex = END[colour];
+				int endPos = pos + die;
+				if (pos <= endIndex && endPos > endIndex) {
+					int slot = endPos - endIndex - 1;
+					if (slot >= Board.NUM_END_SLOTS || state.getOccupant(Board.SLOT_END, colour, slot) != BoardState.NONE)
+						return move(token, die, Rules.FAIL, 0, 0, BoardState.NONE);
+					return move(token, die, Rules.FINISH, Board.SLOT_END, slot, BoardState.NONE);
+				}
+				int target = endPos % Board.NUM_MAIN_SLOTS;
+				return move(token, die, Rules.MOVE, Board.SLOT_MAIN, target, state.getMainOccupant(target));
+			}
+			default:
+				return move(token, die, Rules.FAIL, 0, 0, BoardState.NONE);
+		}
+	}
+
+	/**
+	 * Encodes a move the way Rules does, checking each field reads back.
+	 */
+	private static int move(int token, int die, int kind, int zone, int index, int eaten) {
+		int move = token | die << 4 | kind << 7 | zone << 9 | index << 11 | (eaten + 1) << 16;
+		if (Rules.token(move) != token || Rules.die(move) != die || Rules.kind(move) != kind || Rules.zone(move) != zone
+				|| Rules.index(move) != index || Rules.eaten(move) != eaten)
+			throw new IllegalStateException("Move encoding changed");
+		return move;
+	}
+
+	/**
+	 * Times evaluating every token for every die value on a board with tokens spread out.
+	 */
+	private static void time(BoardState state) {
+		state.reset();
+		for (int colour = 0; colour < BoardState.NUM_COLOURS; colour++) {
+			for (int id = 0; id < Player.NUM_TOKENS - 1; id++)
+				state.move(BoardState.token(colour, id), Board.SLOT_MAIN, (START[colour] + 2 * id + 1) % Board.NUM_MAIN_SLOTS);
+		}
+		int rounds = 2000000;
+		long sum = 0;
+		for (int warmup = 0; warmup < 2; warmup++) {
+			long start = System.nanoTime();
+			for (int i = 0; i < rounds; i++) {
+				for (int token = 0; token < BoardState.NUM_TOKENS; token++)
+					sum += Rules.evaluate(state, token, i % 6 + 1);
+			}
+			long nanos = System.nanoTime() - start;
+			if (warmup == 1)
+				System.out.printf("%.2f ns per evaluation (%d)%n", (double) nanos / rounds / BoardState.NUM_TOKENS, sum & 1);
+		}
+	}
+
+}
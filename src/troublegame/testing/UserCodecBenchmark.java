@@ -0,0 +1,125 @@
+package troublegame.testing;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.ArrayList;
+import java.util.UUID;
+
+import troublegame.server.Color;
+import troublegame.server.User;
+import troublegame.server.UserCodec;
+
+/**
+ * Compares UserCodec with Java serialisation for users with 0, 10, 100 and
+ * 1000 friends: the size of a stored user and encode and decode operations
+ * per second, each measured after a warm up round.
+ *
+ * Usage: UserCodecBenchmark [friend counts...]
+ */
+public class UserCodecBenchmark {
+
+	private static final int WARMUP_MILLIS = 1000;
+	private static final int RUN_MILLIS = 2000;
+
+	private interface Codec {
+		byte[] encode(User user) throws IOException;
+
+		User decode(byte[] bytes) throws IOException;
+	}
+
+	private static final Codec SERIALIZED = new Codec() {
+
+		@Override
+		public byte[] encode(User user) throws IOException {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			ObjectOutputStream out = new ObjectOutputStream(bytes);
+			out.writeObject(user);
+			out.close();
+			return bytes.toByteArray();
+		}
+
+		@Override
+		public User decode(byte[] bytes) throws IOException {
+			ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(bytes));
+			try {
+				return (User) in.readObject();
+			} catch (ClassNotFoundException e) {
+				throw new IOException(e);
+			} finally {
+				in.close();
+			}
+		}
+	};
+
+	private static final Codec CODEC = new Codec() {
+
+		@Override
+		public byte[] encode(User user) throws IOException {
+			return UserCodec.encode(user);
+		}
+
+		@Override
+		public User decode(byte[] bytes) throws IOException {
+			return UserCodec.decode(bytes, 0, bytes.length);
+		}
+	};
+
+	private static volatile Object sink;
+
+	public static void main(String[] args) throws IOException {
+		int[] friendCounts = { 0, 10, 100, 1000 };
+		if (args.length > 0) {
+			friendCounts = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				friendCounts[i] = Integer.parseInt(args[i]);
+		}
+		for (int friends : friendCounts) {
+			User user = user(friends);
+			run("serialisation", SERIALIZED, user);
+			run("UserCodec", CODEC, user);
+		}
+	}
+
+	private static User user(int friendCount) {
+		ArrayList<UUID> friends = new ArrayList<UUID>();
+		for (int i = 0; i < friendCount; i++)
+			friends.add(UUID.randomUUID());
+		return new User(UUID.randomUUID(), "bench@test.com", "Bench", "password", Color.BLUE, "Life is a highway", 1,
+				friends, 42, 17);
+	}
+
+	private static void run(String name, Codec codec, User user) throws IOException {
+		byte[] bytes = codec.encode(user);
+		if (!codec.decode(bytes).getFriendList().equals(user.getFriendList()))
+			throw new IllegalStateException(name + " did not read back the friends written");
+
+		time(codec, user, bytes, true, WARMUP_MILLIS);
+		time(codec, user, bytes, false, WARMUP_MILLIS);
+		double encodes = time(codec, user, bytes, true, RUN_MILLIS);
+		double decodes = time(codec, user, bytes, false, RUN_MILLIS);
+
+		System.out.printf("%4d friends, %-13s %6d bytes, %,10.0f encodes/s, %,10.0f decodes/s%n",
+				user.getFriendList().size(), name, bytes.length, encodes, decodes);
+	}
+
+	/**
+	 * @return operations per second
+	 */
+	private static double time(Codec codec, User user, byte[] bytes, boolean encode, long millis) throws IOException {
+		long end = System.nanoTime() + millis * 1000000L;
+		long start = System.nanoTime();
+		long ops = 0;
+		long now;
+		do {
+			for (int i = 0; i < 100; i++)
+				sink = encode ? codec.encode(user) : codec.decode(bytes);
+			ops += 100;
+			now = System.nanoTime();
+		} while (now < end);
+		return ops * 1e9 / (now - start);
+	}
+
+}
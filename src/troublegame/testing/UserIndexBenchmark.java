@@ -0,0 +1,119 @@
+package troublegame.testing;
+
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.UUID;
+import java.util.regex.Pattern;
+
+import troublegame.server.io.UserIndex;
+
+/**
+ * Measures the user index at 10k, 100k and 1M users in a scratch directory:
+ * building it, loading it back and looking users up by email and id. At the
+ * smallest size the lookup is also timed the old way, by listing the user
+ * directory, which needs one empty file per user.
+ *
+ * Usage: UserIndexBenchmark [sizes...]
+ */
+public class UserIndexBenchmark {
+
+	private static final int LOOKUPS = 100000;
+	private static final int SCAN_LOOKUPS = 20;
+	private static final int MAX_SCAN_USERS = 10000;
+
+	public static void main(String[] args) throws IOException {
+		int[] sizes = { 10000, 100000, 1000000 };
+		if (args.length > 0) {
+			sizes = new int[args.length];
+			for (int i = 0; i < args.length; i++)
+				sizes[i] = Integer.parseInt(args[i]);
+		}
+		for (int size : sizes)
+			run(size);
+	}
+
+	private static void run(int users) throws IOException {
+		File dir = Files.createTempDirectory("userindex").toFile();
+		String[] emails = new String[users];
+		UUID[] ids = new UUID[users];
+		for (int i = 0; i < users; i++) {
+			emails[i] = "user" + i + "@bench.com";
+			ids[i] = UUID.randomUUID();
+		}
+
+		UserIndex index = new UserIndex(dir.getPath());
+		index.load();
+		long start = System.nanoTime();
+		for (int i = 0; i < users; i++)
+			index.add(emails[i].hashCode(), ids[i]);
+		long addNanos = System.nanoTime() - start;
+		index.close();
+
+		index = new UserIndex(dir.getPath());
+		start = System.nanoTime();
+		index.load();
+		long loadNanos = System.nanoTime() - start;
+
+		Random random = new Random(users);
+		int found = 0;
+		start = System.nanoTime();
+		for (int i = 0; i < LOOKUPS; i++) {
+			int n = random.nextInt(users);
+			if (index.getByEmail(emails[n]) != null && index.getById(ids[n]) != null)
+				found++;
+		}
+		long lookupNanos = System.nanoTime() - start;
+		index.close();
+
+		System.out.printf("%d users: add %.1f ms, load %.1f ms, %.0f ns per email+id lookup (%d/%d found)%n", users,
+				addNanos / 1e6, loadNanos / 1e6, (double) lookupNanos / LOOKUPS, found, LOOKUPS);
+
+		if (users <= MAX_SCAN_USERS)
+			scan(dir, emails, ids);
+		delete(dir);
+	}
+
+	/**
+	 * Times lookups by listing the directory with a pattern per file name, as
+	 * the user manager did before the index.
+	 */
+	private static void scan(File dir, String[] emails, UUID[] ids) throws IOException {
+		for (int i = 0; i < emails.length; i++)
+			new File(dir, UserIndex.fileName(emails[i].hashCode(), ids[i])).createNewFile();
+		Random random = new Random(emails.length);
+		long start = System.nanoTime();
+		for (int i = 0; i < SCAN_LOOKUPS; i++) {
+			String email = emails[random.nextInt(emails.length)];
+			dir.listFiles(new FilenameFilter() {
+
+				@Override
+				public boolean accept(File d, String name) {
+					return Pattern.matches("^" + email.hashCode() + " .+\\.ser$", name);
+				}
+			});
+		}
+		long scanNanos = System.nanoTime() - start;
+
+		// the index is now older than the directory and is rebuilt from the file names
+		UserIndex index = new UserIndex(dir.getPath());
+		start = System.nanoTime();
+		boolean rebuilt = index.load();
+		long rebuildNanos = System.nanoTime() - start;
+		index.close();
+
+		System.out.printf("%d users: %.2f ms per directory scan lookup, rebuild from files %.1f ms (rebuilt %b)%n",
+				emails.length, scanNanos / 1e6 / SCAN_LOOKUPS, rebuildNanos / 1e6, rebuilt);
+	}
+
+	private static void delete(File dir) {
+		File[] files = dir.listFiles();
+		if (files != null)
+			for (File f : files)
+				f.delete();
+		dir.delete();
+	}
+
+}